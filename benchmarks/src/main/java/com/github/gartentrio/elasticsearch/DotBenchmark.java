@@ -0,0 +1,80 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-document work of scoring: the dot product of the {@link VectorKernels} on decoded floats, and the dot
+ * product of a prepared query with an encoded doc value, as the scorers compute it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DotBenchmark {
+
+	@Param({ "float", "float16", "int8" })
+	public String elementType;
+
+	@Param({ "64", "128", "256", "512", "1024", "2048" })
+	public int dims;
+
+	private float[] a;
+	private float[] b;
+	private VectorElementType.DotProduct dotProduct;
+	private BytesRef encoded;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+		a = Vectors.random(dims, random);
+		b = Vectors.random(dims, random);
+		VectorEncoding encoding = new VectorEncoding(VectorElementType.fromString(elementType), dims);
+		dotProduct = new QueryVector(a, encoding, VectorSimilarity.DOT_PRODUCT).dotProduct();
+		encoded = encoding.encode(b, dims);
+	}
+
+	@Benchmark
+	public float kernel() {
+		return VectorKernels.INSTANCE.dot(a, 0, b, 0, dims);
+	}
+
+	@Benchmark
+	public float encoded() {
+		return dotProduct.dot(encoded);
+	}
+}
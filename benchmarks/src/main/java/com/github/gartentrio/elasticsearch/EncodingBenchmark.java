@@ -0,0 +1,78 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.BytesRef;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of a vector into the doc value written by the mapper, and decoding it back into floats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EncodingBenchmark {
+
+	@Param({ "float", "float16", "bfloat16", "int8" })
+	public String elementType;
+
+	@Param({ "64", "256", "1024", "2048" })
+	public int dims;
+
+	private VectorEncoding encoding;
+	private float[] vector;
+	private BytesRef encoded;
+	private float[] decoded;
+
+	@Setup
+	public void setup() {
+		encoding = new VectorEncoding(VectorElementType.fromString(elementType), dims);
+		vector = Vectors.random(dims, new Random(0));
+		encoded = encoding.encode(vector, dims);
+		decoded = new float[dims];
+	}
+
+	@Benchmark
+	public BytesRef encode() {
+		return encoding.encode(vector, dims);
+	}
+
+	@Benchmark
+	public float[] decode() {
+		encoding.decode(encoded, decoded, 0);
+		return decoded;
+	}
+}
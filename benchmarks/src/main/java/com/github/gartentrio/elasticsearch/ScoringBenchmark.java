@@ -0,0 +1,124 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scores every document of an in-memory segment, from the doc values as {@code vector_score} and {@code vector_dot}
+ * do, and from the decoded vectors of the {@link VectorCache}. One operation is a scan of the whole segment.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScoringBenchmark {
+
+	private static final String FIELD = "vector";
+
+	@Param({ "float", "float16" })
+	public String elementType;
+
+	@Param({ "128", "512" })
+	public int dims;
+
+	@Param({ "10000", "100000" })
+	public int docs;
+
+	@Param({ "dot_product", "cosine", "l2" })
+	public String similarity;
+
+	@Param({ "1", "4" })
+	public int queryVectors;
+
+	private Directory dir;
+	private DirectoryReader reader;
+	private LeafReader leaf;
+	private QueryVectors query;
+	private VectorCache.SegmentVectors cached;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random random = new Random(0);
+		VectorEncoding encoding = new VectorEncoding(VectorElementType.fromString(elementType), dims);
+		dir = new ByteBuffersDirectory();
+		Vectors.index(dir, FIELD, encoding, docs, random);
+		reader = DirectoryReader.open(dir);
+		leaf = reader.leaves().get(0).reader();
+		float[][] vectors = new float[queryVectors][];
+		for (int i = 0; i < queryVectors; i++) {
+			vectors[i] = Vectors.random(dims, random);
+		}
+		query = new QueryVectors(vectors, encoding, VectorSimilarity.fromString(similarity), QueryVectors.ScoreMode.MAX);
+		cached = VectorCache.load(leaf, FIELD, encoding, new NoopCircuitBreaker("benchmark"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+		dir.close();
+	}
+
+	@Benchmark
+	public float docValues() throws IOException {
+		VectorSimilarity.LeafScorer scorer = query.scorer(leaf, FIELD);
+		BinaryDocValues values = leaf.getBinaryDocValues(FIELD);
+		float sum = 0;
+		for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+			sum += scorer.score(doc, values.binaryValue());
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public float cache() throws IOException {
+		QueryVectors.DocScorer scorer = query.scorer(cached);
+		float sum = 0;
+		for (int doc = 0; doc < docs; doc++) {
+			sum += scorer.score(doc);
+		}
+		return sum;
+	}
+}
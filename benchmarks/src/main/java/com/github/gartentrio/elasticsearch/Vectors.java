@@ -0,0 +1,73 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Synthetic data of the benchmarks.
+ */
+final class Vectors {
+
+	private Vectors() {}
+
+	/** A random unit vector. */
+	static float[] random(int dims, Random random) {
+		float[] vector = new float[dims];
+		double norm = 0;
+		for (int i = 0; i < dims; i++) {
+			vector[i] = (float) random.nextGaussian();
+			norm += vector[i] * vector[i];
+		}
+		for (int i = 0; i < dims; i++) {
+			vector[i] /= (float) Math.sqrt(norm);
+		}
+		return vector;
+	}
+
+	/**
+	 * Writes a single segment of {@code docs} documents with random vectors in {@code field}, with the doc values the
+	 * mapper writes.
+	 */
+	static void index(Directory dir, String field, VectorEncoding encoding, int docs, Random random) throws IOException {
+		try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig().setRAMBufferSizeMB(256))) {
+			float[] decoded = new float[encoding.dims()];
+			for (int i = 0; i < docs; i++) {
+				BytesRef data = encoding.encode(random(encoding.dims(), random), encoding.dims());
+				encoding.decode(data, decoded, 0);
+				Document doc = new Document();
+				doc.add(new BinaryDocValuesField(field, data));
+				doc.add(new NumericDocValuesField(VectorNorms.normField(field),
+						VectorNorms.encodeNorm(VectorNorms.norm(decoded, decoded.length))));
+				writer.addDocument(doc);
+			}
+			writer.forceMerge(1);
+		}
+	}
+}
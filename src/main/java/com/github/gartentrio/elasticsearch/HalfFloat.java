@@ -0,0 +1,106 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+/**
+ * Conversions between single precision floats and the 16 bit formats IEEE 754 binary16 ("half") and bfloat16.
+ * Both conversions from float round to nearest, ties to even.
+ */
+final class HalfFloat {
+
+	/** All 2^16 half precision values decoded, so that decoding is a single table lookup. */
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+	static {
+		for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+			HALF_TO_FLOAT[i] = computeHalfToFloat(i);
+		}
+	}
+
+	private HalfFloat() {}
+
+	/** Decodes the half precision value held in the lower 16 bits of {@code bits}. */
+	static float halfToFloat(int bits) {
+		return HALF_TO_FLOAT[bits & 0xFFFF];
+	}
+
+	static short floatToHalf(float value) {
+		final int bits = Float.floatToRawIntBits(value);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int abs = bits & 0x7FFFFFFF;
+		if (abs >= 0x7F800000) {
+			// infinity or NaN, keep NaNs quiet
+			return (short) (sign | 0x7C00 | (abs > 0x7F800000 ? 0x200 | ((abs >>> 13) & 0x3FF) : 0));
+		}
+		if (abs >= 0x477FF000) {
+			// rounds to a value beyond 65504, the largest half
+			return (short) (sign | 0x7C00);
+		}
+		if (abs < 0x38800000) {
+			// below 2^-14, subnormal or zero in half precision
+			if (abs < 0x33000000) {
+				return (short) sign;
+			}
+			final int shift = 126 - (abs >>> 23);
+			final int mantissa = (abs & 0x7FFFFF) | 0x800000;
+			return (short) (sign | roundShift(mantissa, shift));
+		}
+		final int half = (((abs >>> 23) - 112) << 10) | ((abs & 0x7FFFFF) >>> 13);
+		final int remainder = abs & 0x1FFF;
+		// a carry out of the mantissa correctly increments the exponent
+		return (short) (sign | (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0) ? half + 1 : half));
+	}
+
+	/** Decodes the bfloat16 value held in the lower 16 bits of {@code bits}. */
+	static float bfloat16ToFloat(int bits) {
+		return Float.intBitsToFloat(bits << 16);
+	}
+
+	static short floatToBFloat16(float value) {
+		final int bits = Float.floatToRawIntBits(value);
+		if ((bits & 0x7FFFFFFF) > 0x7F800000) {
+			// NaN, keep it quiet so that truncation cannot turn it into infinity
+			return (short) ((bits >>> 16) | 0x40);
+		}
+		return (short) ((bits + 0x7FFF + ((bits >>> 16) & 1)) >>> 16);
+	}
+
+	private static int roundShift(int value, int shift) {
+		final int result = value >>> shift;
+		final int remainder = value & ((1 << shift) - 1);
+		final int halfway = 1 << (shift - 1);
+		return remainder > halfway || (remainder == halfway && (result & 1) != 0) ? result + 1 : result;
+	}
+
+	private static float computeHalfToFloat(int bits) {
+		final int sign = (bits & 0x8000) << 16;
+		final int exponent = (bits >>> 10) & 0x1F;
+		final int mantissa = bits & 0x3FF;
+		if (exponent == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			// zero or subnormal, mantissa * 2^-24
+			final float value = mantissa * 0x1p-24f;
+			return sign == 0 ? value : -value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+}
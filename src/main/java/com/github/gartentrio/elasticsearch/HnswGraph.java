@@ -0,0 +1,407 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Hierarchical navigable small-world graph over the vectors of a single segment, see
+ * <a href="https://arxiv.org/abs/1603.09320">Malkov and Yashunin</a>. Nodes are identified by their ordinal,
+ * the position of the document in the segment's doc values, and are linked by the {@link VectorSimilarity} of the
+ * field. Search results are scored by the raw {@link VectorSimilarity#compare} value.
+ */
+final class HnswGraph {
+
+	private static final long SEED = 0x5EED;
+
+	private final int dims;
+	private final int[] docs;
+	private final float[] vectors;
+	private final VectorSimilarity similarity;
+	private final int maxConn;
+	private final int efConstruction;
+	private final double levelMultiplier;
+	private final Random random = new Random(SEED);
+
+	/** {@code links[ord][level]} holds the neighbour count at index 0 followed by the neighbour ordinals. */
+	private final int[][][] links;
+	private int entryPoint = -1;
+	private int maxLevel = -1;
+
+	private HnswGraph(int[] docs, float[] vectors, int dims, VectorSimilarity similarity, int maxConn, int efConstruction) {
+		this.dims = dims;
+		this.docs = docs;
+		this.vectors = vectors;
+		this.similarity = similarity;
+		this.maxConn = maxConn;
+		this.efConstruction = efConstruction;
+		this.levelMultiplier = 1 / Math.log(maxConn);
+		this.links = new int[docs.length][][];
+	}
+
+	/** Reads all vectors of {@code field} from the segment of {@code reader} and links them into a new graph. */
+	static HnswGraph build(LeafReader reader, String field, VectorEncoding encoding, VectorSimilarity similarity,
+			VectorIndexOptions.Hnsw options) throws IOException {
+		BinaryDocValues values = reader.getBinaryDocValues(field);
+		int[] docs = new int[0];
+		float[] vectors = new float[0];
+		int size = 0;
+		int dims = -1;
+		if (values != null) {
+			for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+				BytesRef data = values.binaryValue();
+				if (dims == -1) {
+					dims = encoding.dims(data);
+				} else if (dims != encoding.dims(data)) {
+					throw new IllegalStateException("Field [" + field + "] contains vectors of different dimensions ["
+							+ dims + "] and [" + encoding.dims(data) + "], an [hnsw] index requires a fixed dimension");
+				}
+				docs = ArrayUtil.grow(docs, size + 1);
+				vectors = ArrayUtil.grow(vectors, (size + 1) * dims);
+				docs[size] = doc;
+				encoding.decode(data, vectors, size * dims);
+				size++;
+			}
+		}
+		HnswGraph graph = new HnswGraph(Arrays.copyOf(docs, size), vectors, Math.max(dims, 0), similarity,
+				options.m(), options.efConstruction());
+		for (int ord = 0; ord < size; ord++) {
+			graph.insert(ord);
+		}
+		return graph;
+	}
+
+	/**
+	 * Estimated heap usage of a graph of {@code size} vectors with {@code dims} dimensions: the vectors, and the
+	 * bottom layer of links of every node, which outweighs the upper layers.
+	 */
+	static long estimateBytes(long size, int dims, int m) {
+		long perNode = Integer.BYTES + (long) dims * Float.BYTES + (2L * m + 1) * Integer.BYTES
+				+ 2 * (RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+		return size * perNode;
+	}
+
+	/** Heap used by the vectors and the links of the graph. */
+	long ramBytesUsed() {
+		long bytes = RamUsageEstimator.sizeOf(docs) + RamUsageEstimator.sizeOf(vectors) + RamUsageEstimator.shallowSizeOf(links);
+		for (int[][] levels : links) {
+			if (levels != null) {
+				bytes += RamUsageEstimator.shallowSizeOf(levels);
+				for (int[] level : levels) {
+					bytes += RamUsageEstimator.sizeOf(level);
+				}
+			}
+		}
+		return bytes;
+	}
+
+	int dims() {
+		return dims;
+	}
+
+	int size() {
+		return docs.length;
+	}
+
+	/**
+	 * Returns the (at most) {@code k} live documents most similar to {@code query}, ordered by descending similarity.
+	 * {@code ef} is the size of the dynamic candidate list on layer 0 and trades speed for recall.
+	 */
+	ScoreDoc[] search(float[] query, int k, int ef, Bits liveDocs) {
+		if (entryPoint == -1) {
+			return new ScoreDoc[0];
+		}
+		if (query.length != dims) {
+			throw new IllegalArgumentException("Query vector has [" + query.length + "] dimensions but the indexed vectors have [" + dims + "]");
+		}
+		int ep = entryPoint;
+		for (int level = maxLevel; level > 0; level--) {
+			ep = greedySearch(query, ep, level);
+		}
+		NodeQueue results = searchLayer(query, ep, Math.max(ef, k), 0);
+		// deleted documents are kept in the graph to preserve connectivity but are never returned
+		NodeQueue top = new NodeQueue(k, false);
+		while (results.size() > 0) {
+			float score = results.topScore();
+			int ord = results.pop();
+			if (liveDocs == null || liveDocs.get(docs[ord])) {
+				top.insertWithOverflow(ord, score);
+			}
+		}
+		ScoreDoc[] hits = new ScoreDoc[top.size()];
+		for (int i = hits.length - 1; i >= 0; i--) {
+			float score = top.topScore();
+			hits[i] = new ScoreDoc(docs[top.pop()], score);
+		}
+		return hits;
+	}
+
+	private void insert(int ord) {
+		int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+		links[ord] = new int[level + 1][];
+		for (int l = 0; l <= level; l++) {
+			links[ord][l] = new int[maxConn(l) + 1];
+		}
+		if (entryPoint == -1) {
+			entryPoint = ord;
+			maxLevel = level;
+			return;
+		}
+		float[] vector = vector(ord);
+		int ep = entryPoint;
+		for (int l = maxLevel; l > level; l--) {
+			ep = greedySearch(vector, ep, l);
+		}
+		for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+			NodeQueue candidates = searchLayer(vector, ep, efConstruction, l);
+			int[] sorted = new int[candidates.size()];
+			float[] scores = new float[sorted.length];
+			for (int i = sorted.length - 1; i >= 0; i--) {
+				scores[i] = candidates.topScore();
+				sorted[i] = candidates.pop();
+			}
+			ep = sorted[0];
+			int[] neighbours = selectNeighbours(sorted, scores, maxConn(l));
+			for (int neighbour : neighbours) {
+				link(ord, neighbour, l);
+				link(neighbour, ord, l);
+			}
+		}
+		if (level > maxLevel) {
+			entryPoint = ord;
+			maxLevel = level;
+		}
+	}
+
+	/**
+	 * Keeps a candidate only if it is closer to the new node than to any neighbour selected so far, which
+	 * favours links into different directions over a dense cluster of near-duplicates.
+	 */
+	private int[] selectNeighbours(int[] candidates, float[] scores, int max) {
+		int[] selected = new int[Math.min(max, candidates.length)];
+		int count = 0;
+		for (int i = 0; i < candidates.length && count < selected.length; i++) {
+			boolean diverse = true;
+			for (int j = 0; j < count && diverse; j++) {
+				diverse = similarity(candidates[i], selected[j]) < scores[i];
+			}
+			if (diverse) {
+				selected[count++] = candidates[i];
+			}
+		}
+		return Arrays.copyOf(selected, count);
+	}
+
+	/** Adds {@code to} to the neighbours of {@code from}, replacing the least similar neighbour when full. */
+	private void link(int from, int to, int level) {
+		int[] neighbours = links[from][level];
+		int count = neighbours[0];
+		if (count < neighbours.length - 1) {
+			neighbours[++count] = to;
+			neighbours[0] = count;
+			return;
+		}
+		int worst = -1;
+		float worstScore = similarity(from, to);
+		for (int i = 1; i <= count; i++) {
+			float score = similarity(from, neighbours[i]);
+			if (score < worstScore) {
+				worstScore = score;
+				worst = i;
+			}
+		}
+		if (worst != -1) {
+			neighbours[worst] = to;
+		}
+	}
+
+	private int greedySearch(float[] query, int ep, int level) {
+		float best = similarity(query, ep);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			int[] neighbours = links[ep][level];
+			for (int i = 1; i <= neighbours[0]; i++) {
+				float score = similarity(query, neighbours[i]);
+				if (score > best) {
+					best = score;
+					ep = neighbours[i];
+					changed = true;
+				}
+			}
+		}
+		return ep;
+	}
+
+	/** Returns the {@code ef} nodes closest to {@code query} on {@code level}, least similar on top. */
+	private NodeQueue searchLayer(float[] query, int ep, int ef, int level) {
+		FixedBitSet visited = new FixedBitSet(docs.length);
+		NodeQueue candidates = new NodeQueue(ef, true);
+		NodeQueue results = new NodeQueue(ef, false);
+		float score = similarity(query, ep);
+		visited.set(ep);
+		candidates.add(ep, score);
+		results.add(ep, score);
+		while (candidates.size() > 0) {
+			if (results.size() >= ef && candidates.topScore() < results.topScore()) {
+				break;
+			}
+			int[] neighbours = links[candidates.pop()][level];
+			for (int i = 1; i <= neighbours[0]; i++) {
+				int neighbour = neighbours[i];
+				if (visited.getAndSet(neighbour)) {
+					continue;
+				}
+				score = similarity(query, neighbour);
+				if (results.size() < ef || score > results.topScore()) {
+					candidates.add(neighbour, score);
+					results.insertWithOverflow(neighbour, score);
+				}
+			}
+		}
+		return results;
+	}
+
+	private int maxConn(int level) {
+		return level == 0 ? maxConn * 2 : maxConn;
+	}
+
+	private float[] vector(int ord) {
+		return Arrays.copyOfRange(vectors, ord * dims, (ord + 1) * dims);
+	}
+
+	private float similarity(float[] query, int ord) {
+		return similarity.compare(query, 0, vectors, ord * dims, dims);
+	}
+
+	private float similarity(int ord1, int ord2) {
+		return similarity.compare(vectors, ord1 * dims, vectors, ord2 * dims, dims);
+	}
+
+	/** Binary heap of node ordinals ordered by score, either with the most or the least similar node on top. */
+	static final class NodeQueue {
+
+		private final boolean maxHeap;
+		private final int capacity;
+		private int[] nodes;
+		private float[] scores;
+		private int size;
+
+		NodeQueue(int capacity, boolean maxHeap) {
+			this.capacity = capacity;
+			this.maxHeap = maxHeap;
+			this.nodes = new int[Math.max(capacity, 1)];
+			this.scores = new float[nodes.length];
+		}
+
+		int size() {
+			return size;
+		}
+
+		float topScore() {
+			return scores[0];
+		}
+
+		/** Adds a node, growing the heap as needed. */
+		void add(int node, float score) {
+			if (size == nodes.length) {
+				nodes = ArrayUtil.grow(nodes, size + 1);
+				scores = Arrays.copyOf(scores, nodes.length);
+			}
+			nodes[size] = node;
+			scores[size] = score;
+			upHeap(size++);
+		}
+
+		/** Adds a node to a min-heap of bounded capacity, evicting the least similar node if it is full. */
+		void insertWithOverflow(int node, float score) {
+			assert maxHeap == false;
+			if (size < capacity) {
+				add(node, score);
+			} else if (capacity > 0 && score > scores[0]) {
+				nodes[0] = node;
+				scores[0] = score;
+				downHeap(0);
+			}
+		}
+
+		int pop() {
+			int top = nodes[0];
+			size--;
+			nodes[0] = nodes[size];
+			scores[0] = scores[size];
+			downHeap(0);
+			return top;
+		}
+
+		private boolean before(int i, int j) {
+			return maxHeap ? scores[i] > scores[j] : scores[i] < scores[j];
+		}
+
+		private void upHeap(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (before(i, parent) == false) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void downHeap(int i) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && before(child + 1, child)) {
+					child++;
+				}
+				if (before(child, i) == false) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			int node = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = node;
+			float score = scores[i];
+			scores[i] = scores[j];
+			scores[j] = score;
+		}
+	}
+}
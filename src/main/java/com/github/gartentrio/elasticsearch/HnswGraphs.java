@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Builds the {@link HnswGraph}s of segments in the background on the warmer thread pool, so that the first query
+ * on a new segment does not wait for its graph. Until a graph is built, and for segments whose graph could not be
+ * built, queries scan the segment. Graphs are accounted on the fielddata circuit breaker for as long as their
+ * segment is open, a graph that would trip the breaker is not built.
+ */
+final class HnswGraphs {
+
+	private static final Logger logger = LogManager.getLogger(HnswGraphs.class);
+
+	private final SetOnce<ExecutorService> executor = new SetOnce<>();
+	private volatile CircuitBreaker breaker = new NoopCircuitBreaker(CircuitBreaker.FIELDDATA);
+
+	/** Starts building graphs on the warmer pool of {@code threadPool}, they are built by the first query until then. */
+	void start(ThreadPool threadPool) {
+		executor.set(threadPool.executor(ThreadPool.Names.WARMER));
+	}
+
+	/** Accounts graphs on {@code breaker} from now on. */
+	void setBreaker(CircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/**
+	 * The graph of {@code field} in the segment of {@code reader}, {@code null} while it is built. The first call
+	 * for a segment starts building it.
+	 */
+	HnswGraph get(LeafReader reader, String field, VectorEncoding encoding, VectorSimilarity similarity,
+			VectorIndexOptions.Hnsw options) throws IOException {
+		String key = HnswGraph.class.getSimpleName() + ":" + field;
+		ExecutorService executor = this.executor.get();
+		if (executor == null) {
+			return VectorSegmentCache.get(reader, key, r -> HnswGraph.build(r, field, encoding, similarity, options));
+		}
+		Entry entry = VectorSegmentCache.get(reader, key, r -> {
+			Entry e = new Entry();
+			try {
+				executor.execute(() -> build(e, r, field, encoding, similarity, options));
+			} catch (EsRejectedExecutionException ex) {
+				// the node is shutting down
+			}
+			return e;
+		});
+		return entry.graph;
+	}
+
+	private void build(Entry entry, LeafReader reader, String field, VectorEncoding encoding, VectorSimilarity similarity,
+			VectorIndexOptions.Hnsw options) {
+		CircuitBreaker breaker = this.breaker;
+		long estimate = 0;
+		try {
+			estimate = estimateBytes(reader, field, encoding, options);
+			breaker.addEstimateBytesAndMaybeBreak(estimate, "hnsw graph [" + field + "]");
+			HnswGraph graph = HnswGraph.build(reader, field, encoding, similarity, options);
+			long bytes = graph.ramBytesUsed();
+			breaker.addWithoutBreaking(bytes - estimate);
+			estimate = 0;
+			entry.set(graph, breaker, bytes);
+		} catch (CircuitBreakingException e) {
+			logger.debug(new ParameterizedMessage("hnsw graph of [{}] in segment [{}] not built", field, reader), e);
+		} catch (AlreadyClosedException e) {
+			// the segment was closed while its graph was built
+		} catch (IOException | RuntimeException e) {
+			logger.warn(new ParameterizedMessage("failed to build the hnsw graph of [{}] in segment [{}]", field, reader), e);
+		} finally {
+			breaker.addWithoutBreaking(-estimate);
+		}
+	}
+
+	/** Estimated heap usage of the graph of {@code field} in the segment of {@code reader}, see {@link HnswGraph#ramBytesUsed()}. */
+	private static long estimateBytes(LeafReader reader, String field, VectorEncoding encoding, VectorIndexOptions.Hnsw options)
+			throws IOException {
+		BinaryDocValues values = reader.getBinaryDocValues(field);
+		if (values == null || values.nextDoc() == DocIdSetIterator.NO_MORE_DOCS) {
+			return 0;
+		}
+		int dims = encoding.dims(values.binaryValue());
+		return HnswGraph.estimateBytes(Math.min(values.cost(), reader.maxDoc()), dims, options.m());
+	}
+
+	/**
+	 * A graph that is built in the background. Its bytes are released from the breaker when the segment is closed,
+	 * or as soon as it is built if the segment was closed in the meantime.
+	 */
+	private static final class Entry implements Releasable {
+
+		private volatile HnswGraph graph;
+		private CircuitBreaker breaker;
+		private long bytes;
+		private boolean closed;
+
+		synchronized void set(HnswGraph graph, CircuitBreaker breaker, long bytes) {
+			if (closed) {
+				breaker.addWithoutBreaking(-bytes);
+				return;
+			}
+			this.breaker = breaker;
+			this.bytes = bytes;
+			this.graph = graph;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			graph = null;
+			if (breaker != null) {
+				breaker.addWithoutBreaking(-bytes);
+				breaker = null;
+			}
+		}
+	}
+}
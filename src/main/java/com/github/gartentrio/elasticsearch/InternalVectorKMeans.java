@@ -0,0 +1,189 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+/**
+ * Result of a {@code vector_kmeans} aggregation: centroids weighted by the number of vectors closest to them. The
+ * final reduce pools the centroids of all shards and, if there are more than {@code k}, clusters them with weighted
+ * k-means++ seeding and Lloyd iterations. Partial reduces only pool, so no shard result is clustered twice.
+ */
+public class InternalVectorKMeans extends InternalAggregation {
+
+	private final int k;
+	private final int iterations;
+	private final long seed;
+	private final long vectors;
+	private final float[][] centroids;
+	private final double[] weights;
+
+	InternalVectorKMeans(String name, int k, int iterations, long seed, long vectors, float[][] centroids, double[] weights,
+			List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+		super(name, pipelineAggregators, metaData);
+		this.k = k;
+		this.iterations = iterations;
+		this.seed = seed;
+		this.vectors = vectors;
+		this.centroids = centroids;
+		this.weights = weights;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public InternalVectorKMeans(StreamInput in) throws IOException {
+		super(in);
+		k = in.readVInt();
+		iterations = in.readVInt();
+		seed = in.readLong();
+		vectors = in.readVLong();
+		centroids = new float[in.readVInt()][];
+		for (int c = 0; c < centroids.length; c++) {
+			centroids[c] = in.readFloatArray();
+		}
+		weights = in.readDoubleArray();
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeVInt(k);
+		out.writeVInt(iterations);
+		out.writeLong(seed);
+		out.writeVLong(vectors);
+		out.writeVInt(centroids.length);
+		for (float[] centroid : centroids) {
+			out.writeFloatArray(centroid);
+		}
+		out.writeDoubleArray(weights);
+	}
+
+	@Override
+	public String getWriteableName() {
+		return VectorKMeansAggregationBuilder.NAME;
+	}
+
+	/** Number of vectors that were clustered. */
+	public long getVectors() {
+		return vectors;
+	}
+
+	/** The centroids, at most {@code k}. */
+	public float[][] getCentroids() {
+		return centroids;
+	}
+
+	/** Estimated number of vectors closest to every centroid. */
+	public double[] getWeights() {
+		return weights;
+	}
+
+	@Override
+	public InternalVectorKMeans doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+		long vectors = 0;
+		List<float[]> pooled = new ArrayList<>();
+		List<Double> pooledWeights = new ArrayList<>();
+		int dims = -1;
+		for (InternalAggregation aggregation : aggregations) {
+			InternalVectorKMeans kmeans = (InternalVectorKMeans) aggregation;
+			vectors += kmeans.vectors;
+			for (int c = 0; c < kmeans.centroids.length; c++) {
+				if (dims < 0) {
+					dims = kmeans.centroids[c].length;
+				} else {
+					VectorAggregations.checkDims(VectorKMeansAggregationBuilder.NAME, dims, kmeans.centroids[c].length);
+				}
+				pooled.add(kmeans.centroids[c]);
+				pooledWeights.add(kmeans.weights[c]);
+			}
+		}
+		float[][] centroids = pooled.toArray(new float[pooled.size()][]);
+		double[] weights = new double[centroids.length];
+		for (int c = 0; c < weights.length; c++) {
+			weights[c] = pooledWeights.get(c);
+		}
+		if (reduceContext.isFinalReduce() && centroids.length > k) {
+			float[] points = new float[centroids.length * dims];
+			for (int c = 0; c < centroids.length; c++) {
+				System.arraycopy(centroids[c], 0, points, c * dims, dims);
+			}
+			centroids = KMeans.seed(points, weights, weights.length, dims, k, new Random(seed));
+			KMeans.lloyd(points, weights, weights.length, dims, centroids, iterations);
+			weights = KMeans.weights(points, weights, weights.length, dims, centroids);
+		}
+		return new InternalVectorKMeans(name, k, iterations, seed, vectors, centroids, weights, pipelineAggregators(), getMetaData());
+	}
+
+	@Override
+	public Object getProperty(List<String> path) {
+		if (path.isEmpty()) {
+			return this;
+		}
+		if (path.size() == 1 && "vectors".equals(path.get(0))) {
+			return vectors;
+		}
+		throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+	}
+
+	@Override
+	public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+		List<Integer> order = new ArrayList<>(centroids.length);
+		for (int c = 0; c < centroids.length; c++) {
+			order.add(c);
+		}
+		// largest clusters first
+		Collections.sort(order, (a, b) -> Double.compare(weights[b], weights[a]));
+		builder.field("vectors", vectors);
+		builder.startArray("clusters");
+		for (int c : order) {
+			builder.startObject();
+			builder.field("count", Math.round(weights[c]));
+			builder.array("centroid", centroids[c]);
+			builder.endObject();
+		}
+		builder.endArray();
+		return builder;
+	}
+
+	@Override
+	protected boolean doEquals(Object obj) {
+		InternalVectorKMeans other = (InternalVectorKMeans) obj;
+		return k == other.k && iterations == other.iterations && seed == other.seed && vectors == other.vectors
+				&& Arrays.deepEquals(centroids, other.centroids) && Arrays.equals(weights, other.weights);
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(k, iterations, seed, vectors, Arrays.deepHashCode(centroids), Arrays.hashCode(weights));
+	}
+}
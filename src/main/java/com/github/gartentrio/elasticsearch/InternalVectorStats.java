@@ -0,0 +1,200 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+/**
+ * Result of a {@code vector_stats} aggregation. Shards return their sums, which are added up on reduce, so the
+ * mean and variance are exact over all shards.
+ */
+public class InternalVectorStats extends InternalAggregation {
+
+	private static final double[] EMPTY = new double[0];
+
+	private final long count;
+	private final double[] sum;
+	private final double[] sumOfSquares;
+	private final double[] min;
+	private final double[] max;
+
+	InternalVectorStats(String name, long count, double[] sum, double[] sumOfSquares, double[] min, double[] max,
+			List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+		super(name, pipelineAggregators, metaData);
+		this.count = count;
+		this.sum = sum;
+		this.sumOfSquares = sumOfSquares;
+		this.min = min;
+		this.max = max;
+	}
+
+	static InternalVectorStats empty(String name, List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+		return new InternalVectorStats(name, 0, EMPTY, EMPTY, EMPTY, EMPTY, pipelineAggregators, metaData);
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public InternalVectorStats(StreamInput in) throws IOException {
+		super(in);
+		count = in.readVLong();
+		sum = in.readDoubleArray();
+		sumOfSquares = in.readDoubleArray();
+		min = in.readDoubleArray();
+		max = in.readDoubleArray();
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeVLong(count);
+		out.writeDoubleArray(sum);
+		out.writeDoubleArray(sumOfSquares);
+		out.writeDoubleArray(min);
+		out.writeDoubleArray(max);
+	}
+
+	@Override
+	public String getWriteableName() {
+		return VectorStatsAggregationBuilder.NAME;
+	}
+
+	/** Number of vectors. */
+	public long getCount() {
+		return count;
+	}
+
+	/** Number of dimensions, 0 if there are no vectors. */
+	public int getDims() {
+		return sum.length;
+	}
+
+	public double[] getSum() {
+		return sum;
+	}
+
+	public double[] getMean() {
+		double[] mean = new double[sum.length];
+		for (int d = 0; d < mean.length; d++) {
+			mean[d] = sum[d] / count;
+		}
+		return mean;
+	}
+
+	public double[] getMin() {
+		return min;
+	}
+
+	public double[] getMax() {
+		return max;
+	}
+
+	/** Population variance of every dimension. */
+	public double[] getVariance() {
+		double[] variance = new double[sum.length];
+		for (int d = 0; d < variance.length; d++) {
+			double mean = sum[d] / count;
+			variance[d] = Math.max(0, sumOfSquares[d] / count - mean * mean);
+		}
+		return variance;
+	}
+
+	@Override
+	public InternalVectorStats doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+		long count = 0;
+		double[] sum = null, sumOfSquares = null, min = null, max = null;
+		for (InternalAggregation aggregation : aggregations) {
+			InternalVectorStats stats = (InternalVectorStats) aggregation;
+			if (stats.count == 0) {
+				continue;
+			}
+			if (sum == null) {
+				sum = stats.sum.clone();
+				sumOfSquares = stats.sumOfSquares.clone();
+				min = stats.min.clone();
+				max = stats.max.clone();
+			} else {
+				VectorAggregations.checkDims(VectorStatsAggregationBuilder.NAME, sum.length, stats.sum.length);
+				for (int d = 0; d < sum.length; d++) {
+					sum[d] += stats.sum[d];
+					sumOfSquares[d] += stats.sumOfSquares[d];
+					min[d] = Math.min(min[d], stats.min[d]);
+					max[d] = Math.max(max[d], stats.max[d]);
+				}
+			}
+			count += stats.count;
+		}
+		if (sum == null) {
+			return empty(name, pipelineAggregators(), getMetaData());
+		}
+		return new InternalVectorStats(name, count, sum, sumOfSquares, min, max, pipelineAggregators(), getMetaData());
+	}
+
+	@Override
+	public Object getProperty(List<String> path) {
+		if (path.isEmpty()) {
+			return this;
+		}
+		if (path.size() == 1) {
+			switch (path.get(0)) {
+			case "count":
+				return count;
+			case "dims":
+				return getDims();
+			}
+		}
+		throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+	}
+
+	@Override
+	public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+		builder.field("count", count);
+		builder.field("dims", getDims());
+		if (count > 0) {
+			builder.array("sum", sum);
+			builder.array("mean", getMean());
+			builder.array("min", min);
+			builder.array("max", max);
+			builder.array("variance", getVariance());
+		}
+		return builder;
+	}
+
+	@Override
+	protected boolean doEquals(Object obj) {
+		InternalVectorStats other = (InternalVectorStats) obj;
+		return count == other.count && Arrays.equals(sum, other.sum) && Arrays.equals(sumOfSquares, other.sumOfSquares)
+				&& Arrays.equals(min, other.min) && Arrays.equals(max, other.max);
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(count, Arrays.hashCode(sum), Arrays.hashCode(sumOfSquares), Arrays.hashCode(min), Arrays.hashCode(max));
+	}
+}
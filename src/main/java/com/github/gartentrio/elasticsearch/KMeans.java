@@ -0,0 +1,168 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Euclidean k-means on points stored row-major in a single array: k-means++ seeding, mini-batch updates and
+ * weighted Lloyd iterations.
+ */
+final class KMeans {
+
+	private KMeans() {}
+
+	/**
+	 * Picks {@code k} of the {@code n} points as initial centers, each with a probability proportional to its
+	 * weight times its squared distance to the closest center picked so far. {@code weights} may be {@code null}
+	 * for equal weights. Returns fewer centers if there are fewer distinct points.
+	 */
+	static float[][] seed(float[] points, double[] weights, int n, int dims, int k, Random random) {
+		double[] distances = new double[n];
+		Arrays.fill(distances, Double.POSITIVE_INFINITY);
+		float[][] centers = new float[Math.min(k, n)][];
+		int count = 0;
+		int next = pick(weights, null, n, random);
+		while (next >= 0 && count < centers.length) {
+			centers[count] = Arrays.copyOfRange(points, next * dims, next * dims + dims);
+			for (int i = 0; i < n; i++) {
+				distances[i] = Math.min(distances[i], VectorKernels.INSTANCE.squareDistance(points, i * dims, centers[count], 0, dims));
+			}
+			count++;
+			next = pick(weights, distances, n, random);
+		}
+		return count == centers.length ? centers : Arrays.copyOf(centers, count);
+	}
+
+	/** Index of a point drawn with probability proportional to {@code weight * distance}, -1 if all are zero. */
+	private static int pick(double[] weights, double[] distances, int n, Random random) {
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			total += probability(weights, distances, i);
+		}
+		if (total <= 0) {
+			return -1;
+		}
+		double target = random.nextDouble() * total;
+		int last = -1;
+		for (int i = 0; i < n; i++) {
+			double p = probability(weights, distances, i);
+			if (p > 0) {
+				last = i;
+				target -= p;
+				if (target < 0) {
+					return i;
+				}
+			}
+		}
+		return last;
+	}
+
+	private static double probability(double[] weights, double[] distances, int i) {
+		return (weights == null ? 1 : weights[i]) * (distances == null ? 1 : distances[i]);
+	}
+
+	/**
+	 * Mini-batch k-means (Sculley, 2010): every iteration assigns {@code batchSize} random points to their closest
+	 * centers and moves each center towards its points with a learning rate of one over the number of points it
+	 * has been assigned so far.
+	 */
+	static void miniBatch(float[] points, int n, int dims, float[][] centers, int iterations, int batchSize, Random random) {
+		long[] assigned = new long[centers.length];
+		int[] batch = new int[batchSize];
+		int[] nearest = new int[batchSize];
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			for (int b = 0; b < batchSize; b++) {
+				batch[b] = random.nextInt(n);
+				nearest[b] = nearest(points, batch[b] * dims, centers, dims);
+			}
+			for (int b = 0; b < batchSize; b++) {
+				float[] center = centers[nearest[b]];
+				float rate = 1f / ++assigned[nearest[b]];
+				int offset = batch[b] * dims;
+				for (int d = 0; d < dims; d++) {
+					center[d] += rate * (points[offset + d] - center[d]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lloyd's algorithm on weighted points: assigns every point to its closest center and moves the centers to the
+	 * weighted means of their points, until no assignment changes or after {@code iterations}.
+	 */
+	static void lloyd(float[] points, double[] weights, int n, int dims, float[][] centers, int iterations) {
+		int[] assignment = new int[n];
+		Arrays.fill(assignment, -1);
+		double[] sums = new double[centers.length * dims];
+		double[] totals = new double[centers.length];
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			boolean changed = false;
+			for (int i = 0; i < n; i++) {
+				int c = nearest(points, i * dims, centers, dims);
+				changed |= c != assignment[i];
+				assignment[i] = c;
+			}
+			if (changed == false) {
+				return;
+			}
+			Arrays.fill(sums, 0);
+			Arrays.fill(totals, 0);
+			for (int i = 0; i < n; i++) {
+				int c = assignment[i];
+				totals[c] += weights[i];
+				for (int d = 0; d < dims; d++) {
+					sums[c * dims + d] += weights[i] * points[i * dims + d];
+				}
+			}
+			for (int c = 0; c < centers.length; c++) {
+				if (totals[c] > 0) {
+					for (int d = 0; d < dims; d++) {
+						centers[c][d] = (float) (sums[c * dims + d] / totals[c]);
+					}
+				}
+			}
+		}
+	}
+
+	/** Sums the weights of the points closest to each center. */
+	static double[] weights(float[] points, double[] weights, int n, int dims, float[][] centers) {
+		double[] totals = new double[centers.length];
+		for (int i = 0; i < n; i++) {
+			totals[nearest(points, i * dims, centers, dims)] += weights == null ? 1 : weights[i];
+		}
+		return totals;
+	}
+
+	/** The center closest to the point at {@code offset}. */
+	static int nearest(float[] points, int offset, float[][] centers, int dims) {
+		int nearest = 0;
+		float min = Float.POSITIVE_INFINITY;
+		for (int c = 0; c < centers.length; c++) {
+			float distance = VectorKernels.INSTANCE.squareDistance(points, offset, centers[c], 0, dims);
+			if (distance < min) {
+				min = distance;
+				nearest = c;
+			}
+		}
+		return nearest;
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+/**
+ * Builds a {@link KnnVectorQuery} that returns the {@code k} nearest neighbours of a vector.
+ */
+public class KnnQueryBuilder extends AbstractQueryBuilder<KnnQueryBuilder> {
+
+	public static final String NAME = "knn";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField VECTOR_FIELD = new ParseField("vector");
+	public static final ParseField K_FIELD = new ParseField("k");
+	public static final ParseField EF_SEARCH_FIELD = new ParseField("ef_search");
+	public static final ParseField NPROBE_FIELD = new ParseField("nprobe");
+	public static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+
+	public static final int DEFAULT_K = 10;
+	public static final int DEFAULT_EF_SEARCH = 100;
+	public static final int DEFAULT_NPROBE = 1;
+
+	private final String field;
+	private final float[] vector;
+	private int k = DEFAULT_K;
+	private int efSearch = DEFAULT_EF_SEARCH;
+	private int nprobe = DEFAULT_NPROBE;
+	private VectorSimilarity similarity;
+	/** The executor of the node, {@code null} on clients. */
+	private VectorSearchExecutor executor;
+	/** The graph builder of the node, {@code null} on clients. */
+	private HnswGraphs graphs;
+
+	public KnnQueryBuilder(String field, float[] vector) {
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (vector == null || vector.length == 0) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+		}
+		this.field = field;
+		this.vector = vector;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public KnnQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		vector = in.readFloatArray();
+		k = in.readVInt();
+		efSearch = in.readVInt();
+		nprobe = in.readVInt();
+		String similarityName = in.readOptionalString();
+		similarity = similarityName == null ? null : VectorSimilarity.fromString(similarityName);
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeFloatArray(vector);
+		out.writeVInt(k);
+		out.writeVInt(efSearch);
+		out.writeVInt(nprobe);
+		out.writeOptionalString(similarity == null ? null : similarity.getName());
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public float[] vector() {
+		return vector;
+	}
+
+	/** Sets the number of nearest neighbours to return. */
+	public KnnQueryBuilder k(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("[" + K_FIELD.getPreferredName() + "] must be positive, got [" + k + "]");
+		}
+		this.k = k;
+		return this;
+	}
+
+	public int k() {
+		return k;
+	}
+
+	/** Sets the size of the candidate list used while walking a graph; never less than {@code k}. */
+	public KnnQueryBuilder efSearch(int efSearch) {
+		if (efSearch < 1) {
+			throw new IllegalArgumentException("[" + EF_SEARCH_FIELD.getPreferredName() + "] must be positive, got [" + efSearch + "]");
+		}
+		this.efSearch = efSearch;
+		return this;
+	}
+
+	public int efSearch() {
+		return efSearch;
+	}
+
+	/** Sets the number of closest clusters whose documents are scored on fields with an {@code ivf} index. */
+	public KnnQueryBuilder nprobe(int nprobe) {
+		if (nprobe < 1) {
+			throw new IllegalArgumentException("[" + NPROBE_FIELD.getPreferredName() + "] must be positive, got [" + nprobe + "]");
+		}
+		this.nprobe = nprobe;
+		return this;
+	}
+
+	public int nprobe() {
+		return nprobe;
+	}
+
+	/**
+	 * Overrides the similarity of the field mapping, {@code null} uses the mapping. Fields with an {@code hnsw}
+	 * index only support the similarity their graph was built with.
+	 */
+	public KnnQueryBuilder similarity(VectorSimilarity similarity) {
+		this.similarity = similarity;
+		return this;
+	}
+
+	public VectorSimilarity similarity() {
+		return similarity;
+	}
+
+	/** Sets the executor that searches the segments of a shard concurrently. */
+	KnnQueryBuilder executor(VectorSearchExecutor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/** Sets the builder of the graphs of {@code hnsw} indices. */
+	KnnQueryBuilder graphs(HnswGraphs graphs) {
+		this.graphs = graphs;
+		return this;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.array(VECTOR_FIELD.getPreferredName(), vector);
+		builder.field(K_FIELD.getPreferredName(), k);
+		builder.field(EF_SEARCH_FIELD.getPreferredName(), efSearch);
+		builder.field(NPROBE_FIELD.getPreferredName(), nprobe);
+		if (similarity != null) {
+			builder.field(SIMILARITY_FIELD.getPreferredName(), similarity.getName());
+		}
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	public static KnnQueryBuilder fromXContent(XContentParser parser) throws IOException {
+		String field = null;
+		float[] vector = null;
+		Integer k = null;
+		Integer efSearch = null;
+		Integer nprobe = null;
+		VectorSimilarity similarity = null;
+		String queryName = null;
+		float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				vector = parseVector(parser);
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					vector = parseBinaryVector(parser, NAME);
+				} else if (K_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					k = parser.intValue();
+				} else if (EF_SEARCH_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					efSearch = parser.intValue();
+				} else if (NPROBE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					nprobe = parser.intValue();
+				} else if (SIMILARITY_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						similarity = VectorSimilarity.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					queryName = parser.text();
+				} else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					boost = parser.floatValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if (vector == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [vector]");
+		}
+
+		KnnQueryBuilder builder = new KnnQueryBuilder(field, vector);
+		if (k != null) {
+			builder.k(k);
+		}
+		if (efSearch != null) {
+			builder.efSearch(efSearch);
+		}
+		if (nprobe != null) {
+			builder.nprobe(nprobe);
+		}
+		builder.similarity(similarity);
+		builder.queryName(queryName);
+		builder.boost(boost);
+		return builder;
+	}
+
+	static float[] parseVector(XContentParser parser) throws IOException {
+		float[] vector = new float[16];
+		int size = 0;
+		while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+			vector = ArrayUtil.grow(vector, size + 1);
+			vector[size++] = parser.floatValue();
+		}
+		return Arrays.copyOf(vector, size);
+	}
+
+	/** Reads a vector given as base64 encoded little-endian float32 values, or as raw binary in CBOR and SMILE. */
+	static float[] parseBinaryVector(XContentParser parser, String queryName) throws IOException {
+		try {
+			return QueryVector.decodeFloats(parser.binaryValue());
+		} catch (IllegalArgumentException e) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + queryName + "] " + e.getMessage());
+		}
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		MappedFieldType fieldType = context.fieldMapper(field);
+		if (fieldType == null) {
+			return Queries.newMatchNoDocsQuery("Unmapped field [" + field + "]");
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new QueryShardException(context, "[" + NAME + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		VectorFieldMapper.VectorFieldType vectorFieldType = (VectorFieldMapper.VectorFieldType) fieldType;
+		VectorSimilarity querySimilarity = similarity == null ? vectorFieldType.vectorSimilarity() : similarity;
+		QueryVector query;
+		try {
+			query = new QueryVector(vectorFieldType.prefixOf(vector), vectorFieldType.encoding(), querySimilarity);
+		} catch (IllegalArgumentException e) {
+			throw new QueryShardException(context, "[" + NAME + "] " + e.getMessage() + " for field [" + field + "]");
+		}
+		if (vectorFieldType.vectorIndex() instanceof VectorIndexOptions.Hnsw && querySimilarity != vectorFieldType.vectorSimilarity()) {
+			throw new QueryShardException(context, "[" + NAME + "] the [hnsw] graph of field [" + field + "] is linked by ["
+					+ vectorFieldType.vectorSimilarity().getName() + "] similarity, it cannot be searched by [" + querySimilarity.getName() + "]");
+		}
+		if (vectorFieldType.vectorIndex() instanceof VectorIndexOptions.Ivf && querySimilarity != vectorFieldType.vectorSimilarity()) {
+			throw new QueryShardException(context, "[" + NAME + "] the [ivf] clusters of field [" + field + "] are assigned by ["
+					+ vectorFieldType.vectorSimilarity().getName() + "] similarity, it cannot be searched by [" + querySimilarity.getName() + "]");
+		}
+		return new KnnVectorQuery(fieldType.name(), query, k, Math.max(k, efSearch), nprobe, vectorFieldType.vectorIndex(), executor,
+				graphs);
+	}
+
+	@Override
+	protected boolean doEquals(KnnQueryBuilder other) {
+		return Objects.equals(field, other.field) && Arrays.equals(vector, other.vector) && k == other.k && efSearch == other.efSearch
+				&& nprobe == other.nprobe && similarity == other.similarity;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, Arrays.hashCode(vector), k, efSearch, nprobe, similarity);
+	}
+}
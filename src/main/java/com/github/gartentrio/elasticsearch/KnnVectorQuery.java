@@ -0,0 +1,351 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Finds the {@code k} documents whose vectors are most similar to the query vector. Segments of
+ * fields with an {@code hnsw} index are searched through their graph, and scanned while {@link HnswGraphs} builds
+ * it. Fields with an {@code ivf} index only score the documents of the {@code nprobe} closest clusters and all
+ * other fields are scanned. The search runs once when
+ * the query is rewritten, so the rewritten query simply matches the top {@code k} documents. Segments are searched
+ * concurrently if a {@link VectorSearchExecutor} is given, each keeping its own top {@code k} until they are merged.
+ */
+public class KnnVectorQuery extends Query {
+
+	private final String field;
+	private final QueryVector query;
+	private final int k;
+	private final int efSearch;
+	private final int nprobe;
+	private final VectorIndexOptions vectorIndex;
+	/** Searches the segments concurrently, {@code null} searches them on the calling thread. */
+	private final VectorSearchExecutor executor;
+	/** Builds graphs in the background, {@code null} builds them on the calling thread. */
+	private final HnswGraphs graphs;
+
+	public KnnVectorQuery(String field, QueryVector query, int k, int efSearch, int nprobe, VectorIndexOptions vectorIndex) {
+		this(field, query, k, efSearch, nprobe, vectorIndex, null, null);
+	}
+
+	KnnVectorQuery(String field, QueryVector query, int k, int efSearch, int nprobe, VectorIndexOptions vectorIndex,
+			VectorSearchExecutor executor, HnswGraphs graphs) {
+		this.executor = executor;
+		this.graphs = graphs;
+		this.field = field;
+		this.query = query;
+		this.k = k;
+		this.efSearch = efSearch;
+		this.nprobe = nprobe;
+		this.vectorIndex = vectorIndex;
+	}
+
+	@Override
+	public Query rewrite(IndexReader reader) throws IOException {
+		List<LeafReaderContext> leaves = reader.leaves();
+		Weight candidates = null;
+		if (vectorIndex instanceof VectorIndexOptions.Ivf) {
+			candidates = clusterWeight(reader, (VectorIndexOptions.Ivf) vectorIndex);
+		}
+		final Weight clusters = candidates;
+		TopDocs[] perLeaf;
+		if (executor == null) {
+			perLeaf = new TopDocs[leaves.size()];
+			for (LeafReaderContext ctx : leaves) {
+				perLeaf[ctx.ord] = searchLeaf(ctx, clusters);
+			}
+		} else {
+			perLeaf = executor.search(leaves, ctx -> searchLeaf(ctx, clusters));
+		}
+		TopDocs topDocs = TopDocs.merge(k, perLeaf);
+		if (topDocs.scoreDocs.length == 0) {
+			return new MatchNoDocsQuery("No vectors in field [" + field + "]");
+		}
+		return new DocAndScoreQuery(reader, topDocs.scoreDocs);
+	}
+
+	/** Matches the documents of the {@code nprobe} clusters closest to the query vector. */
+	private Weight clusterWeight(IndexReader reader, VectorIndexOptions.Ivf ivf) throws IOException {
+		int[] probes = ivf.probes(query.vector(), nprobe, query.similarity());
+		BytesRef[] terms = new BytesRef[probes.length];
+		for (int i = 0; i < probes.length; i++) {
+			terms[i] = new BytesRef(VectorFieldMapper.CentroidField.term(probes[i]));
+		}
+		IndexSearcher searcher = new IndexSearcher(reader);
+		searcher.setQueryCache(null);
+		return searcher.createWeight(searcher.rewrite(new TermInSetQuery(field, terms)), ScoreMode.COMPLETE_NO_SCORES, 1f);
+	}
+
+	private TopDocs searchLeaf(LeafReaderContext ctx, Weight candidates) throws IOException {
+		LeafReader reader = ctx.reader();
+		ScoreDoc[] hits;
+		HnswGraph graph = null;
+		if (vectorIndex instanceof VectorIndexOptions.Hnsw) {
+			graph = graph(reader, (VectorIndexOptions.Hnsw) vectorIndex);
+		}
+		if (graph != null) {
+			hits = graph.search(query.vector(), k, efSearch, reader.getLiveDocs());
+			for (ScoreDoc hit : hits) {
+				hit.score = query.similarity().score(hit.score);
+			}
+		} else if (candidates != null) {
+			Scorer scorer = candidates.scorer(ctx);
+			hits = scorer == null ? new ScoreDoc[0] : scan(reader, scorer.iterator());
+		} else {
+			hits = scan(reader, null);
+		}
+		for (ScoreDoc hit : hits) {
+			hit.doc += ctx.docBase;
+		}
+		return new TopDocs(new TotalHits(hits.length, TotalHits.Relation.EQUAL_TO), hits);
+	}
+
+	/** The graph of the segment of {@code reader}, {@code null} while it is built in the background. */
+	private HnswGraph graph(LeafReader reader, VectorIndexOptions.Hnsw hnsw) throws IOException {
+		if (graphs == null) {
+			return VectorSegmentCache.get(reader, HnswGraph.class.getSimpleName() + ":" + field,
+					r -> HnswGraph.build(r, field, query.encoding(), query.similarity(), hnsw));
+		}
+		return graphs.get(reader, field, query.encoding(), query.similarity(), hnsw);
+	}
+
+	/** Exact search over the live documents of the segment, restricted to {@code candidates} if not {@code null}. */
+	private ScoreDoc[] scan(LeafReader reader, DocIdSetIterator candidates) throws IOException {
+		BinaryDocValues values = reader.getBinaryDocValues(field);
+		if (values == null) {
+			return new ScoreDoc[0];
+		}
+		DocIdSetIterator iterator = candidates == null ? values : candidates;
+		Bits liveDocs = reader.getLiveDocs();
+		// the best vector of multi-vector documents
+		VectorSimilarity.LeafScorer scorer = new QueryVectors(query).scorer(reader, field);
+		HnswGraph.NodeQueue top = new HnswGraph.NodeQueue(k, false);
+		for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+			if (liveDocs != null && liveDocs.get(doc) == false) {
+				continue;
+			}
+			if (candidates != null && values.advanceExact(doc) == false) {
+				continue;
+			}
+			top.insertWithOverflow(doc, scorer.score(doc, values.binaryValue()));
+		}
+		ScoreDoc[] hits = new ScoreDoc[top.size()];
+		for (int i = hits.length - 1; i >= 0; i--) {
+			float score = top.topScore();
+			hits[i] = new ScoreDoc(top.pop(), score);
+		}
+		return hits;
+	}
+
+	@Override
+	public String toString(String field) {
+		return "knn(" + this.field + ", k=" + k + ", ef_search=" + efSearch + ", nprobe=" + nprobe + ", " + query.similarity().getName() + ")";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (sameClassAs(o) == false) return false;
+		KnnVectorQuery that = (KnnVectorQuery) o;
+		return field.equals(that.field) && query.equals(that.query) && k == that.k && efSearch == that.efSearch
+				&& nprobe == that.nprobe && Objects.equals(vectorIndex, that.vectorIndex);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(classHash(), field, query, k, efSearch, nprobe, vectorIndex);
+	}
+
+	/** Matches a fixed set of documents of one reader with precomputed scores. */
+	static final class DocAndScoreQuery extends Query {
+
+		private final Object readerId;
+		private final int[] docs;
+		private final float[] scores;
+		private final int[] segmentStarts;
+
+		DocAndScoreQuery(IndexReader reader, ScoreDoc[] hits) {
+			ScoreDoc[] sorted = hits.clone();
+			Arrays.sort(sorted, (a, b) -> Integer.compare(a.doc, b.doc));
+			this.readerId = reader.getContext().id();
+			this.docs = new int[sorted.length];
+			this.scores = new float[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				docs[i] = sorted[i].doc;
+				scores[i] = sorted[i].score;
+			}
+			List<LeafReaderContext> leaves = reader.leaves();
+			this.segmentStarts = new int[leaves.size() + 1];
+			for (LeafReaderContext ctx : leaves) {
+				segmentStarts[ctx.ord] = lowerBound(ctx.docBase);
+			}
+			segmentStarts[leaves.size()] = docs.length;
+		}
+
+		private int lowerBound(int doc) {
+			int idx = Arrays.binarySearch(docs, doc);
+			return idx < 0 ? -1 - idx : idx;
+		}
+
+		@Override
+		public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+			if (searcher.getIndexReader().getContext().id() != readerId) {
+				throw new IllegalStateException("This query was rewritten against a different reader");
+			}
+			return new Weight(this) {
+
+				@Override
+				public void extractTerms(Set<Term> terms) {}
+
+				@Override
+				public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+					int idx = Arrays.binarySearch(docs, context.docBase + doc);
+					if (idx < 0) {
+						return Explanation.noMatch("Not among the nearest neighbours");
+					}
+					return Explanation.match(scores[idx] * boost, "Nearest neighbour");
+				}
+
+				@Override
+				public Scorer scorer(LeafReaderContext context) throws IOException {
+					final int start = segmentStarts[context.ord];
+					final int end = segmentStarts[context.ord + 1];
+					if (start == end) {
+						return null;
+					}
+					return new DocAndScoreScorer(this, context.docBase, start, end, boost);
+				}
+
+				@Override
+				public boolean isCacheable(LeafReaderContext ctx) {
+					return false;
+				}
+			};
+		}
+
+		private final class DocAndScoreScorer extends Scorer {
+
+			private final int docBase;
+			private final int start;
+			private final int end;
+			private final float boost;
+			private int idx;
+
+			DocAndScoreScorer(Weight weight, int docBase, int start, int end, float boost) {
+				super(weight);
+				this.docBase = docBase;
+				this.start = start;
+				this.end = end;
+				this.boost = boost;
+				this.idx = start - 1;
+			}
+
+			@Override
+			public DocIdSetIterator iterator() {
+				return new DocIdSetIterator() {
+					@Override
+					public int docID() {
+						return DocAndScoreScorer.this.docID();
+					}
+
+					@Override
+					public int nextDoc() {
+						idx++;
+						return docID();
+					}
+
+					@Override
+					public int advance(int target) {
+						idx = Math.min(Math.max(idx + 1, lowerBound(docBase + target)), end);
+						return docID();
+					}
+
+					@Override
+					public long cost() {
+						return end - start;
+					}
+				};
+			}
+
+			@Override
+			public int docID() {
+				if (idx < start) {
+					return -1;
+				}
+				return idx >= end ? DocIdSetIterator.NO_MORE_DOCS : docs[idx] - docBase;
+			}
+
+			@Override
+			public float score() {
+				return scores[idx] * boost;
+			}
+
+			@Override
+			public float getMaxScore(int upTo) {
+				float max = 0;
+				for (int i = start; i < end; i++) {
+					max = Math.max(max, scores[i]);
+				}
+				return max * boost;
+			}
+		}
+
+		@Override
+		public String toString(String field) {
+			return "DocAndScore[" + docs.length + "]";
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (sameClassAs(o) == false) return false;
+			DocAndScoreQuery that = (DocAndScoreQuery) o;
+			return readerId == that.readerId && Arrays.equals(docs, that.docs) && Arrays.equals(scores, that.scores);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(classHash(), readerId, Arrays.hashCode(docs), Arrays.hashCode(scores));
+		}
+	}
+}
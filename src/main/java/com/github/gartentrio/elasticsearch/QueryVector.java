@@ -0,0 +1,160 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.lucene.index.LeafReader;
+
+/**
+ * A query vector compiled for the {@link VectorEncoding} and {@link VectorSimilarity} of a field: validated once,
+ * with its norm and the quantized or packed form the element type needs computed up front. Instances are immutable
+ * and are shared by all segments of a search, which only create their cheap single-threaded kernels.
+ */
+public final class QueryVector {
+
+	private final VectorEncoding encoding;
+	private final VectorSimilarity similarity;
+	private final VectorElementType.Prepared prepared;
+
+	/**
+	 * @throws IllegalArgumentException if {@code vector} does not fit {@code encoding} or the similarity does not
+	 *         support the element type
+	 */
+	public QueryVector(float[] vector, VectorEncoding encoding, VectorSimilarity similarity) {
+		similarity.checkElementType(encoding.elementType());
+		this.encoding = encoding;
+		this.similarity = similarity;
+		this.prepared = encoding.prepare(vector);
+	}
+
+	public float[] vector() {
+		return prepared.query();
+	}
+
+	public VectorEncoding encoding() {
+		return encoding;
+	}
+
+	public VectorSimilarity similarity() {
+		return similarity;
+	}
+
+	/** See {@link VectorElementType#norm(float[])}. */
+	public float norm() {
+		return prepared.norm();
+	}
+
+	/** Creates a dot product kernel for a single thread. */
+	public VectorElementType.DotProduct dotProduct() {
+		return prepared.dotProduct();
+	}
+
+	/** Creates a Manhattan distance kernel for a single thread. */
+	public VectorElementType.Distance l1Distance() {
+		return prepared.l1Distance();
+	}
+
+	/** Prepares scoring the vectors of {@code field} in the segment of {@code reader} for a single thread. */
+	VectorSimilarity.LeafScorer scorer(LeafReader reader, String field) throws IOException {
+		final VectorSimilarity.LeafScorer scorer = similarity.scorer(this, reader, field);
+		if (encoding.dims() != 0 || encoding.multi()) {
+			return scorer;
+		}
+		// fields without fixed dims may hold vectors of other lengths, which score 0 like in the batch scorer
+		final int dims = vector().length;
+		return (doc, data) -> encoding.dims(data) == dims ? scorer.score(doc, data) : 0;
+	}
+
+	/** Upper bound of the score of vectors with a norm between {@code minNorm} and {@code maxNorm}. */
+	public float maxScore(float minNorm, float maxNorm) {
+		return similarity.maxScore(norm(), prepared.dotError(), minNorm, maxNorm);
+	}
+
+	/**
+	 * Reads a query vector given as a list of numbers or as a string of base64 encoded little-endian float32
+	 * values, as accepted by the {@code vector} parameter of the script.
+	 */
+	@SuppressWarnings("unchecked")
+	public static float[] parse(Object value) {
+		if (value instanceof String) {
+			try {
+				return decodeFloats(Base64.getDecoder().decode((String) value));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Parameter [vector] is neither an array nor a base64 string: " + e.getMessage());
+			}
+		}
+		if (value instanceof List == false) {
+			throw new IllegalArgumentException("Missing or empty parameter [vector]");
+		}
+		List<Object> list = (List<Object>) value;
+		float[] vector = new float[list.size()];
+		for (int i = 0; i < vector.length; i++) {
+			Object element = list.get(i);
+			if (element instanceof Number == false) {
+				throw new IllegalArgumentException("Parameter [vector] must only contain numbers, got [" + element + "]");
+			}
+			vector[i] = ((Number) element).floatValue();
+		}
+		return vector;
+	}
+
+	/** Decodes little-endian float32 values. */
+	static float[] decodeFloats(byte[] bytes) {
+		if (bytes.length % Float.BYTES != 0) {
+			throw new IllegalArgumentException("Binary vectors must be a multiple of " + Float.BYTES + " bytes long, got ["
+					+ bytes.length + "]");
+		}
+		float[] vector = new float[bytes.length / Float.BYTES];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+		return vector;
+	}
+
+	/** Encodes the first {@code length} elements of {@code vector} as little-endian float32 values. */
+	static byte[] encodeFloats(float[] vector, int length) {
+		byte[] bytes = new byte[length * Float.BYTES];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(vector, 0, length);
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		QueryVector that = (QueryVector) o;
+		return Arrays.equals(vector(), that.vector()) && encoding.equals(that.encoding) && similarity == that.similarity;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(Arrays.hashCode(vector()), encoding, similarity);
+	}
+
+	@Override
+	public String toString() {
+		return similarity.getName() + "(" + encoding + ")";
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * One or more {@link QueryVector}s whose scores are combined by a {@link ScoreMode}. A single query vector is scored
+ * exactly like a plain {@link QueryVector}. Several query vectors are scored in one pass: every document vector is
+ * decoded once and multiplied with the matrix of all query vectors, so reading and decoding are amortized over the
+ * batch. On multi-vector fields the scores of the vectors of a document are first combined per query vector by the
+ * document score mode, e.g. the sum over all query vectors of their best match ({@code max}) in the document gives
+ * late-interaction scoring. Instances are immutable and shared by all segments of a search.
+ */
+public final class QueryVectors {
+
+	/** How the scores of the query vectors are combined into the score of a document. */
+	public enum ScoreMode {
+		/** The highest score. */
+		MAX {
+			@Override
+			float combine(float[] scores, int offset, int count) {
+				float max = 0;
+				for (int i = offset, end = offset + count; i < end; i++) {
+					max = Math.max(max, scores[i]);
+				}
+				return max;
+			}
+		},
+		/** The sum of the scores. */
+		SUM {
+			@Override
+			float combine(float[] scores, int offset, int count) {
+				float sum = 0;
+				for (int i = offset, end = offset + count; i < end; i++) {
+					sum += scores[i];
+				}
+				return sum;
+			}
+		},
+		/** The average score. */
+		AVG {
+			@Override
+			float combine(float[] scores, int offset, int count) {
+				return SUM.combine(scores, offset, count) / count;
+			}
+		},
+		/**
+		 * The scores weighted by their softmax, {@code sum(s * exp(s)) / sum(exp(s))}: a smooth maximum between the
+		 * average and the highest score.
+		 */
+		SOFTMAX {
+			@Override
+			float combine(float[] scores, int offset, int count) {
+				float max = MAX.combine(scores, offset, count);
+				double weighted = 0;
+				double weights = 0;
+				for (int i = offset, end = offset + count; i < end; i++) {
+					// shifted by the maximum to keep exp from overflowing
+					double weight = Math.exp(scores[i] - max);
+					weighted += scores[i] * weight;
+					weights += weight;
+				}
+				return (float) (weighted / weights);
+			}
+		};
+
+		abstract float combine(float[] scores, int offset, int count);
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+		public static ScoreMode fromString(String name) {
+			for (ScoreMode mode : values()) {
+				if (mode.getName().equals(name)) {
+					return mode;
+				}
+			}
+			throw new IllegalArgumentException("Unknown score_mode [" + name + "]");
+		}
+	}
+
+	private final QueryVector[] queries;
+	private final ScoreMode scoreMode;
+	private final ScoreMode docScoreMode;
+	private final int dims;
+	/** The query vectors as a row-major matrix. */
+	private final float[] matrix;
+	/** The exact norms of the query vectors, documents are decoded before the matrix product. */
+	private final float[] norms;
+
+	/**
+	 * @throws IllegalArgumentException if there is no query vector, if the query vectors have different dimensions
+	 *         or if one of them does not fit the field, see {@link QueryVector#QueryVector}
+	 */
+	public QueryVectors(float[][] vectors, VectorEncoding encoding, VectorSimilarity similarity, ScoreMode scoreMode) {
+		this(vectors, encoding, similarity, scoreMode, ScoreMode.MAX);
+	}
+
+	/**
+	 * @param docScoreMode combines the scores of the vectors of a document on multi-vector fields
+	 * @throws IllegalArgumentException see {@link #QueryVectors(float[][], VectorEncoding, VectorSimilarity, ScoreMode)}
+	 */
+	public QueryVectors(float[][] vectors, VectorEncoding encoding, VectorSimilarity similarity, ScoreMode scoreMode,
+			ScoreMode docScoreMode) {
+		if (vectors.length == 0) {
+			throw new IllegalArgumentException("At least one query vector is required");
+		}
+		this.queries = new QueryVector[vectors.length];
+		this.scoreMode = Objects.requireNonNull(scoreMode);
+		this.docScoreMode = Objects.requireNonNull(docScoreMode);
+		this.dims = vectors[0].length;
+		this.matrix = new float[vectors.length * dims];
+		this.norms = new float[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			if (vectors[i].length != dims) {
+				throw new IllegalArgumentException("All query vectors must have the same dimensions, got [" + dims + "] and ["
+						+ vectors[i].length + "]");
+			}
+			queries[i] = new QueryVector(vectors[i], encoding, similarity);
+			System.arraycopy(vectors[i], 0, matrix, i * dims, dims);
+			norms[i] = (float) Math.sqrt(VectorKernels.INSTANCE.dot(vectors[i], 0, vectors[i], 0, dims));
+		}
+	}
+
+	/** A single query vector. */
+	public QueryVectors(QueryVector query) {
+		this(query, ScoreMode.MAX);
+	}
+
+	/** A single query vector, {@code docScoreMode} combines its scores with the vectors of multi-vector documents. */
+	public QueryVectors(QueryVector query, ScoreMode docScoreMode) {
+		this.queries = new QueryVector[] { query };
+		this.scoreMode = ScoreMode.MAX;
+		this.docScoreMode = Objects.requireNonNull(docScoreMode);
+		this.dims = query.vector().length;
+		this.matrix = query.vector();
+		this.norms = new float[] { VectorNorms.norm(matrix, dims) };
+	}
+
+	public int size() {
+		return queries.length;
+	}
+
+	public QueryVector get(int index) {
+		return queries[index];
+	}
+
+	public ScoreMode scoreMode() {
+		return scoreMode;
+	}
+
+	/** Combines the scores of the vectors of a document on multi-vector fields. */
+	public ScoreMode docScoreMode() {
+		return docScoreMode;
+	}
+
+	public VectorEncoding encoding() {
+		return queries[0].encoding();
+	}
+
+	public VectorSimilarity similarity() {
+		return queries[0].similarity();
+	}
+
+	/**
+	 * Prepares scoring the vectors of {@code field} in the segment of {@code reader} for a single thread. The work
+	 * is counted in the {@link VectorStats} of the field.
+	 */
+	VectorSimilarity.LeafScorer scorer(LeafReader reader, String field) throws IOException {
+		VectorSimilarity.LeafScorer scorer;
+		if (queries.length == 1 && encoding().multi() == false) {
+			scorer = queries[0].scorer(reader, field);
+		} else {
+			scorer = new BatchScorer(encoding().multi() ? null : VectorNorms.docNorms(reader, field, encoding()));
+		}
+		VectorStats.Counters counters = VectorStats.counters(reader, field);
+		return counters == null ? scorer : counters.record(scorer, encoding(), dims);
+	}
+
+	/**
+	 * Decodes every vector of a document once and scores it against all query vectors with a single matrix product.
+	 */
+	private final class BatchScorer implements VectorSimilarity.LeafScorer {
+
+		private final VectorEncoding encoding = encoding();
+		private final VectorSimilarity similarity = similarity();
+		private final VectorKernels kernels = VectorKernels.INSTANCE;
+		/** Norms of single-vector documents, {@code null} on multi-vector fields which store them in the value. */
+		private final VectorNorms.DocNorms docNorms;
+		private final BytesRef vector = new BytesRef();
+		private final float[] decoded = new float[dims];
+		private final float[] scores = new float[queries.length];
+		/** Scores of the query vectors with the vectors of the current document, one row per query vector. */
+		private float[] vectorScores = new float[queries.length];
+
+		BatchScorer(VectorNorms.DocNorms docNorms) {
+			this.docNorms = docNorms;
+		}
+
+		@Override
+		public float score(int doc, BytesRef data) throws IOException {
+			final int rows = queries.length;
+			final int count = encoding.count(data);
+			vectorScores = ArrayUtil.grow(vectorScores, rows * count);
+			for (int v = 0; v < count; v++) {
+				BytesRef x = encoding.vector(data, v, vector);
+				if (encoding.dims(x) != dims) {
+					// only possible on fields without fixed dims
+					return 0;
+				}
+				encoding.decode(x, decoded, 0);
+				float docNorm = similarity == VectorSimilarity.L1 ? 0
+						: docNorms == null ? encoding.norm(x) : docNorms.norm(doc, data);
+				scoreDecoded(docNorm);
+				for (int r = 0; r < rows; r++) {
+					vectorScores[r * count + v] = scores[r];
+				}
+			}
+			for (int r = 0; r < rows; r++) {
+				scores[r] = docScoreMode.combine(vectorScores, r * count, count);
+			}
+			return scoreMode.combine(scores, 0, rows);
+		}
+
+		/** Scores {@link #decoded}, whose norm is {@code docNorm}, against all query vectors into {@link #scores}. */
+		void scoreDecoded(float docNorm) {
+			final int rows = queries.length;
+			if (similarity == VectorSimilarity.L1) {
+				for (int r = 0; r < rows; r++) {
+					scores[r] = similarity.score(-kernels.l1Distance(matrix, r * dims, decoded, 0, dims));
+				}
+			} else {
+				kernels.dotMatrix(matrix, rows, decoded, dims, scores);
+				for (int r = 0; r < rows; r++) {
+					scores[r] = similarity.score(similarity.fromDot(scores[r], norms[r], docNorm));
+				}
+			}
+		}
+	}
+
+	/** Scores the documents of a segment by their doc id, for a single thread. */
+	@FunctionalInterface
+	interface DocScorer {
+		float score(int doc) throws IOException;
+	}
+
+	/**
+	 * Prepares scoring from the decoded vectors of a segment in the {@link VectorCache}, {@code null} if they do not
+	 * fit the query vectors.
+	 */
+	DocScorer scorer(VectorCache.SegmentVectors vectors) {
+		if (vectors.dims() != dims || encoding().multi()) {
+			return null;
+		}
+		final BatchScorer batch = new BatchScorer(null);
+		final VectorCache.SegmentVectors.Reader reader = vectors.reader();
+		return doc -> {
+			float docNorm = reader.read(doc, batch.decoded);
+			if (Float.isNaN(docNorm)) {
+				return 0;
+			}
+			batch.scoreDecoded(docNorm);
+			return scoreMode.combine(batch.scores, 0, queries.length);
+		};
+	}
+
+	/** Upper bound of the score of vectors with a norm between {@code minNorm} and {@code maxNorm}. */
+	public float maxScore(float minNorm, float maxNorm) {
+		if (queries.length == 1 && encoding().multi() == false) {
+			return queries[0].maxScore(minNorm, maxNorm);
+		}
+		if (encoding().multi() && docScoreMode == ScoreMode.SUM) {
+			// grows with the number of vectors of a document
+			return Float.POSITIVE_INFINITY;
+		}
+		float sum = 0;
+		float max = 0;
+		for (int i = 0; i < queries.length; i++) {
+			float bound = similarity().maxScore(norms[i], minNorm, maxNorm);
+			sum += bound;
+			max = Math.max(max, bound);
+		}
+		// every mode but the sum is bounded by the highest score
+		return scoreMode == ScoreMode.SUM ? sum : max;
+	}
+
+	/**
+	 * Reads query vectors given as a list of vectors, each in one of the forms of {@link QueryVector#parse(Object)},
+	 * as accepted by the {@code vectors} parameter of the script.
+	 */
+	public static float[][] parse(Object value) {
+		if (value instanceof List == false || ((List<?>) value).isEmpty()) {
+			throw new IllegalArgumentException("Parameter [vectors] must be a non-empty array of vectors");
+		}
+		List<?> list = (List<?>) value;
+		float[][] vectors = new float[list.size()][];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = QueryVector.parse(list.get(i));
+		}
+		return vectors;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		QueryVectors that = (QueryVectors) o;
+		return Arrays.equals(queries, that.queries) && scoreMode == that.scoreMode && docScoreMode == that.docScoreMode;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(Arrays.hashCode(queries), scoreMode, docScoreMode);
+	}
+
+	@Override
+	public String toString() {
+		String query = queries.length == 1 ? queries[0].toString() : scoreMode.getName() + "(" + queries.length + " x " + queries[0] + ")";
+		return encoding().multi() ? query + " per " + docScoreMode.getName() : query;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * {@code GET /_nodes/vector/stats} and {@code GET /_nodes/{nodeId}/vector/stats}.
+ */
+public class RestVectorStatsAction extends BaseRestHandler {
+
+	public RestVectorStatsAction(Settings settings, RestController controller) {
+		super(settings);
+		controller.registerHandler(RestRequest.Method.GET, "/_nodes/vector/stats", this);
+		controller.registerHandler(RestRequest.Method.GET, "/_nodes/{nodeId}/vector/stats", this);
+	}
+
+	@Override
+	public String getName() {
+		return "vector_stats_action";
+	}
+
+	@Override
+	protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+		VectorStatsAction.NodesRequest nodesRequest = new VectorStatsAction.NodesRequest(
+				Strings.splitStringByCommaToArray(request.param("nodeId")));
+		nodesRequest.timeout(request.param("timeout"));
+		return channel -> client.execute(VectorStatsAction.INSTANCE, nodesRequest, new RestActions.NodesResponseRestListener<>(channel));
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * A sparse vector as its non-zero elements, sorted by dimension. The encoded form is the number of elements followed
+ * by every element as the varint gap to the previous dimension and the bits of its value, so it grows with the
+ * non-zero elements rather than with the dimensions. Dot products merge-join the sorted elements of both vectors.
+ */
+final class SparseVector {
+
+	private final int[] dims;
+	private final float[] values;
+
+	/** {@code dims} must be sorted and distinct and {@code values} must not contain zeros. */
+	private SparseVector(int[] dims, float[] values) {
+		this.dims = dims;
+		this.values = values;
+	}
+
+	/**
+	 * Sorts the elements by dimension and drops zeros. Throws an {@link IllegalArgumentException} on negative or
+	 * repeated dimensions and on values that are not finite.
+	 */
+	static SparseVector of(int[] dims, float[] values, int length) {
+		Integer[] order = new Integer[length];
+		for (int i = 0; i < length; i++) {
+			if (dims[i] < 0) {
+				throw new IllegalArgumentException("Sparse vector dimensions must not be negative, got [" + dims[i] + "]");
+			}
+			if (Float.isFinite(values[i]) == false) {
+				throw new IllegalArgumentException("Sparse vectors must only contain finite numbers, got [" + values[i]
+						+ "] at dimension [" + dims[i] + "]");
+			}
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(dims[a], dims[b]));
+		int[] sortedDims = new int[length];
+		float[] sortedValues = new float[length];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			int dim = dims[order[i]];
+			if (i > 0 && dim == dims[order[i - 1]]) {
+				throw new IllegalArgumentException("Sparse vector dimension [" + dim + "] is given more than once");
+			}
+			if (values[order[i]] != 0) {
+				sortedDims[count] = dim;
+				sortedValues[count++] = values[order[i]];
+			}
+		}
+		return new SparseVector(Arrays.copyOf(sortedDims, count), Arrays.copyOf(sortedValues, count));
+	}
+
+	/** Reads an object of dimensions and values, e.g. {@code {"12": 0.5, "3021": 1.2}}, at its start token. */
+	static SparseVector parse(XContentParser parser) throws IOException {
+		if (parser.currentToken() != XContentParser.Token.START_OBJECT) {
+			throw new IllegalArgumentException("Sparse vectors must be objects of dimensions and values, got ["
+					+ parser.currentToken() + "]");
+		}
+		int[] dims = new int[16];
+		float[] values = new float[16];
+		int length = 0;
+		XContentParser.Token token;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token != XContentParser.Token.FIELD_NAME) {
+				throw new IllegalArgumentException("Sparse vectors must be objects of dimensions and values, got [" + token + "]");
+			}
+			String name = parser.currentName();
+			int dim;
+			try {
+				dim = Integer.parseInt(name);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Sparse vector dimensions must be integers, got [" + name + "]");
+			}
+			if (parser.nextToken() != XContentParser.Token.VALUE_NUMBER) {
+				throw new IllegalArgumentException("Sparse vector values must be numbers, got [" + parser.currentToken()
+						+ "] at dimension [" + name + "]");
+			}
+			if (length == dims.length) {
+				dims = ArrayUtil.grow(dims, length + 1);
+				values = ArrayUtil.grow(values, length + 1);
+			}
+			dims[length] = dim;
+			values[length++] = parser.floatValue();
+		}
+		return of(dims, values, length);
+	}
+
+	/** Number of non-zero elements. */
+	int size() {
+		return dims.length;
+	}
+
+	int[] dims() {
+		return dims;
+	}
+
+	float[] values() {
+		return values;
+	}
+
+	/** The elements as a map from dimension to value, in the order of the dimensions. */
+	Map<String, Float> asMap() {
+		Map<String, Float> map = new LinkedHashMap<>();
+		for (int i = 0; i < dims.length; i++) {
+			map.put(Integer.toString(dims[i]), values[i]);
+		}
+		return map;
+	}
+
+	BytesRef encode() throws IOException {
+		byte[] bytes = new byte[(1 + dims.length) * 5 + dims.length * Float.BYTES];
+		ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+		out.writeVInt(dims.length);
+		int previous = 0;
+		for (int i = 0; i < dims.length; i++) {
+			out.writeVInt(dims[i] - previous);
+			out.writeInt(Float.floatToRawIntBits(values[i]));
+			previous = dims[i];
+		}
+		return new BytesRef(bytes, 0, out.getPosition());
+	}
+
+	static SparseVector decode(BytesRef data) {
+		ByteArrayDataInput in = new ByteArrayDataInput(data.bytes, data.offset, data.length);
+		int[] dims = new int[in.readVInt()];
+		float[] values = new float[dims.length];
+		int dim = 0;
+		for (int i = 0; i < dims.length; i++) {
+			dim += in.readVInt();
+			dims[i] = dim;
+			values[i] = Float.intBitsToFloat(in.readInt());
+		}
+		return new SparseVector(dims, values);
+	}
+
+	/**
+	 * Dot product with the encoded vector {@code data}, read through {@code in}. The elements of {@code data} are
+	 * decoded only up to the last dimension of this vector.
+	 */
+	float dot(BytesRef data, ByteArrayDataInput in) {
+		in.reset(data.bytes, data.offset, data.length);
+		int count = in.readVInt();
+		float sum = 0;
+		int q = 0;
+		int dim = 0;
+		for (int i = 0; i < count && q < dims.length; i++) {
+			dim += in.readVInt();
+			int bits = in.readInt();
+			while (q < dims.length && dims[q] < dim) {
+				q++;
+			}
+			if (q < dims.length && dims[q] == dim) {
+				sum += values[q++] * Float.intBitsToFloat(bits);
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		SparseVector that = (SparseVector) o;
+		return Arrays.equals(dims, that.dims) && Arrays.equals(values, that.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(dims) + Arrays.hashCode(values);
+	}
+
+	@Override
+	public String toString() {
+		return asMap().toString();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.ByteArrayDataInput;
+
+/**
+ * Matches all documents with a sparse vector in {@code field} and scores them by the dot product with the sparse
+ * query vector, or {@code 0} if it is negative, like the {@code dot_product} similarity of dense vectors. The cost
+ * of a document grows with its non-zero elements, not with the dimensions.
+ */
+public class SparseVectorDotQuery extends Query {
+
+	private final String field;
+	private final SparseVector query;
+
+	SparseVectorDotQuery(String field, SparseVector query) {
+		this.field = field;
+		this.query = query;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+		return new Weight(this) {
+
+			@Override
+			public void extractTerms(Set<Term> terms) {}
+
+			@Override
+			public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+				LeafReader reader = context.reader();
+				BinaryDocValues values = reader.getBinaryDocValues(field);
+				if (values == null || values.advanceExact(doc) == false) {
+					return Explanation.noMatch("No sparse vector in field [" + field + "]");
+				}
+				float score = score(values, new ByteArrayDataInput());
+				return Explanation.match(score * boost, "sparse dot product of field [" + field + "], boost " + boost);
+			}
+
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				BinaryDocValues values = context.reader().getBinaryDocValues(field);
+				if (values == null) {
+					return null;
+				}
+				ByteArrayDataInput in = new ByteArrayDataInput();
+				return new Scorer(this) {
+					@Override
+					public DocIdSetIterator iterator() {
+						return values;
+					}
+
+					@Override
+					public int docID() {
+						return values.docID();
+					}
+
+					@Override
+					public float score() throws IOException {
+						return SparseVectorDotQuery.this.score(values, in) * boost;
+					}
+
+					@Override
+					public float getMaxScore(int upTo) {
+						return Float.POSITIVE_INFINITY;
+					}
+				};
+			}
+
+			@Override
+			public boolean isCacheable(LeafReaderContext ctx) {
+				return DocValues.isCacheable(ctx, field);
+			}
+		};
+	}
+
+	private float score(BinaryDocValues values, ByteArrayDataInput in) throws IOException {
+		return Math.max(0, query.dot(values.binaryValue(), in));
+	}
+
+	@Override
+	public String toString(String field) {
+		return "vector_sparse_dot(" + this.field + ", " + query.size() + " elements)";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (sameClassAs(o) == false) return false;
+		SparseVectorDotQuery that = (SparseVectorDotQuery) o;
+		return field.equals(that.field) && query.equals(that.query);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(classHash(), field, query);
+	}
+}
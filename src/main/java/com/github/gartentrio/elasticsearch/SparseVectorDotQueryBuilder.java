@@ -0,0 +1,191 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+/**
+ * Builds a {@link SparseVectorDotQuery} that scores every document with a sparse vector by its dot product with a
+ * sparse query vector.
+ */
+public class SparseVectorDotQueryBuilder extends AbstractQueryBuilder<SparseVectorDotQueryBuilder> {
+
+	public static final String NAME = "vector_sparse_dot";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField VECTOR_FIELD = new ParseField("vector");
+
+	private final String field;
+	private final SparseVector vector;
+
+	/** The query vector has the values {@code values} in the dimensions {@code dims}. */
+	public SparseVectorDotQueryBuilder(String field, int[] dims, float[] values) {
+		this(field, dims.length == values.length ? SparseVector.of(dims, values, dims.length) : null);
+	}
+
+	private SparseVectorDotQueryBuilder(String field, SparseVector vector) {
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (vector == null || vector.size() == 0) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+		}
+		this.field = field;
+		this.vector = vector;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public SparseVectorDotQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		int[] dims = new int[in.readVInt()];
+		float[] values = new float[dims.length];
+		for (int i = 0; i < dims.length; i++) {
+			dims[i] = in.readVInt();
+			values[i] = in.readFloat();
+		}
+		vector = SparseVector.of(dims, values, dims.length);
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeVInt(vector.size());
+		for (int i = 0; i < vector.size(); i++) {
+			out.writeVInt(vector.dims()[i]);
+			out.writeFloat(vector.values()[i]);
+		}
+	}
+
+	public String field() {
+		return field;
+	}
+
+	/** The dimensions of the non-zero elements of the query vector, in ascending order. */
+	public int[] dims() {
+		return vector.dims();
+	}
+
+	/** The non-zero elements of the query vector, in the order of {@link #dims()}. */
+	public float[] values() {
+		return vector.values();
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.field(VECTOR_FIELD.getPreferredName(), vector.asMap());
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	public static SparseVectorDotQueryBuilder fromXContent(XContentParser parser) throws IOException {
+		String field = null;
+		SparseVector vector = null;
+		String queryName = null;
+		float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_OBJECT
+					&& VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				try {
+					vector = SparseVector.parse(parser);
+				} catch (IllegalArgumentException e) {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+				}
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					queryName = parser.text();
+				} else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					boost = parser.floatValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if (vector == null || vector.size() == 0) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a non-empty [vector]");
+		}
+
+		SparseVectorDotQueryBuilder builder = new SparseVectorDotQueryBuilder(field, vector);
+		builder.queryName(queryName);
+		builder.boost(boost);
+		return builder;
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		MappedFieldType fieldType = context.fieldMapper(field);
+		if (fieldType == null) {
+			return Queries.newMatchNoDocsQuery("Unmapped field [" + field + "]");
+		}
+		if (fieldType instanceof SparseVectorFieldMapper.SparseVectorFieldType == false) {
+			throw new QueryShardException(context, "[" + NAME + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + SparseVectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		return new SparseVectorDotQuery(fieldType.name(), vector);
+	}
+
+	@Override
+	protected boolean doEquals(SparseVectorDotQueryBuilder other) {
+		return Objects.equals(field, other.field) && Objects.equals(vector, other.vector);
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, vector);
+	}
+}
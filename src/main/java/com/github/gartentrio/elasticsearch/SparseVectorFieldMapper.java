@@ -0,0 +1,189 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.TypeParsers;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+import org.elasticsearch.search.DocValueFormat;
+
+/**
+ * Maps sparse vectors, given as objects of dimensions and values, e.g. {@code {"12": 0.5, "3021": 1.2}}. Only the
+ * non-zero elements are kept, as a {@link SparseVector} in a binary doc value.
+ */
+public class SparseVectorFieldMapper extends FieldMapper {
+
+	public static final String CONTENT_TYPE = "vector_sparse";
+
+	public static class Defaults {
+		public static final MappedFieldType FIELD_TYPE = new SparseVectorFieldType();
+
+		static {
+			FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+			FIELD_TYPE.setHasDocValues(true);
+			FIELD_TYPE.freeze();
+		}
+	}
+
+	public static class Builder extends FieldMapper.Builder<Builder, SparseVectorFieldMapper> {
+
+		public Builder(String name) {
+			super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+			builder = this;
+		}
+
+		@Override
+		public SparseVectorFieldMapper build(BuilderContext context) {
+			setupFieldType(context);
+			return new SparseVectorFieldMapper(name, fieldType, defaultFieldType, context.indexSettings(),
+					multiFieldsBuilder.build(this, context), copyTo);
+		}
+	}
+
+	public static class TypeParser implements Mapper.TypeParser {
+		@Override
+		public SparseVectorFieldMapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext)
+				throws MapperParsingException {
+			Builder builder = new Builder(name);
+			if (node.get("doc_values") != null) {
+				throw new MapperParsingException("Setting [doc_values] cannot be modified for field [" + name + "]");
+			}
+			if (node.get("index") != null) {
+				throw new MapperParsingException("Setting [index] cannot be modified for field [" + name + "]");
+			}
+			TypeParsers.parseField(builder, name, node, parserContext);
+			return builder;
+		}
+	}
+
+	static final class SparseVectorFieldType extends MappedFieldType {
+
+		SparseVectorFieldType() {}
+
+		SparseVectorFieldType(SparseVectorFieldType ref) {
+			super(ref);
+		}
+
+		@Override
+		public MappedFieldType clone() {
+			return new SparseVectorFieldType(this);
+		}
+
+		@Override
+		public String typeName() {
+			return CONTENT_TYPE;
+		}
+
+		/** Stored vectors are returned as objects of dimensions and values. */
+		@Override
+		public Object valueForDisplay(Object value) {
+			if (value instanceof BytesRef) {
+				return SparseVector.decode((BytesRef) value).asMap();
+			}
+			return value;
+		}
+
+		@Override
+		public DocValueFormat docValueFormat(String format, ZoneId timeZone) {
+			return DocValueFormat.BINARY;
+		}
+
+		@Override
+		public Query existsQuery(QueryShardContext context) {
+			return new DocValuesFieldExistsQuery(name());
+		}
+
+		@Override
+		public Query termQuery(Object value, QueryShardContext context) {
+			throw new QueryShardException(context, "Sparse vector fields do not support searching");
+		}
+	}
+
+	protected SparseVectorFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+			Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+		super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+	}
+
+	@Override
+	protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
+		if (context.externalValueSet()) {
+			throw new MapperParsingException("Field [" + fieldType().name() + "] of type [" + CONTENT_TYPE
+					+ "] cannot be a multi-field");
+		}
+		XContentParser parser = context.parser();
+		if (parser.currentToken() == XContentParser.Token.VALUE_NULL) {
+			return;
+		}
+		String name = fieldType().name();
+		if (context.doc().getByKey(name) != null) {
+			throw new MapperParsingException("Field [" + name + "] of type [" + CONTENT_TYPE
+					+ "] only supports a single vector per document");
+		}
+		SparseVector vector;
+		try {
+			vector = SparseVector.parse(parser);
+		} catch (IllegalArgumentException e) {
+			throw new MapperParsingException(e.getMessage() + " for field [" + name + "]");
+		}
+		BytesRef data = vector.encode();
+		if (fieldType().stored()) {
+			context.doc().add(new StoredField(name, data));
+		}
+		context.doc().addWithKey(name, new VectorFieldMapper.VectorField(name, data));
+	}
+
+	@Override
+	protected String contentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+		builder.field("type", contentType());
+		if (includeDefaults || fieldType().boost() != 1.0f) {
+			builder.field("boost", fieldType().boost());
+		}
+		if (includeDefaults || fieldType().stored() != defaultFieldType.stored()) {
+			builder.field("store", fieldType().stored());
+		}
+		multiFields.toXContent(builder, params);
+		copyTo.toXContent(builder, params);
+	}
+}
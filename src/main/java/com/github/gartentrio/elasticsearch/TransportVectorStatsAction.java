@@ -0,0 +1,63 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+public class TransportVectorStatsAction extends TransportNodesAction<VectorStatsAction.NodesRequest,
+		VectorStatsAction.NodesResponse, VectorStatsAction.NodeRequest, VectorStatsAction.NodeStats> {
+
+	@Inject
+	public TransportVectorStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+			ActionFilters actionFilters) {
+		super(VectorStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+				VectorStatsAction.NodesRequest::new, VectorStatsAction.NodeRequest::new, ThreadPool.Names.MANAGEMENT,
+				VectorStatsAction.NodeStats.class);
+	}
+
+	@Override
+	protected VectorStatsAction.NodesResponse newResponse(VectorStatsAction.NodesRequest request,
+			List<VectorStatsAction.NodeStats> responses, List<FailedNodeException> failures) {
+		return new VectorStatsAction.NodesResponse(clusterService.getClusterName(), responses, failures);
+	}
+
+	@Override
+	protected VectorStatsAction.NodeRequest newNodeRequest(String nodeId, VectorStatsAction.NodesRequest request) {
+		return new VectorStatsAction.NodeRequest(nodeId);
+	}
+
+	@Override
+	protected VectorStatsAction.NodeStats newNodeResponse() {
+		return new VectorStatsAction.NodeStats();
+	}
+
+	@Override
+	protected VectorStatsAction.NodeStats nodeOperation(VectorStatsAction.NodeRequest request) {
+		return new VectorStatsAction.NodeStats(clusterService.localNode(), VectorStats.snapshot());
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.search.aggregations.AggregationInitializationException;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Common parts of the aggregations on vector fields, which read the doc values of the field in the shard like the
+ * {@code vector_score} script, so only their results leave the shard.
+ */
+final class VectorAggregations {
+
+	private VectorAggregations() {}
+
+	/**
+	 * Encoding of the vector {@code field} of the shard, {@code null} if it is unmapped. Throws an
+	 * {@link IllegalArgumentException} if the field is not a vector field.
+	 */
+	static VectorEncoding encoding(SearchContext context, String type, String field) {
+		MappedFieldType fieldType = context.getQueryShardContext().fieldMapper(field);
+		if (fieldType == null) {
+			return null;
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new IllegalArgumentException("[" + type + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		return ((VectorFieldMapper.VectorFieldType) fieldType).encoding();
+	}
+
+	/** Throws if a metric aggregation on vectors was given sub-aggregations. */
+	static void checkNoSubAggregations(String type, String name, AggregatorFactories.Builder subFactoriesBuilder) {
+		if (subFactoriesBuilder.count() > 0) {
+			throw new AggregationInitializationException("Aggregator [" + name + "] of type [" + type
+					+ "] cannot accept sub-aggregations");
+		}
+	}
+
+	/** Decodes the vectors of the documents of a segment, one document at a time. Not thread-safe. */
+	static final class LeafVectors {
+
+		private final BinaryDocValues values;
+		private final VectorEncoding encoding;
+		private final BytesRef slice = new BytesRef();
+		private float[] decoded = new float[16];
+		private int dims;
+		private BytesRef data;
+
+		/** Returns {@code null} if no document of the segment has a vector. */
+		static LeafVectors get(LeafReader reader, String field, VectorEncoding encoding) throws IOException {
+			BinaryDocValues values = reader.getBinaryDocValues(field);
+			return values == null ? null : new LeafVectors(values, encoding);
+		}
+
+		private LeafVectors(BinaryDocValues values, VectorEncoding encoding) {
+			this.values = values;
+			this.encoding = encoding;
+		}
+
+		/** Moves to {@code doc}, returns whether it has a vector. */
+		boolean advanceExact(int doc) throws IOException {
+			if (values.advanceExact(doc) == false) {
+				return false;
+			}
+			data = values.binaryValue();
+			return true;
+		}
+
+		/** Number of vectors of the current document. */
+		int count() {
+			return encoding.count(data);
+		}
+
+		/**
+		 * Decodes vector {@code index} of the current document into a buffer that is reused by the next call and
+		 * returns it, the buffer may be longer than the {@link #dims()} of the vector.
+		 */
+		float[] decode(int index) {
+			BytesRef vector = encoding.vector(data, index, slice);
+			dims = encoding.dims(vector);
+			if (dims > decoded.length) {
+				decoded = new float[ArrayUtil.oversize(dims, Float.BYTES)];
+			}
+			encoding.decode(vector, decoded, 0);
+			return decoded;
+		}
+
+		/** Dimensions of the last decoded vector. */
+		int dims() {
+			return dims;
+		}
+	}
+
+	/** Throws if the vectors of a field differ in their dimensions, which only fields without {@code dims} allow. */
+	static void checkDims(String type, int dims, int otherDims) {
+		if (dims != otherDims) {
+			throw new IllegalArgumentException("[" + type + "] requires vectors of equal dimensions, got [" + dims + "] and ["
+					+ otherDims + "]");
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+/**
+ * Node-level cache of the decoded vectors of whole segments in contiguous off-heap memory. Segments are loaded by
+ * {@link VectorCacheWarmer} after a refresh or merge, so that queries read plain floats instead of paging in and
+ * decoding doc values. Lookups never load: segments that are not (yet) cached are scored from doc values. Every
+ * segment is loaded at most once, a segment that was evicted or failed to load stays uncached until it is closed.
+ * <p>
+ * The cache is bounded by {@link #SIZE_SETTING} and evicts the least recently used segments. Loaded bytes are
+ * accounted on the fielddata circuit breaker, a segment that would trip the breaker is not cached. Evicted regions
+ * are released by the garbage collector, like all direct buffers, once the last query reading them is done. They
+ * stay accounted on the breaker until then.
+ * <p>
+ * Only fields with fixed {@code dims}, one vector per document and an exactly decoded element type are cached, so
+ * that cached and uncached segments score identically.
+ */
+final class VectorCache {
+
+	/** Maximum size of the cache, {@code 0} disables it. */
+	static final Setting<ByteSizeValue> SIZE_SETTING = Setting.byteSizeSetting("vector.cache.size", new ByteSizeValue(0),
+			Setting.Property.NodeScope);
+
+	/** How often every shard checks for new segments to load. */
+	static final Setting<TimeValue> WARM_INTERVAL_SETTING = Setting.timeSetting("vector.cache.warm_interval",
+			TimeValue.timeValueSeconds(1), TimeValue.timeValueMillis(10), Setting.Property.NodeScope);
+
+	private final Cache<Key, SegmentVectors> cache;
+	/** Segments and fields that were loaded or failed to load, until their segment is closed. */
+	private final Set<Key> warmed = ConcurrentCollections.newConcurrentSet();
+	/** Evicted segments that are still accounted on the breaker, until the garbage collector enqueues them. */
+	private final Set<Evicted> evicted = ConcurrentCollections.newConcurrentSet();
+	private final ReferenceQueue<SegmentVectors> collected = new ReferenceQueue<>();
+	private final TimeValue warmInterval;
+	private volatile CircuitBreaker breaker = new NoopCircuitBreaker(CircuitBreaker.FIELDDATA);
+
+	VectorCache(Settings settings) {
+		long size = SIZE_SETTING.get(settings).getBytes();
+		this.warmInterval = WARM_INTERVAL_SETTING.get(settings);
+		this.cache = size <= 0 ? null : CacheBuilder.<Key, SegmentVectors>builder()
+				.setMaximumWeight(size)
+				.weigher((key, vectors) -> vectors.ramBytesUsed())
+				.removalListener(notification -> {
+					evicted.add(new Evicted(notification.getValue(), collected));
+					releaseCollected();
+				})
+				.build();
+	}
+
+	boolean enabled() {
+		return cache != null;
+	}
+
+	TimeValue warmInterval() {
+		return warmInterval;
+	}
+
+	/** Accounts loaded segments on {@code breaker} from now on. */
+	void setBreaker(CircuitBreaker breaker) {
+		this.breaker = breaker;
+	}
+
+	/** Releases the bytes of evicted segments that the garbage collector has freed from the breaker. */
+	void releaseCollected() {
+		Reference<? extends SegmentVectors> reference;
+		while ((reference = collected.poll()) != null) {
+			Evicted segment = (Evicted) reference;
+			evicted.remove(segment);
+			breaker.addWithoutBreaking(-segment.ramBytesUsed);
+		}
+	}
+
+	/** Whether the vectors of fields with {@code encoding} can be cached. */
+	static boolean cacheable(VectorEncoding encoding) {
+		VectorElementType elementType = encoding.elementType();
+		return encoding.dims() > 0 && encoding.multi() == false
+				&& (elementType == VectorElementType.FLOAT || elementType == VectorElementType.FLOAT16
+						|| elementType == VectorElementType.BFLOAT16);
+	}
+
+	/** The cached vectors of {@code field} in the segment of {@code reader}, {@code null} if they are not loaded. */
+	SegmentVectors get(LeafReader reader, String field) {
+		IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+		if (cache == null || cacheHelper == null) {
+			return null;
+		}
+		return cache.get(new Key(cacheHelper.getKey(), field));
+	}
+
+	/**
+	 * Loads the vectors of {@code field} in the segment of {@code reader} unless they were loaded before. Segments
+	 * that were evicted or failed to load are not loaded again, so a cache that is too small does not keep
+	 * reloading the same segments.
+	 *
+	 * @throws org.elasticsearch.common.breaker.CircuitBreakingException if the segment does not fit the breaker
+	 * @throws IllegalArgumentException if the segment is too large for a single region
+	 */
+	void warm(LeafReader reader, String field, VectorEncoding encoding) throws IOException {
+		releaseCollected();
+		IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+		if (cache == null || cacheHelper == null || cacheable(encoding) == false
+				|| reader.getBinaryDocValues(field) == null) {
+			return;
+		}
+		Key key = new Key(cacheHelper.getKey(), field);
+		if (warmed.add(key) == false) {
+			return;
+		}
+		cacheHelper.addClosedListener(coreKey -> {
+			warmed.remove(key);
+			cache.invalidate(key);
+		});
+		cache.put(key, load(reader, field, encoding, breaker));
+	}
+
+	/** Decodes all vectors of {@code field} in the segment of {@code reader}, which must have some. */
+	static SegmentVectors load(LeafReader reader, String field, VectorEncoding encoding, CircuitBreaker breaker)
+			throws IOException {
+		BinaryDocValues values = reader.getBinaryDocValues(field);
+		final int dims = encoding.dims();
+		final int maxDoc = reader.maxDoc();
+		long capacity = Math.min(values.cost(), maxDoc);
+		long bytes = Integer.BYTES * (long) maxDoc + capacity * (Float.BYTES + Float.BYTES * (long) dims);
+		if (capacity * dims * Float.BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The vectors of field [" + field + "] in segment [" + reader
+					+ "] exceed the size of a single cache region");
+		}
+		breaker.addEstimateBytesAndMaybeBreak(bytes, "vector cache [" + field + "]");
+		boolean success = false;
+		try {
+			int[] ords = new int[maxDoc];
+			Arrays.fill(ords, -1);
+			float[] norms = new float[(int) capacity];
+			FloatBuffer vectors = ByteBuffer.allocateDirect((int) capacity * dims * Float.BYTES)
+					.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			VectorNorms.DocNorms docNorms = VectorNorms.docNorms(reader, field, encoding);
+			float[] decoded = new float[dims];
+			int count = 0;
+			for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS && count < capacity; doc = values.nextDoc()) {
+				BytesRef data = values.binaryValue();
+				encoding.decode(data, decoded, 0);
+				vectors.put(decoded);
+				norms[count] = docNorms.norm(doc, data);
+				ords[doc] = count++;
+			}
+			success = true;
+			return new SegmentVectors(ords, norms, vectors, dims, bytes);
+		} finally {
+			if (success == false) {
+				breaker.addWithoutBreaking(-bytes);
+			}
+		}
+	}
+
+	/**
+	 * The decoded vectors of a segment in doc id order. Reading is thread-safe, every thread gets its own
+	 * {@link Reader}.
+	 */
+	static final class SegmentVectors {
+
+		private final int[] ords;
+		private final float[] norms;
+		private final FloatBuffer vectors;
+		private final int dims;
+		private final long ramBytesUsed;
+
+		private SegmentVectors(int[] ords, float[] norms, FloatBuffer vectors, int dims, long ramBytesUsed) {
+			this.ords = ords;
+			this.norms = norms;
+			this.vectors = vectors;
+			this.dims = dims;
+			this.ramBytesUsed = ramBytesUsed;
+		}
+
+		int dims() {
+			return dims;
+		}
+
+		long ramBytesUsed() {
+			return ramBytesUsed;
+		}
+
+		Reader reader() {
+			return new Reader(vectors.duplicate());
+		}
+
+		/** Copies the vectors of single documents out of the cached region, for a single thread. */
+		final class Reader {
+
+			private final FloatBuffer vectors;
+
+			private Reader(FloatBuffer vectors) {
+				this.vectors = vectors;
+			}
+
+			/** Copies the vector of {@code doc} into {@code dest} and returns its norm, {@code NaN} if it has none. */
+			float read(int doc, float[] dest) {
+				int ord = ords[doc];
+				if (ord < 0) {
+					return Float.NaN;
+				}
+				vectors.position(ord * dims);
+				vectors.get(dest, 0, dims);
+				return norms[ord];
+			}
+		}
+	}
+
+	/**
+	 * Tracks an evicted segment until it is unreachable. Readers of queries that are still running keep the
+	 * segment and its direct buffer reachable, so both are freed by the same garbage collection.
+	 */
+	private static final class Evicted extends PhantomReference<SegmentVectors> {
+
+		private final long ramBytesUsed;
+
+		private Evicted(SegmentVectors vectors, ReferenceQueue<SegmentVectors> queue) {
+			super(vectors, queue);
+			this.ramBytesUsed = vectors.ramBytesUsed();
+		}
+	}
+
+	private static final class Key {
+
+		private final IndexReader.CacheKey coreKey;
+		private final String field;
+
+		private Key(IndexReader.CacheKey coreKey, String field) {
+			this.coreKey = coreKey;
+			this.field = field;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return coreKey == key.coreKey && field.equals(key.field);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(coreKey), field);
+		}
+	}
+}
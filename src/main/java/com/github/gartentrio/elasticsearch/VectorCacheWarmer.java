@@ -0,0 +1,131 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.shard.IllegalIndexShardStateException;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.IndexShardState;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Loads the segments of the started shards of an index into the {@link VectorCache}. Every shard checks for new
+ * segments on the warmer thread pool in the interval of {@link VectorCache#WARM_INTERVAL_SETTING}, so segments
+ * created by a refresh or merge are loaded shortly after they become visible, before most queries reach them.
+ * Segments that were loaded before are skipped, see {@link VectorCache#warm}.
+ */
+final class VectorCacheWarmer implements IndexEventListener {
+
+	private static final Logger logger = LogManager.getLogger(VectorCacheWarmer.class);
+
+	private final VectorCache cache;
+	private final Map<ShardId, Scheduler.Cancellable> tasks = new ConcurrentHashMap<>();
+	private volatile ThreadPool threadPool;
+
+	VectorCacheWarmer(VectorCache cache) {
+		this.cache = cache;
+	}
+
+	@Override
+	public void afterIndexCreated(IndexService indexService) {
+		threadPool = indexService.getThreadPool();
+		cache.setBreaker(indexService.getBigArrays().breakerService().getBreaker(CircuitBreaker.FIELDDATA));
+	}
+
+	@Override
+	public void afterIndexShardStarted(IndexShard shard) {
+		tasks.computeIfAbsent(shard.shardId(), shardId -> threadPool.scheduleWithFixedDelay(() -> warm(shard),
+				cache.warmInterval(), ThreadPool.Names.WARMER));
+	}
+
+	@Override
+	public void beforeIndexShardClosed(ShardId shardId, IndexShard shard, Settings indexSettings) {
+		Scheduler.Cancellable task = tasks.remove(shardId);
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	private void warm(IndexShard shard) {
+		if (shard.state() != IndexShardState.STARTED) {
+			return;
+		}
+		List<VectorFieldMapper.VectorFieldType> fields = new ArrayList<>();
+		for (MappedFieldType fieldType : shard.mapperService().fieldTypes()) {
+			if (fieldType instanceof VectorFieldMapper.VectorFieldType
+					&& VectorCache.cacheable(((VectorFieldMapper.VectorFieldType) fieldType).encoding())) {
+				fields.add((VectorFieldMapper.VectorFieldType) fieldType);
+			}
+		}
+		if (fields.isEmpty()) {
+			return;
+		}
+		try (Engine.Searcher searcher = shard.acquireSearcher("vector_cache")) {
+			for (LeafReaderContext context : searcher.reader().leaves()) {
+				for (VectorFieldMapper.VectorFieldType field : fields) {
+					warm(shard.shardId(), context.reader(), field);
+				}
+			}
+		} catch (AlreadyClosedException | IllegalIndexShardStateException e) {
+			// the shard is closing
+		}
+	}
+
+	/**
+	 * Loads one field of one segment. A segment that fails to load is not retried, queries read its doc values
+	 * until it is merged away, and the other segments of the shard are loaded regardless.
+	 */
+	private void warm(ShardId shardId, LeafReader reader, VectorFieldMapper.VectorFieldType field) {
+		try {
+			cache.warm(reader, field.name(), field.encoding());
+		} catch (CircuitBreakingException e) {
+			logger.debug(new ParameterizedMessage("{} vector cache is full, [{}] of segment [{}] is not cached", shardId,
+					field.name(), reader), e);
+		} catch (IllegalArgumentException e) {
+			// a segment too large for a single region
+			logger.debug(new ParameterizedMessage("{} [{}] of segment [{}] is not cached", shardId, field.name(), reader), e);
+		} catch (AlreadyClosedException e) {
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			logger.warn(new ParameterizedMessage("{} failed to load [{}] of segment [{}] into the vector cache", shardId,
+					field.name(), reader), e);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Matches all documents with a vector in {@code field} and scores them by their {@link VectorSimilarity} with the
+ * query vector, like the {@code vector_score} script, or by the combined similarities with several query
+ * vectors. Every similarity bounds its score by the norms of the query
+ * and of the document vector, e.g. the dot product by {@code |q| * |x|} (Cauchy-Schwarz), so the per-block norm
+ * ranges of {@link VectorNorms} give the top-k collector the bounds it needs to skip blocks that cannot produce a
+ * competitive hit.
+ */
+public class VectorDotQuery extends Query {
+
+	/**
+	 * Relative slack on the score bound, covering the rounding of the float sums of dot product and norms.
+	 */
+	static final float BOUND_SLACK = 1.001f;
+
+	private final String field;
+	private final QueryVectors query;
+
+	public VectorDotQuery(String field, QueryVectors query) {
+		this.field = field;
+		this.query = query;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+		return new Weight(this) {
+
+			@Override
+			public void extractTerms(Set<Term> terms) {}
+
+			@Override
+			public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+				LeafReader reader = context.reader();
+				BinaryDocValues values = reader.getBinaryDocValues(field);
+				if (values == null || values.advanceExact(doc) == false) {
+					return Explanation.noMatch("No vector in field [" + field + "]");
+				}
+				float score = query.scorer(reader, field).score(doc, values.binaryValue());
+				return Explanation.match(score * boost, query.similarity().getName() + " similarity of field [" + field
+						+ "], boost " + boost);
+			}
+
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				LeafReader reader = context.reader();
+				BinaryDocValues values = reader.getBinaryDocValues(field);
+				if (values == null) {
+					return null;
+				}
+				return new VectorDotScorer(this, values, VectorNorms.get(reader, field, query.encoding()),
+						VectorNorms.docNorms(reader, field, query.encoding()), query.scorer(reader, field), query, boost,
+						VectorStats.counters(reader, field), reader.maxDoc());
+			}
+
+			@Override
+			public boolean isCacheable(LeafReaderContext ctx) {
+				return DocValues.isCacheable(ctx, field);
+			}
+		};
+	}
+
+	/**
+	 * Scores the documents of a segment. Once the collector reports a minimum competitive score, blocks whose norm
+	 * range cannot reach it are skipped without reading their vectors, and so are single documents whose stored norm
+	 * rules them out. Skipped documents are counted in the {@link VectorStats} of the field.
+	 */
+	private static final class VectorDotScorer extends Scorer {
+
+		private final BinaryDocValues values;
+		private final VectorNorms norms;
+		private final VectorNorms.DocNorms docNorms;
+		private final VectorSimilarity.LeafScorer leafScorer;
+		private final QueryVectors query;
+		private final float boost;
+		private final DocIdSetIterator iterator;
+		private final VectorStats.Counters counters;
+		private final int maxDoc;
+		private final VectorNorms.NormBound normBound = this::bound;
+		private float minCompetitiveScore;
+		private int shallowTarget = -1;
+		private int doc = -1;
+
+		VectorDotScorer(Weight weight, BinaryDocValues values, VectorNorms norms, VectorNorms.DocNorms docNorms,
+				VectorSimilarity.LeafScorer leafScorer, QueryVectors query, float boost, VectorStats.Counters counters, int maxDoc) {
+			super(weight);
+			this.values = values;
+			this.norms = norms;
+			this.docNorms = docNorms;
+			this.leafScorer = leafScorer;
+			this.query = query;
+			this.boost = boost;
+			this.counters = counters;
+			this.maxDoc = maxDoc;
+			this.iterator = new DocIdSetIterator() {
+				@Override
+				public int docID() {
+					return doc;
+				}
+
+				@Override
+				public int nextDoc() throws IOException {
+					return advance(doc + 1);
+				}
+
+				@Override
+				public int advance(int target) throws IOException {
+					return doc = nextCompetitive(target);
+				}
+
+				@Override
+				public long cost() {
+					return values.cost();
+				}
+			};
+		}
+
+		/** Upper bound of the scores of vectors with norms in {@code [minNorm, maxNorm]}. */
+		private float bound(float minNorm, float maxNorm) {
+			if (minNorm > maxNorm) {
+				return 0;
+			}
+			return query.maxScore(minNorm, maxNorm) * BOUND_SLACK * boost;
+		}
+
+		private float blockBound(int block) {
+			return bound(norms.blockMin(block), norms.blockMax(block));
+		}
+
+		private int nextCompetitive(int target) throws IOException {
+			if (minCompetitiveScore <= 0) {
+				return values.advance(target);
+			}
+			int next = VectorNorms.nextCompetitive(values, norms, docNorms, normBound, minCompetitiveScore, target);
+			if (counters != null && next > target) {
+				counters.skipped(Math.min(next, maxDoc) - target);
+			}
+			return next;
+		}
+
+		@Override
+		public DocIdSetIterator iterator() {
+			return iterator;
+		}
+
+		@Override
+		public int docID() {
+			return doc;
+		}
+
+		@Override
+		public float score() throws IOException {
+			return leafScorer.score(doc, values.binaryValue()) * boost;
+		}
+
+		@Override
+		public int advanceShallow(int target) {
+			shallowTarget = target;
+			return target >= DocIdSetIterator.NO_MORE_DOCS ? DocIdSetIterator.NO_MORE_DOCS : VectorNorms.blockEnd(target);
+		}
+
+		@Override
+		public float getMaxScore(int upTo) {
+			int last = Math.min(VectorNorms.block(upTo), norms.numBlocks() - 1);
+			float max = 0;
+			for (int block = VectorNorms.block(Math.max(0, Math.max(doc, shallowTarget))); block <= last; block++) {
+				max = Math.max(max, blockBound(block));
+			}
+			return max;
+		}
+
+		@Override
+		public void setMinCompetitiveScore(float minScore) {
+			this.minCompetitiveScore = minScore;
+		}
+	}
+
+	@Override
+	public String toString(String field) {
+		return "vector_dot(" + this.field + ", " + query.similarity().getName() + ")";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (sameClassAs(o) == false) return false;
+		VectorDotQuery that = (VectorDotQuery) o;
+		return field.equals(that.field) && query.equals(that.query);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(classHash(), field, query);
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+/**
+ * Builds a {@link VectorDotQuery} that scores every document with a vector by its dot product with a query vector,
+ * or with several query vectors whose scores are combined by a {@link QueryVectors.ScoreMode}.
+ */
+public class VectorDotQueryBuilder extends AbstractQueryBuilder<VectorDotQueryBuilder> {
+
+	public static final String NAME = "vector_dot";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField VECTOR_FIELD = new ParseField("vector");
+	public static final ParseField VECTORS_FIELD = new ParseField("vectors");
+	public static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+	public static final ParseField SCORE_MODE_FIELD = new ParseField("score_mode");
+	public static final ParseField DOC_SCORE_MODE_FIELD = new ParseField("doc_score_mode");
+
+	private final String field;
+	private final float[][] vectors;
+	private VectorSimilarity similarity;
+	private QueryVectors.ScoreMode scoreMode = QueryVectors.ScoreMode.MAX;
+	private QueryVectors.ScoreMode docScoreMode = QueryVectors.ScoreMode.MAX;
+
+	public VectorDotQueryBuilder(String field, float[] vector) {
+		this(field, vector == null ? null : new float[][] { vector });
+	}
+
+	/** Scores documents by all {@code vectors} in a single pass, see {@link #scoreMode(QueryVectors.ScoreMode)}. */
+	public VectorDotQueryBuilder(String field, float[][] vectors) {
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (vectors == null || vectors.length == 0) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+		}
+		for (float[] vector : vectors) {
+			if (vector == null || vector.length == 0) {
+				throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+			}
+		}
+		this.field = field;
+		this.vectors = vectors;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public VectorDotQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		vectors = new float[in.readVInt()][];
+		for (int i = 0; i < vectors.length; i++) {
+			vectors[i] = in.readFloatArray();
+		}
+		String similarityName = in.readOptionalString();
+		similarity = similarityName == null ? null : VectorSimilarity.fromString(similarityName);
+		scoreMode = QueryVectors.ScoreMode.fromString(in.readString());
+		docScoreMode = QueryVectors.ScoreMode.fromString(in.readString());
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeVInt(vectors.length);
+		for (float[] vector : vectors) {
+			out.writeFloatArray(vector);
+		}
+		out.writeOptionalString(similarity == null ? null : similarity.getName());
+		out.writeString(scoreMode.getName());
+		out.writeString(docScoreMode.getName());
+	}
+
+	public String field() {
+		return field;
+	}
+
+	/** The first query vector. */
+	public float[] vector() {
+		return vectors[0];
+	}
+
+	public float[][] vectors() {
+		return vectors;
+	}
+
+	/** Overrides the similarity of the field mapping, {@code null} uses the mapping. */
+	public VectorDotQueryBuilder similarity(VectorSimilarity similarity) {
+		this.similarity = similarity;
+		return this;
+	}
+
+	public VectorSimilarity similarity() {
+		return similarity;
+	}
+
+	/** How the scores of several query vectors are combined, defaults to {@link QueryVectors.ScoreMode#MAX}. */
+	public VectorDotQueryBuilder scoreMode(QueryVectors.ScoreMode scoreMode) {
+		this.scoreMode = Objects.requireNonNull(scoreMode);
+		return this;
+	}
+
+	public QueryVectors.ScoreMode scoreMode() {
+		return scoreMode;
+	}
+
+	/**
+	 * How the scores of the vectors of a document are combined on multi-vector fields, defaults to
+	 * {@link QueryVectors.ScoreMode#MAX}.
+	 */
+	public VectorDotQueryBuilder docScoreMode(QueryVectors.ScoreMode docScoreMode) {
+		this.docScoreMode = Objects.requireNonNull(docScoreMode);
+		return this;
+	}
+
+	public QueryVectors.ScoreMode docScoreMode() {
+		return docScoreMode;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		if (vectors.length == 1) {
+			builder.array(VECTOR_FIELD.getPreferredName(), vectors[0]);
+		} else {
+			builder.startArray(VECTORS_FIELD.getPreferredName());
+			for (float[] vector : vectors) {
+				builder.value(vector);
+			}
+			builder.endArray();
+			builder.field(SCORE_MODE_FIELD.getPreferredName(), scoreMode.getName());
+		}
+		if (docScoreMode != QueryVectors.ScoreMode.MAX) {
+			builder.field(DOC_SCORE_MODE_FIELD.getPreferredName(), docScoreMode.getName());
+		}
+		if (similarity != null) {
+			builder.field(SIMILARITY_FIELD.getPreferredName(), similarity.getName());
+		}
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	public static VectorDotQueryBuilder fromXContent(XContentParser parser) throws IOException {
+		String field = null;
+		float[] vector = null;
+		float[][] vectors = null;
+		VectorSimilarity similarity = null;
+		QueryVectors.ScoreMode scoreMode = QueryVectors.ScoreMode.MAX;
+		QueryVectors.ScoreMode docScoreMode = QueryVectors.ScoreMode.MAX;
+		String queryName = null;
+		float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				vector = KnnQueryBuilder.parseVector(parser);
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& VECTORS_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				vectors = parseVectors(parser);
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					vector = KnnQueryBuilder.parseBinaryVector(parser, NAME);
+				} else if (SIMILARITY_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						similarity = VectorSimilarity.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (SCORE_MODE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						scoreMode = QueryVectors.ScoreMode.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (DOC_SCORE_MODE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						docScoreMode = QueryVectors.ScoreMode.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					queryName = parser.text();
+				} else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					boost = parser.floatValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if ((vector == null) == (vectors == null)) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with either a [vector] or [vectors]");
+		}
+		if (vectors != null && vectors.length == 0) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] requires at least one of [vectors]");
+		}
+
+		VectorDotQueryBuilder builder = vector != null ? new VectorDotQueryBuilder(field, vector)
+				: new VectorDotQueryBuilder(field, vectors);
+		builder.similarity(similarity);
+		builder.scoreMode(scoreMode);
+		builder.docScoreMode(docScoreMode);
+		builder.queryName(queryName);
+		builder.boost(boost);
+		return builder;
+	}
+
+	/** Reads an array of vectors, each an array of numbers or a base64 string. */
+	private static float[][] parseVectors(XContentParser parser) throws IOException {
+		List<float[]> vectors = new ArrayList<>();
+		XContentParser.Token token;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+			if (token == XContentParser.Token.START_ARRAY) {
+				vectors.add(KnnQueryBuilder.parseVector(parser));
+			} else if (token.isValue()) {
+				vectors.add(KnnQueryBuilder.parseBinaryVector(parser, NAME));
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] in [vectors]");
+			}
+		}
+		return vectors.toArray(new float[0][]);
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		MappedFieldType fieldType = context.fieldMapper(field);
+		if (fieldType == null) {
+			return Queries.newMatchNoDocsQuery("Unmapped field [" + field + "]");
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new QueryShardException(context, "[" + NAME + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		VectorFieldMapper.VectorFieldType vectorFieldType = (VectorFieldMapper.VectorFieldType) fieldType;
+		VectorSimilarity querySimilarity = similarity == null ? vectorFieldType.vectorSimilarity() : similarity;
+		float[][] fieldVectors = new float[vectors.length][];
+		for (int i = 0; i < vectors.length; i++) {
+			fieldVectors[i] = vectorFieldType.prefixOf(vectors[i]);
+		}
+		QueryVectors query;
+		try {
+			query = vectors.length == 1
+					? new QueryVectors(new QueryVector(fieldVectors[0], vectorFieldType.encoding(), querySimilarity), docScoreMode)
+					: new QueryVectors(fieldVectors, vectorFieldType.encoding(), querySimilarity, scoreMode, docScoreMode);
+		} catch (IllegalArgumentException e) {
+			throw new QueryShardException(context, "[" + NAME + "] " + e.getMessage() + " for field [" + field + "]");
+		}
+		return new VectorDotQuery(fieldType.name(), query);
+	}
+
+	@Override
+	protected boolean doEquals(VectorDotQueryBuilder other) {
+		return Objects.equals(field, other.field) && Arrays.deepEquals(vectors, other.vectors) && similarity == other.similarity
+				&& scoreMode == other.scoreMode && docScoreMode == other.docScoreMode;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, Arrays.deepHashCode(vectors), similarity, scoreMode, docScoreMode);
+	}
+}
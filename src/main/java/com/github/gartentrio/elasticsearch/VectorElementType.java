@@ -0,0 +1,470 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Binary encoding of the vectors of a {@code vector} field in doc values, selected by the {@code element_type}
+ * of the mapping. Multi-byte values are written in the given byte order, see {@link VectorEncoding}.
+ */
+public enum VectorElementType {
+
+	/** 4 bytes per dimension, IEEE 754 single precision. */
+	FLOAT {
+		@Override
+		public int dims(BytesRef data) {
+			return data.length / Float.BYTES;
+		}
+
+		@Override
+		public BytesRef encode(float[] vector, int length, ByteOrder order) {
+			ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES * length).order(order);
+			for (int i = 0; i < length; i++) {
+				buffer.putFloat(vector[i]);
+			}
+			return new BytesRef(buffer.array());
+		}
+
+		@Override
+		public void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data.bytes).order(order);
+			final int end = destOffset + dims;
+			for (int i = destOffset, pos = data.offset; i < end; i++, pos += Float.BYTES) {
+				dest[i] = buffer.getFloat(pos);
+			}
+		}
+
+		@Override
+		public Prepared prepare(float[] query, ByteOrder order) {
+			return new Prepared(query, norm(query)) {
+				@Override
+				public DotProduct dotProduct() {
+					final ByteView view = new ByteView(order);
+					return data -> VectorKernels.INSTANCE.dot(query, view.of(data), data.offset, query.length);
+				}
+
+				@Override
+				public Distance l1Distance() {
+					final ByteView view = new ByteView(order);
+					return data -> VectorKernels.INSTANCE.l1Distance(query, view.of(data), data.offset, query.length);
+				}
+			};
+		}
+	},
+
+	/** 2 bytes per dimension, IEEE 754 half precision. */
+	FLOAT16 {
+		@Override
+		public int dims(BytesRef data) {
+			return data.length / Short.BYTES;
+		}
+
+		@Override
+		public BytesRef encode(float[] vector, int length, ByteOrder order) {
+			ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES * length).order(order);
+			for (int i = 0; i < length; i++) {
+				buffer.putShort(HalfFloat.floatToHalf(vector[i]));
+			}
+			return new BytesRef(buffer.array());
+		}
+
+		@Override
+		public void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data.bytes).order(order);
+			final int end = destOffset + dims;
+			for (int i = destOffset, pos = data.offset; i < end; i++, pos += Short.BYTES) {
+				dest[i] = HalfFloat.halfToFloat(buffer.getShort(pos));
+			}
+		}
+
+		@Override
+		public Prepared prepare(float[] query, ByteOrder order) {
+			return new DecodingPrepared(this, query, norm(query), order);
+		}
+	},
+
+	/** 2 bytes per dimension, bfloat16: the upper half of a float, keeping its full exponent range. */
+	BFLOAT16 {
+		@Override
+		public int dims(BytesRef data) {
+			return data.length / Short.BYTES;
+		}
+
+		@Override
+		public BytesRef encode(float[] vector, int length, ByteOrder order) {
+			ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES * length).order(order);
+			for (int i = 0; i < length; i++) {
+				buffer.putShort(HalfFloat.floatToBFloat16(vector[i]));
+			}
+			return new BytesRef(buffer.array());
+		}
+
+		@Override
+		public void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data.bytes).order(order);
+			final int end = destOffset + dims;
+			for (int i = destOffset, pos = data.offset; i < end; i++, pos += Short.BYTES) {
+				dest[i] = HalfFloat.bfloat16ToFloat(buffer.getShort(pos));
+			}
+		}
+
+		@Override
+		public Prepared prepare(float[] query, ByteOrder order) {
+			return new DecodingPrepared(this, query, norm(query), order);
+		}
+	},
+
+	/**
+	 * 1 byte per dimension. Every vector is calibrated to the min/max range of its own elements: a header holds
+	 * {@code min} and {@code scale} as floats, followed by one unsigned code {@code c} per dimension, so that an
+	 * element is restored as {@code min + scale * c}.
+	 */
+	INT8 {
+		private static final int HEADER_BYTES = 2 * Float.BYTES;
+		private static final int MAX_CODE = 255;
+
+		@Override
+		public int dims(BytesRef data) {
+			return data.length - HEADER_BYTES;
+		}
+
+		@Override
+		public BytesRef encode(float[] vector, int length, ByteOrder order) {
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < length; i++) {
+				min = Math.min(min, vector[i]);
+				max = Math.max(max, vector[i]);
+			}
+			if (length == 0) {
+				min = max = 0;
+			}
+			float scale = max > min ? (max - min) / MAX_CODE : 0;
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + length).order(order);
+			buffer.putFloat(min);
+			buffer.putFloat(scale);
+			for (int i = 0; i < length; i++) {
+				buffer.put((byte) (scale == 0 ? 0 : Math.round((vector[i] - min) / scale)));
+			}
+			return new BytesRef(buffer.array());
+		}
+
+		@Override
+		public void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data.bytes).order(order);
+			final byte[] bytes = data.bytes;
+			final float min = buffer.getFloat(data.offset);
+			final float scale = buffer.getFloat(data.offset + Float.BYTES);
+			final int end = destOffset + dims;
+			for (int i = destOffset, pos = data.offset + HEADER_BYTES; i < end; i++, pos++) {
+				dest[i] = min + scale * (bytes[pos] & 0xFF);
+			}
+		}
+
+		/**
+		 * The query is quantized symmetrically to {@code q ~ queryScale * k} with {@code k} in [-127, 127], so that
+		 * {@code q * x ~ min * sum(q) + scale * queryScale * sum(k * c)} where the last sum is computed in integers.
+		 * With the rounding error {@code r = q - queryScale * k} of the query, this differs from {@code q * x} by
+		 * {@code min * sum(r) - r * x}, and as {@code min} is an element of the decoded {@code x}, by at most
+		 * {@code (|r| + |sum(r)|) * |x|}.
+		 */
+		@Override
+		public Prepared prepare(float[] query, ByteOrder order) {
+			float querySum = 0;
+			for (float q : query) {
+				querySum += q;
+			}
+			final float sum = querySum;
+			final float queryScale = queryScale(query);
+			final byte[] codes = quantize(query, queryScale);
+			double residualSquares = 0;
+			double residualSum = 0;
+			for (int i = 0; i < query.length; i++) {
+				double residual = query[i] - (double) queryScale * codes[i];
+				residualSquares += residual * residual;
+				residualSum += residual;
+			}
+			final float dotError = (float) (Math.sqrt(residualSquares) + Math.abs(residualSum));
+			return new DecodingPrepared(this, query, norm(query), order) {
+				@Override
+				public float dotError() {
+					return dotError;
+				}
+
+				@Override
+				public DotProduct dotProduct() {
+					final ByteView view = new ByteView(order);
+					return data -> {
+						final ByteBuffer buffer = view.of(data);
+						final float min = buffer.getFloat(data.offset);
+						final float scale = buffer.getFloat(data.offset + Float.BYTES);
+						final int acc = VectorKernels.INSTANCE.dotSignedUnsigned(codes, data.bytes, data.offset + HEADER_BYTES, codes.length);
+						return min * sum + scale * queryScale * acc;
+					};
+				}
+			};
+		}
+
+		private float queryScale(float[] query) {
+			float absMax = 0;
+			for (float q : query) {
+				absMax = Math.max(absMax, Math.abs(q));
+			}
+			return absMax / Byte.MAX_VALUE;
+		}
+
+		private byte[] quantize(float[] query, float queryScale) {
+			final byte[] codes = new byte[query.length];
+			for (int i = 0; i < query.length; i++) {
+				codes[i] = (byte) (queryScale == 0 ? 0 : Math.round(query[i] / queryScale));
+			}
+			return codes;
+		}
+	},
+
+	/**
+	 * 1 bit per dimension, for binary vectors such as perceptual hashes. Elements must be {@code 0} or {@code 1} and
+	 * are packed into 64 bit words, element {@code i} being bit {@code i % 64} of word {@code i / 64}. The last word
+	 * is padded with zeros, so the number of dimensions is only known from the {@code dims} of the mapping.
+	 * Products and distances count the bits of the AND and the XOR of the words.
+	 */
+	BIT {
+		@Override
+		public int dims(BytesRef data) {
+			return data.length * Byte.SIZE;
+		}
+
+		@Override
+		public BytesRef encode(float[] vector, int length, ByteOrder order) {
+			ByteBuffer buffer = ByteBuffer.allocate(words(length) * Long.BYTES).order(order);
+			for (long word : pack(vector, length)) {
+				buffer.putLong(word);
+			}
+			return new BytesRef(buffer.array());
+		}
+
+		@Override
+		public void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data.bytes).order(order);
+			for (int i = 0; i < dims; i++) {
+				long word = buffer.getLong(data.offset + (i >>> 6) * Long.BYTES);
+				dest[destOffset + i] = (word >>> (i & 63)) & 1L;
+			}
+		}
+
+		@Override
+		public Prepared prepare(float[] query, ByteOrder order) {
+			final long[] words = pack(query, query.length);
+			return new Prepared(query, norm(query)) {
+				@Override
+				public DotProduct dotProduct() {
+					final ByteView view = new ByteView(order);
+					return data -> VectorKernels.INSTANCE.andCount(words, view.of(data), data.offset, words.length);
+				}
+
+				/** The Manhattan distance of binary vectors is their Hamming distance. */
+				@Override
+				public Distance l1Distance() {
+					final ByteView view = new ByteView(order);
+					return data -> VectorKernels.INSTANCE.xorCount(words, view.of(data), data.offset, words.length);
+				}
+			};
+		}
+
+		@Override
+		public void checkValues(float[] vector, int length) {
+			for (int i = 0; i < length; i++) {
+				if (vector[i] != 0 && vector[i] != 1) {
+					throw new IllegalArgumentException("Vectors of element_type [" + getName() + "] must only contain 0 and 1, got ["
+							+ vector[i] + "] at position [" + i + "]");
+				}
+			}
+		}
+
+		private int words(int length) {
+			return (length + Long.SIZE - 1) / Long.SIZE;
+		}
+
+		private long[] pack(float[] vector, int length) {
+			final long[] words = new long[words(length)];
+			for (int i = 0; i < length; i++) {
+				if (vector[i] != 0) {
+					words[i >>> 6] |= 1L << (i & 63);
+				}
+			}
+			return words;
+		}
+	};
+
+	/**
+	 * A query vector prepared for the vectors of one element type and byte order, e.g. quantized or packed. Prepared
+	 * queries are immutable and can be shared between segments and threads, the kernels they create cannot.
+	 */
+	public abstract static class Prepared {
+
+		private final float[] query;
+		private final float norm;
+
+		Prepared(float[] query, float norm) {
+			this.query = query;
+			this.norm = norm;
+		}
+
+		public float[] query() {
+			return query;
+		}
+
+		/** See {@link VectorElementType#norm(float[])}. */
+		public float norm() {
+			return norm;
+		}
+
+		/**
+		 * Bound of the error of the {@link #dotProduct() dot product} kernel relative to the norm of the vector: the
+		 * kernel differs from the exact dot product with a decoded vector {@code x} by at most
+		 * {@code dotError() * |x|}. Zero unless the query is quantized.
+		 */
+		public float dotError() {
+			return 0;
+		}
+
+		/** Creates a kernel for the dot product with encoded vectors, for use by a single thread. */
+		public abstract DotProduct dotProduct();
+
+		/** Creates a kernel for the Manhattan distance to encoded vectors, for use by a single thread. */
+		public abstract Distance l1Distance();
+	}
+
+	/** Prepared query that decodes every vector into a buffer before running the kernels on floats. */
+	private static class DecodingPrepared extends Prepared {
+
+		private final VectorElementType elementType;
+		private final ByteOrder order;
+
+		DecodingPrepared(VectorElementType elementType, float[] query, float norm, ByteOrder order) {
+			super(query, norm);
+			this.elementType = elementType;
+			this.order = order;
+		}
+
+		@Override
+		public DotProduct dotProduct() {
+			final float[] query = query();
+			final float[] decoded = new float[query.length];
+			return data -> {
+				elementType.decode(data, decoded, 0, decoded.length, order);
+				return VectorKernels.INSTANCE.dot(query, 0, decoded, 0, decoded.length);
+			};
+		}
+
+		@Override
+		public Distance l1Distance() {
+			final float[] query = query();
+			final float[] decoded = new float[query.length];
+			return data -> {
+				elementType.decode(data, decoded, 0, decoded.length, order);
+				return VectorKernels.INSTANCE.l1Distance(query, 0, decoded, 0, decoded.length);
+			};
+		}
+	}
+
+	/**
+	 * Computes the dot product of a fixed query vector with encoded document vectors through {@link VectorKernels}.
+	 * Instances keep a view of the last doc values buffer or a decoding buffer and must not be shared between threads.
+	 */
+	@FunctionalInterface
+	public interface DotProduct {
+		float dot(BytesRef data);
+	}
+
+	/** Computes the distance of a fixed query vector to encoded document vectors, with the same threading rules. */
+	@FunctionalInterface
+	public interface Distance {
+		float distance(BytesRef data);
+	}
+
+	/** Number of dimensions of an encoded vector. */
+	public abstract int dims(BytesRef data);
+
+	/** Encodes the first {@code length} elements of {@code vector}. */
+	public abstract BytesRef encode(float[] vector, int length, ByteOrder order);
+
+	/** Decodes the {@code dims} elements of the vector encoded in {@code data} into {@code dest}, starting at {@code destOffset}. */
+	public abstract void decode(BytesRef data, float[] dest, int destOffset, int dims, ByteOrder order);
+
+	/** Prepares {@code query} for computing products and distances with vectors of this element type. */
+	public abstract Prepared prepare(float[] query, ByteOrder order);
+
+	/**
+	 * Throws an {@link IllegalArgumentException} if the first {@code length} elements of {@code vector} cannot be
+	 * represented by this element type.
+	 */
+	public void checkValues(float[] vector, int length) {
+	}
+
+	/**
+	 * Euclidean norm of {@code query}, so that by Cauchy-Schwarz the dot product of {@code query} with a decoded
+	 * vector {@code x} never exceeds {@code norm(query) * |x|}, plus {@link Prepared#dotError()} for the kernels of
+	 * {@link #prepare}.
+	 */
+	public float norm(float[] query) {
+		return (float) Math.sqrt(VectorKernels.INSTANCE.dot(query, 0, query, 0, query.length));
+	}
+
+	/** Name of this element type in the mapping. */
+	public String getName() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+
+	public static VectorElementType fromString(String name) {
+		for (VectorElementType type : values()) {
+			if (type.getName().equals(name)) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown element_type [" + name + "]");
+	}
+
+	/**
+	 * Views doc values bytes in a byte order. Doc values iterators reuse their buffer, so the view is only rebuilt
+	 * when the underlying array changes.
+	 */
+	static final class ByteView {
+
+		private final ByteOrder order;
+		private ByteBuffer buffer;
+
+		ByteView(ByteOrder order) {
+			this.order = order;
+		}
+
+		ByteBuffer of(BytesRef data) {
+			if (buffer == null || buffer.array() != data.bytes) {
+				buffer = ByteBuffer.wrap(data.bytes).order(order);
+			}
+			return buffer;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Layout of the vectors of a {@code vector} field in doc values: the {@link VectorElementType} and, if the mapping
+ * declares {@code dims}, the fixed number of dimensions. Fields with fixed dimensions store every vector with the
+ * same stride in little-endian order, which matches the native order of common hardware, so elements are read with
+ * plain loads. Fields without {@code dims} keep the original big-endian layout of variable length.
+ * <p>
+ * Multi-vector fields pack all vectors of a document into one value: a header with the number of vectors, followed by
+ * the Euclidean norm and the encoding of every vector, see {@link #encode(BytesRef[], float[], int)}. Single vectors
+ * are sliced out of that value with {@link #vector(BytesRef, int, BytesRef)}, so every kernel works on them unchanged.
+ */
+public final class VectorEncoding {
+
+	/** Encoding of fields with the default mapping. */
+	public static final VectorEncoding DEFAULT = new VectorEncoding(VectorElementType.FLOAT, 0);
+
+	/** Bytes of the vector count at the start of multi-vector values. */
+	private static final int COUNT_BYTES = Integer.BYTES;
+	/** Bytes of the norm stored in front of every vector of a multi-vector value. */
+	private static final int NORM_BYTES = Float.BYTES;
+
+	private final VectorElementType elementType;
+	private final int dims;
+	private final boolean multi;
+	private final ByteOrder order;
+
+	/**
+	 * @param dims the fixed number of dimensions or {@code 0} if vectors may have any length
+	 */
+	public VectorEncoding(VectorElementType elementType, int dims) {
+		this(elementType, dims, false);
+	}
+
+	/**
+	 * @param dims the fixed number of dimensions or {@code 0} if vectors may have any length
+	 * @param multi whether documents hold several vectors, requires fixed {@code dims}
+	 */
+	public VectorEncoding(VectorElementType elementType, int dims, boolean multi) {
+		if (multi && dims == 0) {
+			throw new IllegalArgumentException("Multi-vector encodings require fixed dimensions");
+		}
+		this.elementType = Objects.requireNonNull(elementType);
+		this.dims = dims;
+		this.multi = multi;
+		this.order = dims > 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+
+	public VectorElementType elementType() {
+		return elementType;
+	}
+
+	/** The fixed number of dimensions or {@code 0} if vectors may have any length. */
+	public int dims() {
+		return dims;
+	}
+
+	/** Whether a value holds several vectors, see {@link #count(BytesRef)}. */
+	public boolean multi() {
+		return multi;
+	}
+
+	public ByteOrder order() {
+		return order;
+	}
+
+	/** Number of vectors in a doc values entry, always {@code 1} unless {@link #multi()}. */
+	public int count(BytesRef data) {
+		if (multi == false) {
+			return 1;
+		}
+		return ByteBuffer.wrap(data.bytes).order(order).getInt(data.offset);
+	}
+
+	/**
+	 * Points {@code dest} at vector {@code index} of the multi-vector value {@code data} and returns it, returns
+	 * {@code data} itself if this encoding holds single vectors.
+	 */
+	public BytesRef vector(BytesRef data, int index, BytesRef dest) {
+		if (multi == false) {
+			return data;
+		}
+		int count = count(data);
+		int stride = (data.length - COUNT_BYTES) / count;
+		dest.bytes = data.bytes;
+		dest.offset = data.offset + COUNT_BYTES + index * stride + NORM_BYTES;
+		dest.length = stride - NORM_BYTES;
+		return dest;
+	}
+
+	/** Norm stored in front of a vector that was sliced from a multi-vector value by {@link #vector}. */
+	public float norm(BytesRef vector) {
+		return ByteBuffer.wrap(vector.bytes).order(order).getFloat(vector.offset - NORM_BYTES);
+	}
+
+	/** Number of dimensions of an encoded vector. */
+	public int dims(BytesRef data) {
+		return dims > 0 ? dims : elementType.dims(data);
+	}
+
+	/** Encodes the first {@code length} elements of {@code vector}. */
+	public BytesRef encode(float[] vector, int length) {
+		checkVector(vector, length);
+		return elementType.encode(vector, length, order);
+	}
+
+	/**
+	 * Packs the first {@code count} {@code vectors}, each encoded by {@link #encode(float[], int)}, with their
+	 * {@code norms} into a multi-vector value.
+	 */
+	public BytesRef encode(BytesRef[] vectors, float[] norms, int count) {
+		if (multi == false) {
+			throw new IllegalStateException("Encoding [" + this + "] holds a single vector per value");
+		}
+		int stride = NORM_BYTES + vectors[0].length;
+		ByteBuffer buffer = ByteBuffer.allocate(COUNT_BYTES + count * stride).order(order);
+		buffer.putInt(count);
+		for (int i = 0; i < count; i++) {
+			buffer.putFloat(norms[i]);
+			buffer.put(vectors[i].bytes, vectors[i].offset, vectors[i].length);
+		}
+		return new BytesRef(buffer.array());
+	}
+
+	/** Decodes the vector encoded in {@code data} into {@code dest}, starting at {@code destOffset}. */
+	public void decode(BytesRef data, float[] dest, int destOffset) {
+		elementType.decode(data, dest, destOffset, dims(data), order);
+	}
+
+	/** Validates {@code query} and prepares it for the encoded vectors, see {@link VectorElementType#prepare}. */
+	public VectorElementType.Prepared prepare(float[] query) {
+		checkVector(query, query.length);
+		return elementType.prepare(query, order);
+	}
+
+	/**
+	 * Throws an {@link IllegalArgumentException} if the first {@code length} elements of {@code vector} do not fit
+	 * this encoding, see {@link #checkDims} and {@link VectorElementType#checkValues}.
+	 */
+	public void checkVector(float[] vector, int length) {
+		checkDims(length);
+		elementType.checkValues(vector, length);
+	}
+
+	/** Throws an {@link IllegalArgumentException} if the dimensions are fixed and differ from {@code length}. */
+	public void checkDims(int length) {
+		if (dims > 0 && length != dims) {
+			throw new IllegalArgumentException("Vector has [" + length + "] dimensions but the field requires [" + dims + "]");
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		VectorEncoding that = (VectorEncoding) o;
+		return elementType == that.elementType && dims == that.dims && multi == that.multi;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(elementType, dims, multi);
+	}
+
+	@Override
+	public String toString() {
+		return elementType.getName() + (dims > 0 ? "[" + dims + "]" : "") + (multi ? "[]" : "");
+	}
+}
@@ -1,198 +1,711 @@
-/*
- * Licensed to Elasticsearch under one or more contributor
- * license agreements. See the NOTICE file distributed with
- * this work for additional information regarding copyright
- * ownership. Elasticsearch licenses this file to you under
- * the Apache License, Version 2.0 (the "License"); you may
- * not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *    http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-
-package com.github.gartentrio.elasticsearch;
-
-import java.io.IOException;
-import java.time.ZoneId;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-
-import org.apache.lucene.document.StoredField;
-import org.apache.lucene.index.IndexOptions;
-import org.apache.lucene.index.IndexableField;
-import org.apache.lucene.search.DocValuesFieldExistsQuery;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.store.ByteArrayDataOutput;
-import org.apache.lucene.util.BytesRef;
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.index.fielddata.IndexFieldData;
-import org.elasticsearch.index.fielddata.plain.BytesBinaryDVIndexFieldData;
-import org.elasticsearch.index.mapper.BinaryFieldMapper;
-import org.elasticsearch.index.mapper.CustomDocValuesField;
-import org.elasticsearch.index.mapper.FieldMapper;
-import org.elasticsearch.index.mapper.MappedFieldType;
-import org.elasticsearch.index.mapper.Mapper;
-import org.elasticsearch.index.mapper.MapperParsingException;
-import org.elasticsearch.index.mapper.ParseContext;
-import org.elasticsearch.index.mapper.TypeParsers;
-import org.elasticsearch.index.query.QueryShardContext;
-import org.elasticsearch.index.query.QueryShardException;
-import org.elasticsearch.search.DocValueFormat;
-
-public class VectorFieldMapper extends BinaryFieldMapper {
-
-	public static final String CONTENT_TYPE = "vector";
-
-	public static class Defaults {
-		public static final MappedFieldType FIELD_TYPE = new VectorFieldType();
-
-		static {
-			FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
-			FIELD_TYPE.freeze();
-		}
-	}
-
-	public static class Builder extends FieldMapper.Builder<Builder, VectorFieldMapper> {
-
-		public Builder(String name) {
-			super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
-			builder = this;
-		}
-
-		@Override
-		public VectorFieldMapper build(BuilderContext context) {
-			setupFieldType(context);
-			return new VectorFieldMapper(name, fieldType, defaultFieldType,
-					context.indexSettings(), multiFieldsBuilder.build(this, context), copyTo);
-		}
-	}
-
-	public static class TypeParser implements Mapper.TypeParser {
-		@Override
-		public VectorFieldMapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext)
-				throws MapperParsingException {
-			Builder builder = new Builder(name);
-
-			if (node.get("doc_values") != null) {
-				throw new MapperParsingException("Setting [doc_values] cannot be modified for field [" + name + "]");
-			}
-			if (node.get("index") != null) {
-				throw new MapperParsingException("Setting [index] cannot be modified for field [" + name + "]");
-			}
-
-			TypeParsers.parseField(builder, name, node, parserContext);
-
-			return builder;
-		}
-	}
-
-	static final class VectorFieldType extends MappedFieldType {
-
-		VectorFieldType() {}
-
-		public VectorFieldType(VectorFieldType ref) {
-			super(ref);
-		}
-
-		@Override
-		public MappedFieldType clone() {
-			return new VectorFieldType(this);
-		}
-
-
-		@Override
-		public String typeName() {
-			return CONTENT_TYPE;
-		}
-
-		@Override
-		public DocValueFormat docValueFormat(String format, ZoneId timeZone) {
-			return DocValueFormat.BINARY;
-		}
-
-		@Override
-		public IndexFieldData.Builder fielddataBuilder(String fullyQualifiedIndexName) {
-			failIfNoDocValues();
-			return new BytesBinaryDVIndexFieldData.Builder();
-		}
-
-		@Override
-		public Query existsQuery(QueryShardContext context) {
-			return new DocValuesFieldExistsQuery(name());
-		}
-
-		@Override
-		public Query termQuery(Object value, QueryShardContext context) {
-			throw new QueryShardException(context, "Vector fields do not support searching");
-		}
-	}
-
-	protected VectorFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
-			Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
-		super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
-	}
-
-	@Override
-	protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
-		Float value;
-		if (context.externalValueSet()) {
-			value = (Float) context.externalValue();
-		} else {
-            value = context.parser().floatValue();
-        }
-		if (value != null) {
-			String name = fieldType().name();
-			VectorField field = (VectorField) context.doc().getByKey(name);
-			if (field == null) {
-				field = new VectorField(name);
-				context.doc().addWithKey(name, field);
-			}
-			field.addFloat(value);
-			if (fieldType().stored()) {
-				context.doc().add(new StoredField(name, value));
-			}
-		}
-	}
-
-	@Override
-	protected String contentType() {
-		return CONTENT_TYPE;
-	}
-
-	static class VectorField extends CustomDocValuesField {
-
-		List<Float> value = new ArrayList<>();
-
-		protected VectorField(String name) {
-			super(name);
-		}
-
-		public void addFloat(Float v) {
-			value.add(v);
-		}
-
-		@Override
-		public BytesRef binaryValue() {
-			try {
-				byte[] data = new byte[Float.BYTES * value.size()];
-				ByteArrayDataOutput buf = new ByteArrayDataOutput(data);
-				for (Float v : value) {
-					buf.writeInt(Float.floatToIntBits(v));
-				}
-				return new BytesRef(data);
-			} catch (IOException e) {
-				throw new ElasticsearchException("Failed to get binary value from vector", e);
-			}
-		}
-
-	}
-}
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.plain.BytesBinaryDVIndexFieldData;
+import org.elasticsearch.index.mapper.ArrayValueMapperParser;
+import org.elasticsearch.index.mapper.BinaryFieldMapper;
+import org.elasticsearch.index.mapper.CustomDocValuesField;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.TypeParsers;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+import org.elasticsearch.search.DocValueFormat;
+
+public class VectorFieldMapper extends BinaryFieldMapper implements ArrayValueMapperParser {
+
+	public static final String CONTENT_TYPE = "vector";
+
+	public static class Defaults {
+		public static final MappedFieldType FIELD_TYPE = new VectorFieldType();
+
+		static {
+			FIELD_TYPE.setIndexOptions(IndexOptions.NONE);
+			FIELD_TYPE.freeze();
+		}
+	}
+
+	public static class Builder extends FieldMapper.Builder<Builder, VectorFieldMapper> {
+
+		private VectorIndexOptions vectorIndex;
+		private VectorElementType elementType = VectorElementType.FLOAT;
+		private int dims;
+		private boolean multiVector;
+		private VectorSimilarity similarity = VectorSimilarity.DOT_PRODUCT;
+		private boolean prefix;
+
+		public Builder(String name) {
+			super(name, Defaults.FIELD_TYPE, Defaults.FIELD_TYPE);
+			builder = this;
+		}
+
+		public Builder vectorIndex(VectorIndexOptions vectorIndex) {
+			this.vectorIndex = vectorIndex;
+			return this;
+		}
+
+		public Builder elementType(VectorElementType elementType) {
+			this.elementType = elementType;
+			return this;
+		}
+
+		public Builder similarity(VectorSimilarity similarity) {
+			this.similarity = similarity;
+			return this;
+		}
+
+		public Builder multiVector(boolean multiVector) {
+			this.multiVector = multiVector;
+			return this;
+		}
+
+		/** Marks a multi-field of another vector field, see {@link VectorFieldType#prefix()}. */
+		public Builder prefix(boolean prefix) {
+			this.prefix = prefix;
+			return this;
+		}
+
+		public Builder dims(int dims) {
+			if (dims < 1) {
+				throw new MapperParsingException("[dims] of field [" + name + "] must be positive, got [" + dims + "]");
+			}
+			this.dims = dims;
+			return this;
+		}
+
+		@Override
+		public VectorFieldMapper build(BuilderContext context) {
+			setupFieldType(context);
+			((VectorFieldType) fieldType).setVectorIndex(vectorIndex);
+			((VectorFieldType) fieldType).setElementType(elementType);
+			((VectorFieldType) fieldType).setDims(dims);
+			((VectorFieldType) fieldType).setMultiVector(multiVector);
+			((VectorFieldType) fieldType).setSimilarity(similarity);
+			((VectorFieldType) fieldType).setPrefix(prefix);
+			return new VectorFieldMapper(name, fieldType, defaultFieldType,
+					context.indexSettings(), multiFieldsBuilder.build(this, context), copyTo);
+		}
+	}
+
+	public static class TypeParser implements Mapper.TypeParser {
+		@Override
+		public VectorFieldMapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext)
+				throws MapperParsingException {
+			Builder builder = new Builder(name);
+
+			if (node.get("doc_values") != null) {
+				throw new MapperParsingException("Setting [doc_values] cannot be modified for field [" + name + "]");
+			}
+			Object index = node.remove("index");
+			if (index != null) {
+				builder.vectorIndex(VectorIndexOptions.parse(name, index));
+			}
+			Object elementType = node.remove("element_type");
+			if (elementType != null) {
+				try {
+					builder.elementType(VectorElementType.fromString(elementType.toString()));
+				} catch (IllegalArgumentException e) {
+					throw new MapperParsingException(e.getMessage() + " for field [" + name + "]");
+				}
+			}
+
+			Object similarity = node.remove("similarity");
+			if (similarity != null) {
+				try {
+					builder.similarity(VectorSimilarity.fromString(similarity.toString()));
+				} catch (IllegalArgumentException e) {
+					throw new MapperParsingException(e.getMessage() + " for field [" + name + "]");
+				}
+			}
+			Object dims = node.remove("dims");
+			if (dims != null) {
+				builder.dims(XContentMapValues.nodeIntegerValue(dims));
+			}
+			if (builder.vectorIndex instanceof VectorIndexOptions.Ivf && builder.dims > 0
+					&& ((VectorIndexOptions.Ivf) builder.vectorIndex).dims() != builder.dims) {
+				throw new MapperParsingException("The [ivf] centroids of field [" + name + "] have ["
+						+ ((VectorIndexOptions.Ivf) builder.vectorIndex).dims() + "] dimensions but [dims] is [" + builder.dims + "]");
+			}
+			Object multiVector = node.remove("multi_vector");
+			if (multiVector != null) {
+				builder.multiVector(XContentMapValues.nodeBooleanValue(multiVector, name + ".multi_vector"));
+			}
+			if (builder.multiVector && builder.dims == 0) {
+				throw new MapperParsingException("[multi_vector] field [" + name + "] requires [dims]");
+			}
+			if (builder.multiVector && builder.vectorIndex != null) {
+				throw new MapperParsingException("[multi_vector] field [" + name + "] does not support an [index]");
+			}
+			if (builder.elementType == VectorElementType.BIT && builder.dims == 0) {
+				throw new MapperParsingException("[element_type] [" + VectorElementType.BIT.getName() + "] of field [" + name
+						+ "] requires [dims]");
+			}
+			try {
+				builder.similarity.checkElementType(builder.elementType);
+			} catch (IllegalArgumentException e) {
+				throw new MapperParsingException(e.getMessage() + " for field [" + name + "]");
+			}
+
+			builder.prefix(parserContext.isWithinMultiField());
+
+			TypeParsers.parseField(builder, name, node, parserContext);
+
+			return builder;
+		}
+	}
+
+	static final class VectorFieldType extends MappedFieldType {
+
+		private VectorIndexOptions vectorIndex;
+		private VectorEncoding encoding = VectorEncoding.DEFAULT;
+		private VectorSimilarity similarity = VectorSimilarity.DOT_PRODUCT;
+		private boolean prefix;
+
+		VectorFieldType() {}
+
+		public VectorFieldType(VectorFieldType ref) {
+			super(ref);
+			this.vectorIndex = ref.vectorIndex;
+			this.encoding = ref.encoding;
+			this.similarity = ref.similarity;
+			this.prefix = ref.prefix;
+		}
+
+		/** The default similarity of queries on this field, also used to link an {@code hnsw} graph. */
+		public VectorSimilarity vectorSimilarity() {
+			return similarity;
+		}
+
+		public void setSimilarity(VectorSimilarity similarity) {
+			checkIfFrozen();
+			this.similarity = similarity;
+		}
+
+		/** How the vectors of this field are laid out in doc values. */
+		public VectorEncoding encoding() {
+			return encoding;
+		}
+
+		public VectorElementType elementType() {
+			return encoding.elementType();
+		}
+
+		public void setElementType(VectorElementType elementType) {
+			checkIfFrozen();
+			this.encoding = new VectorEncoding(elementType, encoding.dims(), encoding.multi());
+		}
+
+		/** The fixed number of dimensions of the vectors of this field or {@code 0} if they may have any length. */
+		public int dims() {
+			return encoding.dims();
+		}
+
+		public void setDims(int dims) {
+			checkIfFrozen();
+			this.encoding = new VectorEncoding(encoding.elementType(), dims, encoding.multi());
+		}
+
+		/** Whether documents may hold several vectors in this field, packed into one doc value. */
+		public boolean multiVector() {
+			return encoding.multi();
+		}
+
+		public void setMultiVector(boolean multiVector) {
+			checkIfFrozen();
+			this.encoding = new VectorEncoding(encoding.elementType(), encoding.dims(), multiVector);
+		}
+
+		/** The approximate nearest-neighbour index of this field or {@code null} if vectors are only scanned. */
+		public VectorIndexOptions vectorIndex() {
+			return vectorIndex;
+		}
+
+		public void setVectorIndex(VectorIndexOptions vectorIndex) {
+			checkIfFrozen();
+			this.vectorIndex = vectorIndex;
+		}
+
+		/**
+		 * Whether this is a multi-field of another vector field. It indexes the leading {@code dims} elements of the
+		 * vectors of its parent, a coarse copy that is cheaper to scan, and truncates longer query vectors the same way.
+		 */
+		public boolean prefix() {
+			return prefix;
+		}
+
+		public void setPrefix(boolean prefix) {
+			checkIfFrozen();
+			this.prefix = prefix;
+		}
+
+		/** The leading {@code dims} elements of {@code vector} on {@link #prefix()} fields, {@code vector} otherwise. */
+		public float[] prefixOf(float[] vector) {
+			return prefix && dims() > 0 && vector.length > dims() ? Arrays.copyOf(vector, dims()) : vector;
+		}
+
+		@Override
+		public MappedFieldType clone() {
+			return new VectorFieldType(this);
+		}
+
+		/** Stored vectors are returned as arrays of floats, stored elements of older indices as they are. */
+		@Override
+		public Object valueForDisplay(Object value) {
+			if (value instanceof BytesRef) {
+				BytesRef bytes = (BytesRef) value;
+				return QueryVector.decodeFloats(Arrays.copyOfRange(bytes.bytes, bytes.offset, bytes.offset + bytes.length));
+			}
+			return value;
+		}
+
+
+		@Override
+		public String typeName() {
+			return CONTENT_TYPE;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (super.equals(o) == false) return false;
+			VectorFieldType that = (VectorFieldType) o;
+			return Objects.equals(vectorIndex, that.vectorIndex) && encoding.equals(that.encoding)
+					&& similarity == that.similarity && prefix == that.prefix;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(super.hashCode(), vectorIndex, encoding, similarity, prefix);
+		}
+
+		@Override
+		public void checkCompatibility(MappedFieldType fieldType, List<String> conflicts) {
+			super.checkCompatibility(fieldType, conflicts);
+			VectorFieldType other = (VectorFieldType) fieldType;
+			if (Objects.equals(vectorIndex, other.vectorIndex) == false) {
+				conflicts.add("mapper [" + name() + "] has different [index] values");
+			}
+			if (elementType() != other.elementType()) {
+				conflicts.add("mapper [" + name() + "] has different [element_type] values");
+			}
+			if (dims() != other.dims()) {
+				conflicts.add("mapper [" + name() + "] has different [dims] values");
+			}
+			if (multiVector() != other.multiVector()) {
+				conflicts.add("mapper [" + name() + "] has different [multi_vector] values");
+			}
+			if (similarity != other.similarity) {
+				conflicts.add("mapper [" + name() + "] has different [similarity] values");
+			}
+		}
+
+		@Override
+		public DocValueFormat docValueFormat(String format, ZoneId timeZone) {
+			return DocValueFormat.BINARY;
+		}
+
+		@Override
+		public IndexFieldData.Builder fielddataBuilder(String fullyQualifiedIndexName) {
+			failIfNoDocValues();
+			return new BytesBinaryDVIndexFieldData.Builder();
+		}
+
+		@Override
+		public Query existsQuery(QueryShardContext context) {
+			return new DocValuesFieldExistsQuery(name());
+		}
+
+		@Override
+		public Query termQuery(Object value, QueryShardContext context) {
+			throw new QueryShardException(context, "Vector fields do not support searching");
+		}
+	}
+
+	protected VectorFieldMapper(String simpleName, MappedFieldType fieldType, MappedFieldType defaultFieldType,
+			Settings indexSettings, MultiFields multiFields, CopyTo copyTo) {
+		super(simpleName, fieldType, defaultFieldType, indexSettings, multiFields, copyTo);
+	}
+
+	/**
+	 * Parses like {@link FieldMapper#parse} but passes the parsed vectors to the multi-fields as an external value,
+	 * as they cannot read them from the parser again.
+	 */
+	@Override
+	public void parse(ParseContext context) throws IOException {
+		List<float[]> copies = multiFields.iterator().hasNext() ? new ArrayList<>() : null;
+		try {
+			parseAndCount(context, copies);
+		} catch (Exception e) {
+			throw new MapperParsingException("failed to parse field [{}] of type [{}] in document with id '{}'", e,
+					fieldType().name(), fieldType().typeName(), context.sourceToParse().id());
+		}
+		if (copies != null && copies.isEmpty() == false) {
+			Object value = fieldType().multiVector() ? copies.toArray(new float[0][]) : copies.get(0);
+			multiFields.parse(this, context.createExternalValueContext(value));
+		}
+	}
+
+	@Override
+	protected void parseCreateField(ParseContext context, List<IndexableField> fields) throws IOException {
+		parseAndCount(context, null);
+	}
+
+	private void parseAndCount(ParseContext context, List<float[]> copies) throws IOException {
+		long start = System.nanoTime();
+		int vectors = parseVectors(context, copies);
+		if (vectors > 0) {
+			VectorStats.counters(context.indexSettings().getIndex().getName(), fieldType().name())
+					.parsed(vectors, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Parses the vectors of the document and adds their fields, returns the number of vectors. Copies of the parsed
+	 * vectors are added to {@code copies} unless it is {@code null}, before lossy element types touch them.
+	 */
+	private int parseVectors(ParseContext context, List<float[]> copies) throws IOException {
+		if (context.externalValueSet()) {
+			Object value = context.externalValue();
+			if (value instanceof float[][]) {
+				// the vectors of a multi-vector parent field
+				if (fieldType().multiVector() == false) {
+					throw new MapperParsingException("Field [" + fieldType().name() + "] is a multi-field of a [multi_vector] field"
+							+ " and requires [multi_vector]");
+				}
+				List<float[]> vectors = new ArrayList<>();
+				for (float[] vector : (float[][]) value) {
+					vectors.add(fieldType().prefixOf(vector));
+				}
+				if (copies != null) {
+					copies.addAll(vectors);
+				}
+				return addVectors(context, vectors);
+			} else if (value instanceof float[]) {
+				float[] vector = fieldType().prefixOf((float[]) value);
+				return addVector(context, copy(vector, vector.length, copies), vector.length);
+			} else {
+				float[] buffer = BUFFER.get();
+				buffer[0] = ((Number) value).floatValue();
+				return addVector(context, copy(buffer, 1, copies), 1);
+			}
+		}
+		XContentParser parser = context.parser();
+		XContentParser.Token token = parser.currentToken();
+		if (token == XContentParser.Token.VALUE_NULL) {
+			return 0;
+		}
+		if (token == XContentParser.Token.START_ARRAY && fieldType().multiVector()) {
+			token = parser.nextToken();
+			if (token == XContentParser.Token.START_ARRAY || token == XContentParser.Token.VALUE_STRING
+					|| token == XContentParser.Token.VALUE_EMBEDDED_OBJECT) {
+				// an array of vectors
+				List<float[]> vectors = new ArrayList<>();
+				for (; token != XContentParser.Token.END_ARRAY; token = parser.nextToken()) {
+					int length = parseVector(parser, token);
+					vectors.add(Arrays.copyOf(BUFFER.get(), length));
+				}
+				if (copies != null) {
+					copies.addAll(vectors);
+				}
+				return addVectors(context, vectors);
+			}
+			int length = parseNumbers(parser, token);
+			return addVector(context, copy(BUFFER.get(), length, copies), length);
+		}
+		// parsing may replace the buffer
+		int length = parseVector(parser, token);
+		return addVector(context, copy(BUFFER.get(), length, copies), length);
+	}
+
+	private static float[] copy(float[] vector, int length, List<float[]> copies) {
+		if (copies != null) {
+			copies.add(Arrays.copyOf(vector, length));
+		}
+		return vector;
+	}
+
+	/** Parses the vector starting at {@code token} into {@link #BUFFER} and returns its length. */
+	private int parseVector(XContentParser parser, XContentParser.Token token) throws IOException {
+		float[] buffer = BUFFER.get();
+		int length;
+		if (token == XContentParser.Token.START_ARRAY) {
+			length = parseNumbers(parser, parser.nextToken());
+		} else if ((token == XContentParser.Token.VALUE_STRING || token == XContentParser.Token.VALUE_EMBEDDED_OBJECT)
+				&& fieldType().elementType() == VectorElementType.BIT) {
+			// packed bits, most significant bit first
+			byte[] bytes = parser.binaryValue();
+			length = bytes.length * Byte.SIZE;
+			if (bytes.length == (fieldType().dims() + Byte.SIZE - 1) / Byte.SIZE) {
+				length = fieldType().dims();
+			}
+			if (length > buffer.length) {
+				buffer = new float[ArrayUtil.oversize(length, Float.BYTES)];
+				BUFFER.set(buffer);
+			}
+			for (int i = 0; i < length; i++) {
+				buffer[i] = (bytes[i >>> 3] >>> (7 - (i & 7))) & 1;
+			}
+		} else if (token == XContentParser.Token.VALUE_STRING || token == XContentParser.Token.VALUE_EMBEDDED_OBJECT) {
+			byte[] bytes = parser.binaryValue();
+			if (bytes.length % Float.BYTES != 0) {
+				throw new MapperParsingException("Binary vector of field [" + fieldType().name() + "] must be a multiple of "
+						+ Float.BYTES + " bytes long, got [" + bytes.length + "]");
+			}
+			length = bytes.length / Float.BYTES;
+			if (length > buffer.length) {
+				buffer = new float[ArrayUtil.oversize(length, Float.BYTES)];
+				BUFFER.set(buffer);
+			}
+			ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(buffer, 0, length);
+		} else if (token.isValue() && token != XContentParser.Token.VALUE_NULL) {
+			buffer[0] = parser.floatValue();
+			length = 1;
+		} else {
+			throw new MapperParsingException("Vector of field [" + fieldType().name() + "] must be an array of numbers, got ["
+					+ token + "]");
+		}
+		return length;
+	}
+
+	/** Parses numbers into {@link #BUFFER} from {@code token} up to the end of the array and returns their count. */
+	private int parseNumbers(XContentParser parser, XContentParser.Token token) throws IOException {
+		float[] buffer = BUFFER.get();
+		int length = 0;
+		for (; token != XContentParser.Token.END_ARRAY; token = parser.nextToken()) {
+			if (token.isValue() == false || token == XContentParser.Token.VALUE_NULL) {
+				throw new MapperParsingException("Vector of field [" + fieldType().name() + "] must be an array of numbers, got ["
+						+ token + "]");
+			}
+			if (length == buffer.length) {
+				buffer = ArrayUtil.grow(buffer, length + 1);
+				BUFFER.set(buffer);
+			}
+			buffer[length++] = parser.floatValue();
+		}
+		return length;
+	}
+
+	private int addVector(ParseContext context, float[] vector, int length) {
+		if (fieldType().multiVector()) {
+			return addVectors(context, Collections.singletonList(Arrays.copyOf(vector, length)));
+		}
+		String name = fieldType().name();
+		checkVector(vector, length);
+		checkSingleValue(context);
+		if (fieldType().vectorIndex() instanceof VectorIndexOptions.Ivf) {
+			VectorIndexOptions.Ivf ivf = (VectorIndexOptions.Ivf) fieldType().vectorIndex();
+			if (length != ivf.dims()) {
+				throw new MapperParsingException("Vector of field [" + name + "] has [" + length
+						+ "] dimensions but the [ivf] centroids have [" + ivf.dims() + "]");
+			}
+			context.doc().add(new CentroidField(name, ivf.nearest(vector, length, fieldType().vectorSimilarity())));
+		}
+		if (fieldType().stored()) {
+			context.doc().add(storedField(name, vector, length));
+		}
+		VectorEncoding encoding = fieldType().encoding();
+		BytesRef data = encoding.encode(vector, length);
+		context.doc().addWithKey(name, new VectorField(name, data));
+		context.doc().add(new NumericDocValuesField(VectorNorms.normField(name),
+				VectorNorms.encodeNorm(decodedNorm(data, vector, length))));
+		return 1;
+	}
+
+	/** Packs all vectors of a document of a multi-vector field, with their norms, into a single doc value. */
+	private int addVectors(ParseContext context, List<float[]> vectors) {
+		String name = fieldType().name();
+		if (vectors.isEmpty()) {
+			throw new MapperParsingException("Vectors of field [" + name + "] must not be empty");
+		}
+		checkSingleValue(context);
+		VectorEncoding encoding = fieldType().encoding();
+		BytesRef[] encoded = new BytesRef[vectors.size()];
+		float[] norms = new float[vectors.size()];
+		for (int v = 0; v < encoded.length; v++) {
+			float[] vector = vectors.get(v);
+			checkVector(vector, vector.length);
+			if (fieldType().stored()) {
+				context.doc().add(storedField(name, vector, vector.length));
+			}
+			encoded[v] = encoding.encode(vector, vector.length);
+			norms[v] = decodedNorm(encoded[v], vector, vector.length);
+		}
+		context.doc().addWithKey(name, new VectorField(name, encoding.encode(encoded, norms, encoded.length)));
+		return encoded.length;
+	}
+
+	/**
+	 * One stored value per vector with its exact input as little-endian float32 values, instead of one stored value per
+	 * element, which keeps the stored fields of a document small and fast to decode.
+	 */
+	private static StoredField storedField(String name, float[] vector, int length) {
+		return new StoredField(name, new BytesRef(QueryVector.encodeFloats(vector, length)));
+	}
+
+	private void checkVector(float[] vector, int length) {
+		String name = fieldType().name();
+		if (length == 0) {
+			throw new MapperParsingException("Vector of field [" + name + "] must not be empty");
+		}
+		for (int i = 0; i < length; i++) {
+			if (Float.isFinite(vector[i]) == false) {
+				throw new MapperParsingException("Vector of field [" + name + "] must only contain finite numbers, got ["
+						+ vector[i] + "] at position [" + i + "]");
+			}
+		}
+		if (fieldType().dims() > 0 && length != fieldType().dims()) {
+			throw new MapperParsingException("Vector of field [" + name + "] has [" + length + "] dimensions but [dims] is ["
+					+ fieldType().dims() + "]");
+		}
+		try {
+			fieldType().elementType().checkValues(vector, length);
+		} catch (IllegalArgumentException e) {
+			throw new MapperParsingException(e.getMessage() + " for field [" + name + "]");
+		}
+	}
+
+	private void checkSingleValue(ParseContext context) {
+		String name = fieldType().name();
+		if (context.doc().getByKey(name) != null) {
+			throw new MapperParsingException("Field [" + name + "] of type [" + CONTENT_TYPE + "] only supports a single "
+					+ (fieldType().multiVector() ? "array of vectors" : "vector") + " per document");
+		}
+	}
+
+	/** The norm of what is read back at search time, which differs from the input for lossy element types. */
+	private float decodedNorm(BytesRef data, float[] vector, int length) {
+		VectorEncoding encoding = fieldType().encoding();
+		float[] decoded = vector;
+		if (encoding.elementType() != VectorElementType.FLOAT) {
+			decoded = vector == BUFFER.get() ? vector : new float[length];
+			encoding.decode(data, decoded, 0);
+		}
+		return VectorNorms.norm(decoded, length);
+	}
+
+	@Override
+	public VectorFieldType fieldType() {
+		return (VectorFieldType) super.fieldType();
+	}
+
+	@Override
+	protected String contentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	protected void doXContentBody(XContentBuilder builder, boolean includeDefaults, Params params) throws IOException {
+		// not super: it writes the Lucene [index] and [similarity] options, which mean something else here
+		builder.field("type", contentType());
+		if (includeDefaults || fieldType().boost() != 1.0f) {
+			builder.field("boost", fieldType().boost());
+		}
+		if (includeDefaults || fieldType().stored() != defaultFieldType.stored()) {
+			builder.field("store", fieldType().stored());
+		}
+		if (fieldType().vectorIndex() != null) {
+			builder.field("index", fieldType().vectorIndex());
+		}
+		if (includeDefaults || fieldType().elementType() != VectorElementType.FLOAT) {
+			builder.field("element_type", fieldType().elementType().getName());
+		}
+		if (fieldType().dims() > 0) {
+			builder.field("dims", fieldType().dims());
+		}
+		if (includeDefaults || fieldType().multiVector()) {
+			builder.field("multi_vector", fieldType().multiVector());
+		}
+		if (includeDefaults || fieldType().vectorSimilarity() != VectorSimilarity.DOT_PRODUCT) {
+			builder.field("similarity", fieldType().vectorSimilarity().getName());
+		}
+		multiFields.toXContent(builder, params);
+		copyTo.toXContent(builder, params);
+	}
+
+	/** Reused buffer of the elements of the vector being parsed. */
+	private static final ThreadLocal<float[]> BUFFER = ThreadLocal.withInitial(() -> new float[64]);
+
+	static class VectorField extends CustomDocValuesField {
+
+		private final BytesRef data;
+
+		protected VectorField(String name, BytesRef data) {
+			super(name);
+			this.data = data;
+		}
+
+		@Override
+		public BytesRef binaryValue() {
+			return data;
+		}
+	}
+
+	/**
+	 * Indexes the id of the {@code ivf} centroid closest to the vector as a term of the vector field.
+	 */
+	static class CentroidField extends Field {
+
+		static final FieldType TYPE = new FieldType();
+
+		static {
+			TYPE.setIndexOptions(IndexOptions.DOCS);
+			TYPE.setTokenized(false);
+			TYPE.setOmitNorms(true);
+			TYPE.freeze();
+		}
+
+		CentroidField(String name, int centroid) {
+			super(name, term(centroid), TYPE);
+		}
+
+		static String term(int centroid) {
+			return Integer.toString(centroid);
+		}
+	}
+}
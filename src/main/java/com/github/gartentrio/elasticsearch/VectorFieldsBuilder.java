@@ -0,0 +1,169 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchExtBuilder;
+
+/**
+ * The {@code vector_fields} section of the {@code ext} of a search request, which asks {@link VectorFieldsFetchSubPhase}
+ * to return the vectors of the hits from doc values.
+ */
+public class VectorFieldsBuilder extends SearchExtBuilder {
+
+	public static final String NAME = "vector_fields";
+
+	public static final ParseField FIELDS_FIELD = new ParseField("fields");
+	public static final ParseField FORMAT_FIELD = new ParseField("format");
+
+	/** How the vectors are returned. */
+	public enum Format {
+		/** Arrays of numbers. */
+		ARRAY,
+		/** Base64 encoded little-endian float32 values, as accepted by the queries. */
+		BASE64;
+
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+
+		public static Format fromString(String name) {
+			for (Format format : values()) {
+				if (format.getName().equals(name)) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Unknown format [" + name + "]");
+		}
+	}
+
+	private final List<String> fields;
+	private Format format = Format.ARRAY;
+
+	public VectorFieldsBuilder(List<String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("[" + NAME + "] requires [" + FIELDS_FIELD.getPreferredName() + "]");
+		}
+		this.fields = fields;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public VectorFieldsBuilder(StreamInput in) throws IOException {
+		fields = in.readStringList();
+		format = in.readEnum(Format.class);
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		out.writeStringCollection(fields);
+		out.writeEnum(format);
+	}
+
+	public List<String> fields() {
+		return fields;
+	}
+
+	public VectorFieldsBuilder format(Format format) {
+		this.format = Objects.requireNonNull(format);
+		return this;
+	}
+
+	public Format format() {
+		return format;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELDS_FIELD.getPreferredName(), fields);
+		builder.field(FORMAT_FIELD.getPreferredName(), format.getName());
+		builder.endObject();
+		return builder;
+	}
+
+	public static VectorFieldsBuilder fromXContent(XContentParser parser) throws IOException {
+		List<String> fields = new ArrayList<>();
+		Format format = Format.ARRAY;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& FIELDS_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+					fields.add(parser.text());
+				}
+			} else if (token.isValue()) {
+				if (FIELDS_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					fields.add(parser.text());
+				} else if (FORMAT_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						format = Format.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (fields.isEmpty()) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with [" + FIELDS_FIELD.getPreferredName() + "]");
+		}
+		return new VectorFieldsBuilder(fields).format(format);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		VectorFieldsBuilder that = (VectorFieldsBuilder) o;
+		return fields.equals(that.fields) && format == that.format;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(fields, format);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Adds the vectors of the fields requested by {@link VectorFieldsBuilder} to the fields of the hits. The vectors are
+ * read from doc values, with the hits visited in the order of their documents, so no stored fields are loaded and
+ * every segment is read forward once. Lossy element types return the decoded vectors the queries score.
+ */
+final class VectorFieldsFetchSubPhase implements FetchSubPhase {
+
+	@Override
+	public void hitsExecute(SearchContext context, SearchHit[] hits) throws IOException {
+		VectorFieldsBuilder request = (VectorFieldsBuilder) context.getSearchExt(VectorFieldsBuilder.NAME);
+		if (request == null || hits.length == 0) {
+			return;
+		}
+		SearchHit[] sorted = hits.clone();
+		Arrays.sort(sorted, Comparator.comparingInt(SearchHit::docId));
+		List<LeafReaderContext> leaves = context.searcher().getIndexReader().leaves();
+		for (String field : request.fields()) {
+			VectorEncoding encoding = VectorAggregations.encoding(context, VectorFieldsBuilder.NAME, field);
+			if (encoding == null) {
+				continue;
+			}
+			LeafReaderContext leaf = null;
+			VectorAggregations.LeafVectors vectors = null;
+			for (SearchHit hit : sorted) {
+				if (leaf == null || hit.docId() >= leaf.docBase + leaf.reader().maxDoc()) {
+					leaf = leaves.get(ReaderUtil.subIndex(hit.docId(), leaves));
+					vectors = VectorAggregations.LeafVectors.get(leaf.reader(), field, encoding);
+				}
+				if (vectors == null || vectors.advanceExact(hit.docId() - leaf.docBase) == false) {
+					continue;
+				}
+				int count = vectors.count();
+				List<Object> values = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					float[] vector = vectors.decode(i);
+					int dims = vectors.dims();
+					if (request.format() == VectorFieldsBuilder.Format.BASE64) {
+						values.add(Base64.getEncoder().encodeToString(QueryVector.encodeFloats(vector, dims)));
+					} else {
+						values.add(Arrays.copyOf(vector, dims));
+					}
+				}
+				if (hit.fieldsOrNull() == null) {
+					hit.fields(new HashMap<>(2));
+				}
+				hit.getFields().put(field, new DocumentField(field, values));
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.MapperParsingException;
+
+/**
+ * Options of the approximate nearest-neighbour index of a {@code vector} field,
+ * configured through the {@code index} object of the field mapping.
+ */
+public abstract class VectorIndexOptions implements ToXContentObject {
+
+	public static final String TYPE = "type";
+
+	/** Parses the {@code index} object of the mapping of field {@code name}. */
+	static VectorIndexOptions parse(String name, Object propNode) {
+		if (propNode instanceof Map == false) {
+			throw new MapperParsingException("Setting [index] of field [" + name + "] must be an object");
+		}
+		Map<String, Object> node = XContentMapValues.nodeMapValue(propNode, name + ".index");
+		Object type = node.get(TYPE);
+		if (type == null) {
+			throw new MapperParsingException("Setting [index] of field [" + name + "] requires a [type]");
+		}
+		VectorIndexOptions options;
+		if (Hnsw.NAME.equals(type)) {
+			options = Hnsw.parse(name, node);
+		} else if (Ivf.NAME.equals(type)) {
+			options = Ivf.parse(name, node);
+		} else {
+			throw new MapperParsingException("Unknown index type [" + type + "] for field [" + name + "]");
+		}
+		node.remove(TYPE);
+		if (node.isEmpty() == false) {
+			throw new MapperParsingException("Unknown settings " + node.keySet() + " in [index] of field [" + name + "]");
+		}
+		return options;
+	}
+
+	public abstract String type();
+
+	/**
+	 * Hierarchical navigable small-world graph, built per segment.
+	 */
+	public static final class Hnsw extends VectorIndexOptions {
+
+		public static final String NAME = "hnsw";
+		public static final int DEFAULT_M = 16;
+		public static final int DEFAULT_EF_CONSTRUCTION = 100;
+
+		private final int m;
+		private final int efConstruction;
+
+		public Hnsw(int m, int efConstruction) {
+			if (m < 2) {
+				throw new IllegalArgumentException("[m] must be at least 2, got [" + m + "]");
+			}
+			if (efConstruction < 1) {
+				throw new IllegalArgumentException("[ef_construction] must be positive, got [" + efConstruction + "]");
+			}
+			this.m = m;
+			this.efConstruction = efConstruction;
+		}
+
+		private static Hnsw parse(String name, Map<String, Object> node) {
+			int m = DEFAULT_M;
+			int efConstruction = DEFAULT_EF_CONSTRUCTION;
+			for (Iterator<Map.Entry<String, Object>> iterator = node.entrySet().iterator(); iterator.hasNext();) {
+				Map.Entry<String, Object> entry = iterator.next();
+				if (entry.getKey().equals("m")) {
+					m = XContentMapValues.nodeIntegerValue(entry.getValue());
+					iterator.remove();
+				} else if (entry.getKey().equals("ef_construction")) {
+					efConstruction = XContentMapValues.nodeIntegerValue(entry.getValue());
+					iterator.remove();
+				}
+			}
+			try {
+				return new Hnsw(m, efConstruction);
+			} catch (IllegalArgumentException e) {
+				throw new MapperParsingException("Invalid [index] of field [" + name + "]: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public String type() {
+			return NAME;
+		}
+
+		/** Maximum number of neighbours of a node on the upper layers; layer 0 allows twice as many. */
+		public int m() {
+			return m;
+		}
+
+		/** Size of the candidate list while inserting a node. */
+		public int efConstruction() {
+			return efConstruction;
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.startObject();
+			builder.field(TYPE, NAME);
+			builder.field("m", m);
+			builder.field("ef_construction", efConstruction);
+			return builder.endObject();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Hnsw that = (Hnsw) o;
+			return m == that.m && efConstruction == that.efConstruction;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(NAME, m, efConstruction);
+		}
+	}
+
+	/**
+	 * Inverted file over a fixed set of trained centroids: every vector is assigned to the most similar centroid by
+	 * the similarity of the field and the centroid id is indexed as a term, so queries only need to score the
+	 * closest clusters.
+	 */
+	public static final class Ivf extends VectorIndexOptions {
+
+		public static final String NAME = "ivf";
+
+		private final float[][] centroids;
+
+		public Ivf(float[][] centroids) {
+			if (centroids.length == 0) {
+				throw new IllegalArgumentException("[centroids] must not be empty");
+			}
+			for (float[] centroid : centroids) {
+				if (centroid.length != centroids[0].length) {
+					throw new IllegalArgumentException("All [centroids] must have the same number of dimensions");
+				}
+			}
+			this.centroids = centroids;
+		}
+
+		private static Ivf parse(String name, Map<String, Object> node) {
+			Object centroidsNode = node.remove("centroids");
+			if (centroidsNode instanceof List == false) {
+				throw new MapperParsingException("Index type [" + NAME + "] of field [" + name + "] requires a list of [centroids]");
+			}
+			List<?> list = (List<?>) centroidsNode;
+			float[][] centroids = new float[list.size()][];
+			for (int i = 0; i < centroids.length; i++) {
+				if (list.get(i) instanceof List == false) {
+					throw new MapperParsingException("Centroid [" + i + "] of field [" + name + "] must be a list of numbers");
+				}
+				List<?> centroid = (List<?>) list.get(i);
+				centroids[i] = new float[centroid.size()];
+				for (int j = 0; j < centroids[i].length; j++) {
+					centroids[i][j] = XContentMapValues.nodeFloatValue(centroid.get(j));
+				}
+			}
+			try {
+				return new Ivf(centroids);
+			} catch (IllegalArgumentException e) {
+				throw new MapperParsingException("Invalid [index] of field [" + name + "]: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public String type() {
+			return NAME;
+		}
+
+		public int dims() {
+			return centroids[0].length;
+		}
+
+		public int numCentroids() {
+			return centroids.length;
+		}
+
+		/**
+		 * Returns the id of the centroid most similar to the first {@code length} elements of {@code vector} by
+		 * {@code similarity}.
+		 */
+		public int nearest(float[] vector, int length, VectorSimilarity similarity) {
+			return probes(vector, length, 1, similarity)[0];
+		}
+
+		/** Returns the ids of the {@code nprobe} centroids most similar to {@code vector} by {@code similarity}. */
+		public int[] probes(float[] vector, int nprobe, VectorSimilarity similarity) {
+			return probes(vector, vector.length, nprobe, similarity);
+		}
+
+		private int[] probes(float[] vector, int length, int nprobe, VectorSimilarity similarity) {
+			if (length != dims()) {
+				throw new IllegalArgumentException("Vector has [" + length + "] dimensions but the centroids have [" + dims() + "]");
+			}
+			HnswGraph.NodeQueue top = new HnswGraph.NodeQueue(Math.min(nprobe, centroids.length), false);
+			for (int i = 0; i < centroids.length; i++) {
+				top.insertWithOverflow(i, similarity.compare(vector, 0, centroids[i], 0, length));
+			}
+			int[] probes = new int[top.size()];
+			for (int i = probes.length - 1; i >= 0; i--) {
+				probes[i] = top.pop();
+			}
+			return probes;
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.startObject();
+			builder.field(TYPE, NAME);
+			builder.startArray("centroids");
+			for (float[] centroid : centroids) {
+				builder.startArray();
+				for (float value : centroid) {
+					builder.value(value);
+				}
+				builder.endArray();
+			}
+			builder.endArray();
+			return builder.endObject();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			return Arrays.deepEquals(centroids, ((Ivf) o).centroids);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(NAME, Arrays.deepHashCode(centroids));
+		}
+	}
+}
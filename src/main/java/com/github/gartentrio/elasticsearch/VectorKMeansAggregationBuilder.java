@@ -0,0 +1,297 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Builds a {@link VectorKMeansAggregator}, which clusters the vectors of a field into {@code k} clusters. Every
+ * shard runs mini-batch k-means on a random sample of its vectors and returns its centroids weighted by the number
+ * of vectors they stand for, the coordinating node clusters these centroids again into the final {@code k}.
+ */
+public class VectorKMeansAggregationBuilder extends AbstractAggregationBuilder<VectorKMeansAggregationBuilder> {
+
+	public static final String NAME = "vector_kmeans";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField K_FIELD = new ParseField("k");
+	public static final ParseField ITERATIONS_FIELD = new ParseField("iterations");
+	public static final ParseField BATCH_SIZE_FIELD = new ParseField("batch_size");
+	public static final ParseField SAMPLE_SIZE_FIELD = new ParseField("sample_size");
+	public static final ParseField SEED_FIELD = new ParseField("seed");
+
+	public static final int DEFAULT_ITERATIONS = 100;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+	private final String field;
+	private final int k;
+	private int iterations = DEFAULT_ITERATIONS;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int sampleSize = DEFAULT_SAMPLE_SIZE;
+	private long seed;
+
+	public VectorKMeansAggregationBuilder(String name, String field, int k) {
+		super(name);
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (k < 1) {
+			throw new IllegalArgumentException("[" + K_FIELD.getPreferredName() + "] must be positive, got [" + k + "]");
+		}
+		this.field = field;
+		this.k = k;
+	}
+
+	protected VectorKMeansAggregationBuilder(VectorKMeansAggregationBuilder clone, AggregatorFactories.Builder factoriesBuilder,
+			Map<String, Object> metaData) {
+		super(clone, factoriesBuilder, metaData);
+		this.field = clone.field;
+		this.k = clone.k;
+		this.iterations = clone.iterations;
+		this.batchSize = clone.batchSize;
+		this.sampleSize = clone.sampleSize;
+		this.seed = clone.seed;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public VectorKMeansAggregationBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		k = in.readVInt();
+		iterations = in.readVInt();
+		batchSize = in.readVInt();
+		sampleSize = in.readVInt();
+		seed = in.readLong();
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeVInt(k);
+		out.writeVInt(iterations);
+		out.writeVInt(batchSize);
+		out.writeVInt(sampleSize);
+		out.writeLong(seed);
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public int k() {
+		return k;
+	}
+
+	/** Sets the number of mini-batches per shard, which is also the maximum number of iterations on reduce. */
+	public VectorKMeansAggregationBuilder iterations(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("[" + ITERATIONS_FIELD.getPreferredName() + "] must be positive, got [" + iterations + "]");
+		}
+		this.iterations = iterations;
+		return this;
+	}
+
+	public int iterations() {
+		return iterations;
+	}
+
+	/** Sets the number of sampled vectors every mini-batch moves the centroids by. */
+	public VectorKMeansAggregationBuilder batchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("[" + BATCH_SIZE_FIELD.getPreferredName() + "] must be positive, got [" + batchSize + "]");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public int batchSize() {
+		return batchSize;
+	}
+
+	/** Sets the number of vectors every shard samples from the matching documents and keeps in memory. */
+	public VectorKMeansAggregationBuilder sampleSize(int sampleSize) {
+		if (sampleSize < 1) {
+			throw new IllegalArgumentException("[" + SAMPLE_SIZE_FIELD.getPreferredName() + "] must be positive, got [" + sampleSize + "]");
+		}
+		this.sampleSize = sampleSize;
+		return this;
+	}
+
+	public int sampleSize() {
+		return sampleSize;
+	}
+
+	/** Sets the seed of the sampling and of the k-means++ initialisation, equal seeds give equal clusters. */
+	public VectorKMeansAggregationBuilder seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public long seed() {
+		return seed;
+	}
+
+	@Override
+	public String getType() {
+		return NAME;
+	}
+
+	@Override
+	protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+		return new VectorKMeansAggregationBuilder(this, factoriesBuilder, metaData);
+	}
+
+	@Override
+	protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject();
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.field(K_FIELD.getPreferredName(), k);
+		builder.field(ITERATIONS_FIELD.getPreferredName(), iterations);
+		builder.field(BATCH_SIZE_FIELD.getPreferredName(), batchSize);
+		builder.field(SAMPLE_SIZE_FIELD.getPreferredName(), sampleSize);
+		builder.field(SEED_FIELD.getPreferredName(), seed);
+		builder.endObject();
+		return builder;
+	}
+
+	public static VectorKMeansAggregationBuilder parse(String aggregationName, XContentParser parser) throws IOException {
+		String field = null;
+		Integer k = null;
+		Integer iterations = null;
+		Integer batchSize = null;
+		Integer sampleSize = null;
+		Long seed = null;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (K_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					k = parser.intValue();
+				} else if (ITERATIONS_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					iterations = parser.intValue();
+				} else if (BATCH_SIZE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					batchSize = parser.intValue();
+				} else if (SAMPLE_SIZE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					sampleSize = parser.intValue();
+				} else if (SEED_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					seed = parser.longValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] aggregation does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if (k == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with [k]");
+		}
+
+		VectorKMeansAggregationBuilder builder;
+		try {
+			builder = new VectorKMeansAggregationBuilder(aggregationName, field, k);
+			if (iterations != null) {
+				builder.iterations(iterations);
+			}
+			if (batchSize != null) {
+				builder.batchSize(batchSize);
+			}
+			if (sampleSize != null) {
+				builder.sampleSize(sampleSize);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+		}
+		if (seed != null) {
+			builder.seed(seed);
+		}
+		return builder;
+	}
+
+	@Override
+	protected AggregatorFactory<?> doBuild(SearchContext context, AggregatorFactory<?> parent,
+			AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+		VectorAggregations.checkNoSubAggregations(NAME, name, subFactoriesBuilder);
+		return new Factory(this, context, parent, subFactoriesBuilder, metaData);
+	}
+
+	@Override
+	protected boolean doEquals(Object obj) {
+		VectorKMeansAggregationBuilder other = (VectorKMeansAggregationBuilder) obj;
+		return Objects.equals(field, other.field) && k == other.k && iterations == other.iterations && batchSize == other.batchSize
+				&& sampleSize == other.sampleSize && seed == other.seed;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, k, iterations, batchSize, sampleSize, seed);
+	}
+
+	static class Factory extends AggregatorFactory<Factory> {
+
+		private final VectorKMeansAggregationBuilder builder;
+
+		Factory(VectorKMeansAggregationBuilder builder, SearchContext context, AggregatorFactory<?> parent,
+				AggregatorFactories.Builder subFactoriesBuilder, Map<String, Object> metaData) throws IOException {
+			super(builder.getName(), context, parent, subFactoriesBuilder, metaData);
+			this.builder = builder;
+		}
+
+		@Override
+		protected Aggregator createInternal(Aggregator parent, boolean collectsFromSingleBucket,
+				List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+			if (collectsFromSingleBucket == false) {
+				return asMultiBucketAggregator(this, context, parent);
+			}
+			VectorEncoding encoding = VectorAggregations.encoding(context, NAME, builder.field);
+			return new VectorKMeansAggregator(name, builder.field, encoding, builder.k, builder.iterations, builder.batchSize,
+					builder.sampleSize, builder.seed, context, parent, pipelineAggregators, metaData);
+		}
+	}
+}
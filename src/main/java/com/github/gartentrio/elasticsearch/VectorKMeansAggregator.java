@@ -0,0 +1,145 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Keeps a uniform reservoir sample of at most {@code sampleSize} vectors of a field, and clusters it with k-means++
+ * seeding and mini-batch k-means when the shard result is built. Every centroid is weighted by the number of
+ * vectors of the shard it stands for, so the sample only bounds the memory, not the weight of large shards. The
+ * sample is accounted in the request circuit breaker.
+ */
+class VectorKMeansAggregator extends MetricsAggregator {
+
+	private final String field;
+	/** {@code null} if the field is not mapped in this shard. */
+	private final VectorEncoding encoding;
+	private final int k;
+	private final int iterations;
+	private final int batchSize;
+	private final int sampleSize;
+	private final long seed;
+	private final Random random;
+
+	private int dims;
+	/** The sampled vectors, row-major. */
+	private float[] sample = new float[0];
+	private int sampled;
+	private long seen;
+
+	VectorKMeansAggregator(String name, String field, VectorEncoding encoding, int k, int iterations, int batchSize,
+			int sampleSize, long seed, SearchContext context, Aggregator parent, List<PipelineAggregator> pipelineAggregators,
+			Map<String, Object> metaData) throws IOException {
+		super(name, context, parent, pipelineAggregators, metaData);
+		this.field = field;
+		this.encoding = encoding;
+		this.k = k;
+		this.iterations = iterations;
+		this.batchSize = batchSize;
+		this.sampleSize = sampleSize;
+		this.seed = seed;
+		// every shard samples differently, but repeatably for a seed
+		this.random = new Random(31 * seed + context.indexShard().shardId().hashCode());
+	}
+
+	@Override
+	protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+		final VectorAggregations.LeafVectors vectors = encoding == null ? null : VectorAggregations.LeafVectors.get(ctx.reader(), field, encoding);
+		if (vectors == null) {
+			return LeafBucketCollector.NO_OP_COLLECTOR;
+		}
+		return new LeafBucketCollectorBase(sub, null) {
+			@Override
+			public void collect(int doc, long bucket) throws IOException {
+				if (vectors.advanceExact(doc) == false) {
+					return;
+				}
+				for (int i = 0, n = vectors.count(); i < n; i++) {
+					add(vectors.decode(i), vectors.dims());
+				}
+			}
+		};
+	}
+
+	private void add(float[] vector, int vectorDims) {
+		if (seen == 0) {
+			dims = vectorDims;
+			if ((long) sampleSize * dims > ArrayUtil.MAX_ARRAY_LENGTH) {
+				throw new IllegalArgumentException("[" + VectorKMeansAggregationBuilder.NAME + "] a sample of [" + sampleSize
+						+ "] vectors of [" + dims + "] dimensions is too large");
+			}
+		} else {
+			VectorAggregations.checkDims(VectorKMeansAggregationBuilder.NAME, dims, vectorDims);
+		}
+		seen++;
+		int slot;
+		if (sampled < sampleSize) {
+			slot = sampled++;
+			int needed = sampled * dims;
+			if (sample.length < needed) {
+				int length = sample.length;
+				sample = Arrays.copyOf(sample, Math.min(ArrayUtil.oversize(needed, Float.BYTES), sampleSize * dims));
+				addRequestCircuitBreakerBytes((long) (sample.length - length) * Float.BYTES);
+			}
+		} else {
+			long replace = (long) (random.nextDouble() * seen);
+			if (replace >= sampleSize) {
+				return;
+			}
+			slot = (int) replace;
+		}
+		System.arraycopy(vector, 0, sample, slot * dims, dims);
+	}
+
+	@Override
+	public InternalAggregation buildAggregation(long bucket) {
+		if (sampled == 0) {
+			return buildEmptyAggregation();
+		}
+		float[][] centroids = KMeans.seed(sample, null, sampled, dims, k, random);
+		KMeans.miniBatch(sample, sampled, dims, centroids, iterations, batchSize, random);
+		double[] weights = KMeans.weights(sample, null, sampled, dims, centroids);
+		double scale = (double) seen / sampled;
+		for (int c = 0; c < weights.length; c++) {
+			weights[c] *= scale;
+		}
+		return new InternalVectorKMeans(name, k, iterations, seed, seen, centroids, weights, pipelineAggregators(), metaData());
+	}
+
+	@Override
+	public InternalAggregation buildEmptyAggregation() {
+		return new InternalVectorKMeans(name, k, iterations, seed, 0, new float[0][], new double[0], pipelineAggregators(), metaData());
+	}
+}
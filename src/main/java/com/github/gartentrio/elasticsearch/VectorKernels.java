@@ -0,0 +1,202 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The inner loops of all similarity and encoding paths. This implementation unrolls every loop over four
+ * independent accumulators, which hides the latency of floating point additions and lets the JIT compiler
+ * vectorize the loads. On JVMs that provide the {@code jdk.incubator.vector} module (Java 16 or later, started with
+ * {@code --add-modules jdk.incubator.vector}) {@link #INSTANCE} is replaced by an implementation on explicit SIMD
+ * vectors, which is packaged as a multi-release class.
+ */
+class VectorKernels {
+
+	/** The implementation picked for this JVM. */
+	static final VectorKernels INSTANCE = load();
+
+	private static VectorKernels load() {
+		try {
+			Class<?> simd = Class.forName(VectorKernels.class.getPackage().getName() + ".PanamaVectorKernels");
+			return (VectorKernels) simd.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// older JVM or the vector module is not enabled
+			return new VectorKernels();
+		}
+	}
+
+	/** Name of this implementation. */
+	String name() {
+		return "scalar";
+	}
+
+	/** Dot product of {@code length} elements of {@code a} and {@code b}. */
+	float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			s0 += a[aOffset + i] * b[bOffset + i];
+			s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+			s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+			s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+		}
+		for (; i < length; i++) {
+			s0 += a[aOffset + i] * b[bOffset + i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/** Squared Euclidean distance of {@code length} elements of {@code a} and {@code b}. */
+	float squareDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			float d0 = a[aOffset + i] - b[bOffset + i];
+			float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+			float d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+			float d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < length; i++) {
+			float d = a[aOffset + i] - b[bOffset + i];
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/** Manhattan distance of {@code length} elements of {@code a} and {@code b}. */
+	float l1Distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			s0 += Math.abs(a[aOffset + i] - b[bOffset + i]);
+			s1 += Math.abs(a[aOffset + i + 1] - b[bOffset + i + 1]);
+			s2 += Math.abs(a[aOffset + i + 2] - b[bOffset + i + 2]);
+			s3 += Math.abs(a[aOffset + i + 3] - b[bOffset + i + 3]);
+		}
+		for (; i < length; i++) {
+			s0 += Math.abs(a[aOffset + i] - b[bOffset + i]);
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Dot products of the {@code rows} rows of the row-major {@code matrix} with the {@code dims} elements of
+	 * {@code x} into {@code out}. Rows are processed in blocks of four, so every element of {@code x} is loaded once
+	 * per block.
+	 */
+	void dotMatrix(float[] matrix, int rows, float[] x, int dims, float[] out) {
+		int r = 0;
+		for (; r + 4 <= rows; r += 4) {
+			final int o0 = r * dims, o1 = o0 + dims, o2 = o1 + dims, o3 = o2 + dims;
+			float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			for (int i = 0; i < dims; i++) {
+				float xi = x[i];
+				s0 += matrix[o0 + i] * xi;
+				s1 += matrix[o1 + i] * xi;
+				s2 += matrix[o2 + i] * xi;
+				s3 += matrix[o3 + i] * xi;
+			}
+			out[r] = s0;
+			out[r + 1] = s1;
+			out[r + 2] = s2;
+			out[r + 3] = s3;
+		}
+		for (; r < rows; r++) {
+			out[r] = dot(matrix, r * dims, x, 0, dims);
+		}
+	}
+
+	/**
+	 * Dot product of {@code length} elements of {@code a} and the floats stored in {@code b} from byte
+	 * {@code bOffset} on, in the byte order of {@code b}.
+	 */
+	float dot(float[] a, ByteBuffer b, int bOffset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3, pos = bOffset; i < bound; i += 4, pos += 4 * Float.BYTES) {
+			s0 += a[i] * b.getFloat(pos);
+			s1 += a[i + 1] * b.getFloat(pos + Float.BYTES);
+			s2 += a[i + 2] * b.getFloat(pos + 2 * Float.BYTES);
+			s3 += a[i + 3] * b.getFloat(pos + 3 * Float.BYTES);
+		}
+		for (; i < length; i++) {
+			s0 += a[i] * b.getFloat(bOffset + i * Float.BYTES);
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/** Manhattan distance of {@code length} elements of {@code a} and the floats stored in {@code b}. */
+	float l1Distance(float[] a, ByteBuffer b, int bOffset, int length) {
+		float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3, pos = bOffset; i < bound; i += 4, pos += 4 * Float.BYTES) {
+			s0 += Math.abs(a[i] - b.getFloat(pos));
+			s1 += Math.abs(a[i + 1] - b.getFloat(pos + Float.BYTES));
+			s2 += Math.abs(a[i + 2] - b.getFloat(pos + 2 * Float.BYTES));
+			s3 += Math.abs(a[i + 3] - b.getFloat(pos + 3 * Float.BYTES));
+		}
+		for (; i < length; i++) {
+			s0 += Math.abs(a[i] - b.getFloat(bOffset + i * Float.BYTES));
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/** Number of bits set in both {@code a} and the {@code words} longs stored in {@code b} from byte {@code bOffset} on. */
+	int andCount(long[] a, ByteBuffer b, int bOffset, int words) {
+		int count = 0;
+		for (int i = 0, pos = bOffset; i < words; i++, pos += Long.BYTES) {
+			count += Long.bitCount(a[i] & b.getLong(pos));
+		}
+		return count;
+	}
+
+	/** Number of bits that differ between {@code a} and the {@code words} longs stored in {@code b}. */
+	int xorCount(long[] a, ByteBuffer b, int bOffset, int words) {
+		int count = 0;
+		for (int i = 0, pos = bOffset; i < words; i++, pos += Long.BYTES) {
+			count += Long.bitCount(a[i] ^ b.getLong(pos));
+		}
+		return count;
+	}
+
+	/**
+	 * Dot product of the {@code length} signed bytes of {@code a} and the unsigned bytes of {@code b} starting at
+	 * {@code bOffset}, computed exactly in integers.
+	 */
+	int dotSignedUnsigned(byte[] a, byte[] b, int bOffset, int length) {
+		int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			s0 += a[i] * (b[bOffset + i] & 0xFF);
+			s1 += a[i + 1] * (b[bOffset + i + 1] & 0xFF);
+			s2 += a[i + 2] * (b[bOffset + i + 2] & 0xFF);
+			s3 += a[i + 3] * (b[bOffset + i + 3] & 0xFF);
+		}
+		for (; i < length; i++) {
+			s0 += a[i] * (b[bOffset + i] & 0xFF);
+		}
+		return s0 + s1 + s2 + s3;
+	}
+}
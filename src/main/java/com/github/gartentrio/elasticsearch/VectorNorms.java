@@ -0,0 +1,216 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Minimum and maximum Euclidean norm of the vectors of a segment per block of {@code 2^BLOCK_SHIFT} doc ids. Norms
+ * are read from the {@code <field>._norm} doc values written by {@link VectorFieldMapper}. Documents indexed before
+ * that sidecar existed have their vector decoded instead. Multi-vector fields store the norm of every vector in the
+ * value itself, see {@link VectorEncoding#norm(BytesRef)}, and the range of a block covers all vectors of its documents.
+ */
+final class VectorNorms {
+
+	static final int BLOCK_SHIFT = 7;
+
+	private final float[] blockMin;
+	private final float[] blockMax;
+
+	private VectorNorms(float[] blockMin, float[] blockMax) {
+		this.blockMin = blockMin;
+		this.blockMax = blockMax;
+	}
+
+	/** Name of the numeric doc values field holding the norms of the vectors of {@code field}. */
+	static String normField(String field) {
+		return field + "._norm";
+	}
+
+	static float decodeNorm(long bits) {
+		return Float.intBitsToFloat((int) bits);
+	}
+
+	static long encodeNorm(float norm) {
+		return Float.floatToIntBits(norm);
+	}
+
+	/** Returns the norms of the vectors of {@code field} in the segment of {@code reader}, cached per segment. */
+	static VectorNorms get(LeafReader reader, String field, VectorEncoding encoding) throws IOException {
+		return VectorSegmentCache.get(reader, VectorNorms.class.getSimpleName() + ":" + field, r -> load(r, field, encoding));
+	}
+
+	private static VectorNorms load(LeafReader reader, String field, VectorEncoding encoding) throws IOException {
+		int numBlocks = (reader.maxDoc() + (1 << BLOCK_SHIFT) - 1) >>> BLOCK_SHIFT;
+		float[] blockMin = new float[numBlocks];
+		float[] blockMax = new float[numBlocks];
+		// empty blocks keep an empty interval
+		Arrays.fill(blockMin, Float.POSITIVE_INFINITY);
+		BinaryDocValues values = reader.getBinaryDocValues(field);
+		if (values == null) {
+			return new VectorNorms(blockMin, blockMax);
+		}
+		DocNorms docNorms = docNorms(reader, field, encoding);
+		BytesRef vector = new BytesRef();
+		for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+			int block = doc >>> BLOCK_SHIFT;
+			if (encoding.multi()) {
+				BytesRef data = values.binaryValue();
+				for (int i = encoding.count(data) - 1; i >= 0; i--) {
+					float norm = encoding.norm(encoding.vector(data, i, vector));
+					blockMin[block] = Math.min(blockMin[block], norm);
+					blockMax[block] = Math.max(blockMax[block], norm);
+				}
+			} else {
+				float norm = docNorms.norm(doc, values);
+				blockMin[block] = Math.min(blockMin[block], norm);
+				blockMax[block] = Math.max(blockMax[block], norm);
+			}
+		}
+		return new VectorNorms(blockMin, blockMax);
+	}
+
+	/** Returns the norms of the individual documents of a segment. */
+	static DocNorms docNorms(LeafReader reader, String field, VectorEncoding encoding) throws IOException {
+		return new DocNorms(reader.getNumericDocValues(normField(field)), encoding);
+	}
+
+	static float norm(float[] vector, int length) {
+		return (float) Math.sqrt(VectorKernels.INSTANCE.dot(vector, 0, vector, 0, length));
+	}
+
+	int numBlocks() {
+		return blockMax.length;
+	}
+
+	/** Smallest norm of block {@code block}, positive infinity if the block has no vectors. */
+	float blockMin(int block) {
+		return blockMin[block];
+	}
+
+	/** Largest norm of block {@code block}, zero if the block has no vectors. */
+	float blockMax(int block) {
+		return blockMax[block];
+	}
+
+	static int block(int doc) {
+		return doc >>> BLOCK_SHIFT;
+	}
+
+	/** First doc id of block {@code block}. */
+	static int blockStart(int block) {
+		return block << BLOCK_SHIFT;
+	}
+
+	/** Last doc id of the block of {@code doc}. */
+	static int blockEnd(int doc) {
+		return doc | ((1 << BLOCK_SHIFT) - 1);
+	}
+
+	/** Upper bound of the scores of vectors with norms in {@code [minNorm, maxNorm]}. */
+	@FunctionalInterface
+	interface NormBound {
+		float bound(float minNorm, float maxNorm);
+	}
+
+	/**
+	 * Advances {@code values} to the next document from {@code target} on whose block in {@code norms} and stored
+	 * norm in {@code docNorms} do not rule out a score of {@code threshold} by {@code bound}.
+	 */
+	static int nextCompetitive(BinaryDocValues values, VectorNorms norms, DocNorms docNorms, NormBound bound,
+			float threshold, int target) throws IOException {
+		while (true) {
+			int block = block(target);
+			while (block < norms.numBlocks() && bound.bound(norms.blockMin(block), norms.blockMax(block)) < threshold) {
+				block++;
+			}
+			if (block >= norms.numBlocks()) {
+				return DocIdSetIterator.NO_MORE_DOCS;
+			}
+			int next = values.advance(Math.max(target, blockStart(block)));
+			if (next == DocIdSetIterator.NO_MORE_DOCS) {
+				return DocIdSetIterator.NO_MORE_DOCS;
+			}
+			int nextBlock = block(next);
+			if (bound.bound(norms.blockMin(nextBlock), norms.blockMax(nextBlock)) < threshold) {
+				target = blockEnd(next) + 1;
+				continue;
+			}
+			float norm = docNorms.stored(next);
+			if (Float.isNaN(norm) == false && bound.bound(norm, norm) < threshold) {
+				target = next + 1;
+				continue;
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * Norms of single documents, read from the sidecar or computed from the vector if a document has none.
+	 * Documents must be visited in increasing order.
+	 */
+	static final class DocNorms {
+
+		private final NumericDocValues norms;
+		private final VectorEncoding encoding;
+		private float[] decoded = new float[0];
+
+		private DocNorms(NumericDocValues norms, VectorEncoding encoding) {
+			this.norms = norms;
+			this.encoding = encoding;
+		}
+
+		/** Norm of document {@code doc} whose vector is {@code data}. */
+		float norm(int doc, BytesRef data) throws IOException {
+			if (norms != null && norms.advanceExact(doc)) {
+				return decodeNorm(norms.longValue());
+			}
+			return compute(data);
+		}
+
+		/** Norm of document {@code doc} whose vector is the current value of {@code values}. */
+		float norm(int doc, BinaryDocValues values) throws IOException {
+			if (norms != null && norms.advanceExact(doc)) {
+				return decodeNorm(norms.longValue());
+			}
+			return compute(values.binaryValue());
+		}
+
+		/** Norm from the sidecar alone, {@code NaN} if document {@code doc} has none. */
+		float stored(int doc) throws IOException {
+			return norms != null && norms.advanceExact(doc) ? decodeNorm(norms.longValue()) : Float.NaN;
+		}
+
+		private float compute(BytesRef data) {
+			int dims = encoding.dims(data);
+			decoded = ArrayUtil.grow(decoded, dims);
+			encoding.decode(data, decoded, 0);
+			return VectorNorms.norm(decoded, dims);
+		}
+	}
+}
@@ -14,31 +14,175 @@
 
 package com.github.gartentrio.elasticsearch;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.plugins.ScriptPlugin;
+import org.elasticsearch.plugins.SearchPlugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 /**
  * This class is instantiated when Elasticsearch loads the plugin for the
  * first time. If you change the name of this plugin, make sure to update
  * src/main/resources/es-plugin.properties file that points to this class.
  */
-public final class VectorPlugin extends Plugin implements ScriptPlugin, MapperPlugin {
+public final class VectorPlugin extends Plugin implements ScriptPlugin, MapperPlugin, SearchPlugin, ActionPlugin,
+		IngestPlugin {
+
+	private final VectorCache cache;
+	private final VectorSearchExecutor searchExecutor;
+	private final HnswGraphs graphs = new HnswGraphs();
+
+	public VectorPlugin(Settings settings) {
+		this.cache = new VectorCache(settings);
+		this.searchExecutor = new VectorSearchExecutor(settings);
+	}
+
+	@Override
+	public List<Setting<?>> getSettings() {
+		return Arrays.asList(VectorCache.SIZE_SETTING, VectorCache.WARM_INTERVAL_SETTING,
+				VectorSearchExecutor.MIN_DOCS_PER_SLICE_SETTING);
+	}
+
+	@Override
+	public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+		return Collections.singletonList(VectorSearchExecutor.executorBuilder(settings));
+	}
+
+	@Override
+	public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+			ResourceWatcherService resourceWatcherService, ScriptService scriptService, NamedXContentRegistry xContentRegistry,
+			Environment environment, NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+		searchExecutor.start(threadPool);
+		graphs.start(threadPool);
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void onIndexModule(IndexModule indexModule) {
+		indexModule.addIndexEventListener(new IndexEventListener() {
+			@Override
+			public void afterIndexCreated(IndexService indexService) {
+				graphs.setBreaker(indexService.getBigArrays().breakerService().getBreaker(CircuitBreaker.FIELDDATA));
+			}
+
+			@Override
+			public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+				if (reason == IndexRemovalReason.DELETED) {
+					VectorStats.remove(index.getName());
+				}
+			}
+		});
+		indexModule.addSearchOperationListener(VectorStats.FLUSH_LISTENER);
+		if (cache.enabled()) {
+			indexModule.addIndexEventListener(new VectorCacheWarmer(cache));
+		}
+	}
 
 	@Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-        return new VectorScoreScriptEngine();
+        return new VectorScoreScriptEngine(cache);
     }
 	
 	@Override
     public Map<String, Mapper.TypeParser> getMappers() {
-        return Collections.singletonMap(VectorFieldMapper.CONTENT_TYPE, new VectorFieldMapper.TypeParser());
+        Map<String, Mapper.TypeParser> mappers = new LinkedHashMap<>();
+        mappers.put(VectorFieldMapper.CONTENT_TYPE, new VectorFieldMapper.TypeParser());
+        mappers.put(SparseVectorFieldMapper.CONTENT_TYPE, new SparseVectorFieldMapper.TypeParser());
+        return Collections.unmodifiableMap(mappers);
+    }
+
+	@Override
+    public List<QuerySpec<?>> getQueries() {
+        return Arrays.asList(
+            new QuerySpec<>(KnnQueryBuilder.NAME, in -> new KnnQueryBuilder(in).executor(searchExecutor).graphs(graphs),
+                    parser -> KnnQueryBuilder.fromXContent(parser).executor(searchExecutor).graphs(graphs)),
+            new QuerySpec<>(VectorDotQueryBuilder.NAME, VectorDotQueryBuilder::new, VectorDotQueryBuilder::fromXContent),
+            new QuerySpec<>(VectorRangeQueryBuilder.NAME, VectorRangeQueryBuilder::new, VectorRangeQueryBuilder::fromXContent),
+            new QuerySpec<>(SparseVectorDotQueryBuilder.NAME, SparseVectorDotQueryBuilder::new,
+                    SparseVectorDotQueryBuilder::fromXContent));
     }
-}
\ No newline at end of file
+
+	@Override
+	public List<RescorerSpec<?>> getRescorers() {
+		return Collections.singletonList(new RescorerSpec<>(VectorRescorerBuilder.NAME, in -> new VectorRescorerBuilder(in, cache),
+				parser -> VectorRescorerBuilder.fromXContent(parser, cache)));
+	}
+
+	@Override
+	public List<SearchExtSpec<?>> getSearchExts() {
+		return Collections.singletonList(new SearchExtSpec<>(VectorFieldsBuilder.NAME, VectorFieldsBuilder::new,
+				VectorFieldsBuilder::fromXContent));
+	}
+
+	@Override
+	public List<FetchSubPhase> getFetchSubPhases(FetchPhaseConstructionContext context) {
+		return Collections.singletonList(new VectorFieldsFetchSubPhase());
+	}
+
+	@Override
+	public List<AggregationSpec> getAggregations() {
+		return Arrays.asList(
+				new AggregationSpec(VectorStatsAggregationBuilder.NAME, VectorStatsAggregationBuilder::new,
+						VectorStatsAggregationBuilder::parse).addResultReader(InternalVectorStats::new),
+				new AggregationSpec(VectorKMeansAggregationBuilder.NAME, VectorKMeansAggregationBuilder::new,
+						VectorKMeansAggregationBuilder::parse).addResultReader(InternalVectorKMeans::new));
+	}
+
+	@Override
+	public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+		return Collections.singletonMap(VectorProcessor.TYPE, new VectorProcessor.Factory());
+	}
+
+	@Override
+	public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+		return Collections.singletonList(new ActionHandler<>(VectorStatsAction.INSTANCE, TransportVectorStatsAction.class));
+	}
+
+	@Override
+	public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+			IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+			IndexNameExpressionResolver indexNameExpressionResolver, Supplier<DiscoveryNodes> nodesInCluster) {
+		return Collections.singletonList(new RestVectorStatsAction(settings, restController));
+	}
+}
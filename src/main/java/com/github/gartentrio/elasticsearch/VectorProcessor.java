@@ -0,0 +1,193 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+
+/**
+ * The {@code vector} ingest processor, which validates and normalizes vectors before they reach the data nodes and
+ * can write their norm into a separate field. It accepts the same input as the {@code vector} field: an array of
+ * numbers, a base64 string of little-endian float32 values, or an array of those for multi-vector fields.
+ */
+public final class VectorProcessor extends AbstractProcessor {
+
+	public static final String TYPE = "vector";
+
+	private final String field;
+	private final String targetField;
+	private final String normField;
+	private final boolean normalize;
+	private final int dims;
+	private final VectorFieldsBuilder.Format format;
+	private final boolean ignoreMissing;
+
+	VectorProcessor(String tag, String field, String targetField, String normField, boolean normalize, int dims,
+			VectorFieldsBuilder.Format format, boolean ignoreMissing) {
+		super(tag);
+		this.field = field;
+		this.targetField = targetField;
+		this.normField = normField;
+		this.normalize = normalize;
+		this.dims = dims;
+		this.format = format;
+		this.ignoreMissing = ignoreMissing;
+	}
+
+	@Override
+	public IngestDocument execute(IngestDocument document) {
+		Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+		if (value == null) {
+			if (ignoreMissing) {
+				return document;
+			}
+			throw new IllegalArgumentException("field [" + field + "] is null, cannot process it.");
+		}
+		if (isMultiVector(value)) {
+			List<?> list = (List<?>) value;
+			List<Object> vectors = new ArrayList<>(list.size());
+			List<Float> norms = new ArrayList<>(list.size());
+			for (Object element : list) {
+				float[] vector = parse(element);
+				norms.add(process(vector));
+				vectors.add(output(vector));
+			}
+			document.setFieldValue(targetField, vectors);
+			if (normField != null) {
+				document.setFieldValue(normField, norms);
+			}
+		} else {
+			float[] vector = parse(value);
+			float norm = process(vector);
+			document.setFieldValue(targetField, output(vector));
+			if (normField != null) {
+				document.setFieldValue(normField, norm);
+			}
+		}
+		return document;
+	}
+
+	/** An array of vectors rather than an array of numbers. */
+	private static boolean isMultiVector(Object value) {
+		if (value instanceof List == false || ((List<?>) value).isEmpty()) {
+			return false;
+		}
+		Object first = ((List<?>) value).get(0);
+		return first instanceof List || first instanceof String;
+	}
+
+	private float[] parse(Object value) {
+		if (value instanceof String) {
+			try {
+				return QueryVector.decodeFloats(Base64.getDecoder().decode((String) value));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("field [" + field + "] is neither an array nor a base64 string: " + e.getMessage());
+			}
+		}
+		if (value instanceof List == false) {
+			throw new IllegalArgumentException("field [" + field + "] of type [" + value.getClass().getName()
+					+ "] cannot be converted to a vector");
+		}
+		List<?> list = (List<?>) value;
+		float[] vector = new float[list.size()];
+		for (int i = 0; i < vector.length; i++) {
+			Object element = list.get(i);
+			if (element instanceof Number == false) {
+				throw new IllegalArgumentException("field [" + field + "] must only contain numbers, got [" + element + "]");
+			}
+			vector[i] = ((Number) element).floatValue();
+		}
+		return vector;
+	}
+
+	/** Validates {@code vector} and normalizes it in place if requested, returns its original norm. */
+	private float process(float[] vector) {
+		if (vector.length == 0) {
+			throw new IllegalArgumentException("field [" + field + "] must not be empty");
+		}
+		if (dims > 0 && vector.length != dims) {
+			throw new IllegalArgumentException("field [" + field + "] has [" + vector.length + "] dimensions but [dims] is ["
+					+ dims + "]");
+		}
+		for (int i = 0; i < vector.length; i++) {
+			if (Float.isFinite(vector[i]) == false) {
+				throw new IllegalArgumentException("field [" + field + "] must only contain finite numbers, got [" + vector[i]
+						+ "] at position [" + i + "]");
+			}
+		}
+		float norm = VectorNorms.norm(vector, vector.length);
+		if (normalize && norm > 0) {
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] /= norm;
+			}
+		}
+		return norm;
+	}
+
+	private Object output(float[] vector) {
+		if (format == VectorFieldsBuilder.Format.BASE64) {
+			return Base64.getEncoder().encodeToString(QueryVector.encodeFloats(vector, vector.length));
+		}
+		List<Float> list = new ArrayList<>(vector.length);
+		for (float value : vector) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	@Override
+	public String getType() {
+		return TYPE;
+	}
+
+	public static final class Factory implements Processor.Factory {
+
+		@Override
+		public VectorProcessor create(Map<String, Processor.Factory> registry, String processorTag,
+				Map<String, Object> config) {
+			String field = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "field");
+			String targetField = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "target_field", field);
+			String normField = ConfigurationUtils.readOptionalStringProperty(TYPE, processorTag, config, "norm_field");
+			boolean normalize = ConfigurationUtils.readBooleanProperty(TYPE, processorTag, config, "normalize", false);
+			int dims = ConfigurationUtils.readIntProperty(TYPE, processorTag, config, "dims", 0);
+			if (dims < 0) {
+				throw ConfigurationUtils.newConfigurationException(TYPE, processorTag, "dims", "must not be negative");
+			}
+			String formatName = ConfigurationUtils.readStringProperty(TYPE, processorTag, config, "format",
+					VectorFieldsBuilder.Format.ARRAY.getName());
+			VectorFieldsBuilder.Format format;
+			try {
+				format = VectorFieldsBuilder.Format.fromString(formatName);
+			} catch (IllegalArgumentException e) {
+				throw ConfigurationUtils.newConfigurationException(TYPE, processorTag, "format", e.getMessage());
+			}
+			boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, processorTag, config, "ignore_missing", false);
+			return new VectorProcessor(processorTag, field, targetField, normField, normalize, dims, format, ignoreMissing);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Matches the documents whose vector in {@code field} has a {@link VectorSimilarity} score of at least
+ * {@code minScore} with the query vector, with a constant score. The similarity is only computed in the second phase
+ * of a {@link TwoPhaseIterator}, so cheaper clauses of a conjunction are checked first, and the approximation already
+ * skips the blocks and documents whose norms rule them out. The query is cacheable, so repeated filters are served
+ * from the query cache.
+ */
+public class VectorRangeQuery extends Query {
+
+	private final String field;
+	private final QueryVectors query;
+	private final float minScore;
+	private final VectorNorms.NormBound normBound = this::bound;
+
+	public VectorRangeQuery(String field, QueryVectors query, float minScore) {
+		this.field = field;
+		this.query = query;
+		this.minScore = minScore;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+		return new ConstantScoreWeight(this, boost) {
+
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				LeafReader reader = context.reader();
+				BinaryDocValues values = reader.getBinaryDocValues(field);
+				if (values == null) {
+					return null;
+				}
+				VectorNorms norms = VectorNorms.get(reader, field, query.encoding());
+				VectorNorms.DocNorms docNorms = VectorNorms.docNorms(reader, field, query.encoding());
+				VectorSimilarity.LeafScorer leafScorer = query.scorer(reader, field);
+				DocIdSetIterator approximation = new DocIdSetIterator() {
+					private int doc = -1;
+
+					@Override
+					public int docID() {
+						return doc;
+					}
+
+					@Override
+					public int nextDoc() throws IOException {
+						return advance(doc + 1);
+					}
+
+					@Override
+					public int advance(int target) throws IOException {
+						return doc = nextCandidate(values, norms, docNorms, target);
+					}
+
+					@Override
+					public long cost() {
+						return values.cost();
+					}
+				};
+				TwoPhaseIterator twoPhase = new TwoPhaseIterator(approximation) {
+					@Override
+					public boolean matches() throws IOException {
+						return leafScorer.score(approximation.docID(), values.binaryValue()) >= minScore;
+					}
+
+					@Override
+					public float matchCost() {
+						int dims = query.encoding().dims();
+						return dims > 0 ? dims : 100;
+					}
+				};
+				return new ConstantScoreScorer(this, score(), scoreMode, twoPhase);
+			}
+
+			@Override
+			public boolean isCacheable(LeafReaderContext ctx) {
+				return DocValues.isCacheable(ctx, field, VectorNorms.normField(field));
+			}
+		};
+	}
+
+	/** Upper bound of the scores of vectors with norms in {@code [minNorm, maxNorm]}. */
+	private float bound(float minNorm, float maxNorm) {
+		if (minNorm > maxNorm) {
+			return 0;
+		}
+		return query.maxScore(minNorm, maxNorm) * VectorDotQuery.BOUND_SLACK;
+	}
+
+	/** Next document from {@code target} on with a vector whose block and stored norm do not rule it out. */
+	private int nextCandidate(BinaryDocValues values, VectorNorms norms, VectorNorms.DocNorms docNorms, int target)
+			throws IOException {
+		if (minScore <= 0) {
+			return values.advance(target);
+		}
+		return VectorNorms.nextCompetitive(values, norms, docNorms, normBound, minScore, target);
+	}
+
+	@Override
+	public String toString(String field) {
+		return "vector_range(" + this.field + ", " + query.similarity().getName() + " >= " + minScore + ")";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (sameClassAs(o) == false) return false;
+		VectorRangeQuery that = (VectorRangeQuery) o;
+		return field.equals(that.field) && query.equals(that.query) && Float.compare(minScore, that.minScore) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(classHash(), field, query, minScore);
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+
+/**
+ * Builds a {@link VectorRangeQuery} that matches the documents whose vector scores at least {@code min_score} with a
+ * query vector, by the same similarity scores as the {@code vector_dot} query and the {@code vector_score} script.
+ */
+public class VectorRangeQueryBuilder extends AbstractQueryBuilder<VectorRangeQueryBuilder> {
+
+	public static final String NAME = "vector_range";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField VECTOR_FIELD = new ParseField("vector");
+	public static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+	public static final ParseField MIN_SCORE_FIELD = new ParseField("min_score");
+
+	private final String field;
+	private final float[] vector;
+	private final float minScore;
+	private VectorSimilarity similarity;
+
+	public VectorRangeQueryBuilder(String field, float[] vector, float minScore) {
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (vector == null || vector.length == 0) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+		}
+		if (Float.isNaN(minScore)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [min_score]");
+		}
+		this.field = field;
+		this.vector = vector;
+		this.minScore = minScore;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public VectorRangeQueryBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+		vector = in.readFloatArray();
+		minScore = in.readFloat();
+		String similarityName = in.readOptionalString();
+		similarity = similarityName == null ? null : VectorSimilarity.fromString(similarityName);
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeFloatArray(vector);
+		out.writeFloat(minScore);
+		out.writeOptionalString(similarity == null ? null : similarity.getName());
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public float[] vector() {
+		return vector;
+	}
+
+	/** The smallest similarity score of matching documents. */
+	public float minScore() {
+		return minScore;
+	}
+
+	/** Overrides the similarity of the field mapping, {@code null} uses the mapping. */
+	public VectorRangeQueryBuilder similarity(VectorSimilarity similarity) {
+		this.similarity = similarity;
+		return this;
+	}
+
+	public VectorSimilarity similarity() {
+		return similarity;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.array(VECTOR_FIELD.getPreferredName(), vector);
+		builder.field(MIN_SCORE_FIELD.getPreferredName(), minScore);
+		if (similarity != null) {
+			builder.field(SIMILARITY_FIELD.getPreferredName(), similarity.getName());
+		}
+		printBoostAndQueryName(builder);
+		builder.endObject();
+	}
+
+	public static VectorRangeQueryBuilder fromXContent(XContentParser parser) throws IOException {
+		String field = null;
+		float[] vector = null;
+		Float minScore = null;
+		VectorSimilarity similarity = null;
+		String queryName = null;
+		float boost = AbstractQueryBuilder.DEFAULT_BOOST;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				vector = KnnQueryBuilder.parseVector(parser);
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					vector = KnnQueryBuilder.parseBinaryVector(parser, NAME);
+				} else if (MIN_SCORE_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					minScore = parser.floatValue();
+				} else if (SIMILARITY_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						similarity = VectorSimilarity.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (AbstractQueryBuilder.NAME_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					queryName = parser.text();
+				} else if (AbstractQueryBuilder.BOOST_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					boost = parser.floatValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] query does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if (vector == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [vector]");
+		}
+		if (minScore == null || Float.isNaN(minScore)) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [min_score]");
+		}
+
+		VectorRangeQueryBuilder builder = new VectorRangeQueryBuilder(field, vector, minScore);
+		builder.similarity(similarity);
+		builder.queryName(queryName);
+		builder.boost(boost);
+		return builder;
+	}
+
+	@Override
+	protected Query doToQuery(QueryShardContext context) throws IOException {
+		MappedFieldType fieldType = context.fieldMapper(field);
+		if (fieldType == null) {
+			return Queries.newMatchNoDocsQuery("Unmapped field [" + field + "]");
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new QueryShardException(context, "[" + NAME + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		VectorFieldMapper.VectorFieldType vectorFieldType = (VectorFieldMapper.VectorFieldType) fieldType;
+		VectorSimilarity querySimilarity = similarity == null ? vectorFieldType.vectorSimilarity() : similarity;
+		QueryVectors query;
+		try {
+			query = new QueryVectors(new QueryVector(vectorFieldType.prefixOf(vector), vectorFieldType.encoding(), querySimilarity));
+		} catch (IllegalArgumentException e) {
+			throw new QueryShardException(context, "[" + NAME + "] " + e.getMessage() + " for field [" + field + "]");
+		}
+		return new VectorRangeQuery(fieldType.name(), query, minScore);
+	}
+
+	@Override
+	protected boolean doEquals(VectorRangeQueryBuilder other) {
+		return Objects.equals(field, other.field) && Arrays.equals(vector, other.vector)
+				&& Float.compare(minScore, other.minScore) == 0 && similarity == other.similarity;
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field, Arrays.hashCode(vector), minScore, similarity);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.Rescorer;
+
+/**
+ * Rescores the top hits of a search with the exact score of a query vector, computed like the {@code vector_score}
+ * script. The first pass is meant to scan a cheap representation of the vectors, e.g. a coarse multi-field, so the
+ * full vectors are only read for the {@code window_size} best hits of every shard.
+ */
+final class VectorRescorer implements Rescorer {
+
+	static final VectorRescorer INSTANCE = new VectorRescorer();
+
+	private static final Comparator<ScoreDoc> DOC_ORDER = Comparator.comparingInt(hit -> hit.doc);
+	private static final Comparator<ScoreDoc> SCORE_ORDER = (a, b) -> {
+		int cmp = Float.compare(b.score, a.score);
+		return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+	};
+
+	private VectorRescorer() {}
+
+	@Override
+	public TopDocs rescore(TopDocs topDocs, IndexSearcher searcher, RescoreContext rescoreContext) throws IOException {
+		Context context = (Context) rescoreContext;
+		if (topDocs == null || topDocs.scoreDocs.length == 0 || context.query == null) {
+			return topDocs;
+		}
+		ScoreDoc[] hits = topDocs.scoreDocs.clone();
+		ScoreDoc[] window = Arrays.copyOf(hits, Math.min(context.getWindowSize(), hits.length));
+		// doc values are read forward only
+		Arrays.sort(window, DOC_ORDER);
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		Set<Integer> rescored = new HashSet<>();
+		VectorScoreScript.SegmentScorer scorer = null;
+		int docBase = 0;
+		int docEnd = 0;
+		for (ScoreDoc hit : window) {
+			if (scorer == null || hit.doc >= docEnd) {
+				LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hit.doc, leaves));
+				scorer = new VectorScoreScript.SegmentScorer(leaf.reader(), context.field, context.query, context.cache);
+				docBase = leaf.docBase;
+				docEnd = docBase + leaf.reader().maxDoc();
+			}
+			hit.score = context.queryWeight * hit.score + context.rescoreWeight * scorer.score(hit.doc - docBase);
+			rescored.add(hit.doc);
+		}
+		Arrays.sort(window, SCORE_ORDER);
+		System.arraycopy(window, 0, hits, 0, window.length);
+		context.setRescoredDocs(rescored);
+		return new TopDocs(topDocs.totalHits, hits);
+	}
+
+	@Override
+	public Explanation explain(int topLevelDocId, IndexSearcher searcher, RescoreContext rescoreContext,
+			Explanation sourceExplanation) throws IOException {
+		Context context = (Context) rescoreContext;
+		if (context.query == null || context.isRescored(topLevelDocId) == false) {
+			return sourceExplanation;
+		}
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(topLevelDocId, leaves));
+		float score = new VectorScoreScript.SegmentScorer(leaf.reader(), context.field, context.query, context.cache)
+				.score(topLevelDocId - leaf.docBase);
+		Explanation query = Explanation.match(context.queryWeight * sourceExplanation.getValue().floatValue(), "product of:",
+				sourceExplanation, Explanation.match(context.queryWeight, "query_weight"));
+		Explanation rescore = Explanation.match(context.rescoreWeight * score, "product of:",
+				Explanation.match(score, "[" + context.query.similarity().getName() + "] similarity of field [" + context.field + "]"),
+				Explanation.match(context.rescoreWeight, "rescore_weight"));
+		return Explanation.match(query.getValue().floatValue() + rescore.getValue().floatValue(), "vector rescore, sum of:",
+				query, rescore);
+	}
+
+	static final class Context extends RescoreContext {
+
+		private final String field;
+		/** {@code null} if the field is not mapped in this shard, hits are left as they are. */
+		private final QueryVectors query;
+		private final float queryWeight;
+		private final float rescoreWeight;
+		/** {@code null} to always read doc values. */
+		private final VectorCache cache;
+
+		Context(int windowSize, String field, QueryVectors query, float queryWeight, float rescoreWeight, VectorCache cache) {
+			super(windowSize, INSTANCE);
+			this.field = field;
+			this.query = query;
+			this.queryWeight = queryWeight;
+			this.rescoreWeight = rescoreWeight;
+			this.cache = cache;
+		}
+	}
+}
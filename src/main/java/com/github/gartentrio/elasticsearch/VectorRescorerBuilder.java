@@ -0,0 +1,251 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryRewriteContext;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.QueryShardException;
+import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.search.rescore.RescorerBuilder;
+
+/**
+ * Builds a {@link VectorRescorer}, which replaces or combines the scores of the top hits with the exact score of a
+ * query vector: {@code query_weight * score + rescore_weight * similarity}.
+ */
+public class VectorRescorerBuilder extends RescorerBuilder<VectorRescorerBuilder> {
+
+	public static final String NAME = "vector";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+	public static final ParseField VECTOR_FIELD = new ParseField("vector");
+	public static final ParseField SIMILARITY_FIELD = new ParseField("similarity");
+	public static final ParseField QUERY_WEIGHT_FIELD = new ParseField("query_weight");
+	public static final ParseField RESCORE_WEIGHT_FIELD = new ParseField("rescore_weight");
+
+	public static final float DEFAULT_QUERY_WEIGHT = 0f;
+	public static final float DEFAULT_RESCORE_WEIGHT = 1f;
+
+	private final String field;
+	private final float[] vector;
+	private VectorSimilarity similarity;
+	private float queryWeight = DEFAULT_QUERY_WEIGHT;
+	private float rescoreWeight = DEFAULT_RESCORE_WEIGHT;
+	/** The cache of the node, {@code null} on clients. */
+	private final VectorCache cache;
+
+	public VectorRescorerBuilder(String field, float[] vector) {
+		this(field, vector, null);
+	}
+
+	VectorRescorerBuilder(String field, float[] vector, VectorCache cache) {
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		if (vector == null || vector.length == 0) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a non-empty [vector]");
+		}
+		this.field = field;
+		this.vector = vector;
+		this.cache = cache;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	VectorRescorerBuilder(StreamInput in, VectorCache cache) throws IOException {
+		super(in);
+		field = in.readString();
+		vector = in.readFloatArray();
+		String similarityName = in.readOptionalString();
+		similarity = similarityName == null ? null : VectorSimilarity.fromString(similarityName);
+		queryWeight = in.readFloat();
+		rescoreWeight = in.readFloat();
+		this.cache = cache;
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+		out.writeFloatArray(vector);
+		out.writeOptionalString(similarity == null ? null : similarity.getName());
+		out.writeFloat(queryWeight);
+		out.writeFloat(rescoreWeight);
+	}
+
+	public String field() {
+		return field;
+	}
+
+	public float[] vector() {
+		return vector;
+	}
+
+	/** Overrides the similarity of the field mapping, {@code null} uses the mapping. */
+	public VectorRescorerBuilder similarity(VectorSimilarity similarity) {
+		this.similarity = similarity;
+		return this;
+	}
+
+	public VectorSimilarity similarity() {
+		return similarity;
+	}
+
+	/** Sets the weight of the score of the first pass, {@code 0} by default so the exact score replaces it. */
+	public VectorRescorerBuilder queryWeight(float queryWeight) {
+		this.queryWeight = queryWeight;
+		return this;
+	}
+
+	public float queryWeight() {
+		return queryWeight;
+	}
+
+	/** Sets the weight of the exact score. */
+	public VectorRescorerBuilder rescoreWeight(float rescoreWeight) {
+		this.rescoreWeight = rescoreWeight;
+		return this;
+	}
+
+	public float rescoreWeight() {
+		return rescoreWeight;
+	}
+
+	@Override
+	public String getWriteableName() {
+		return NAME;
+	}
+
+	@Override
+	protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject(NAME);
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.array(VECTOR_FIELD.getPreferredName(), vector);
+		if (similarity != null) {
+			builder.field(SIMILARITY_FIELD.getPreferredName(), similarity.getName());
+		}
+		builder.field(QUERY_WEIGHT_FIELD.getPreferredName(), queryWeight);
+		builder.field(RESCORE_WEIGHT_FIELD.getPreferredName(), rescoreWeight);
+		builder.endObject();
+	}
+
+	static VectorRescorerBuilder fromXContent(XContentParser parser, VectorCache cache) throws IOException {
+		String field = null;
+		float[] vector = null;
+		VectorSimilarity similarity = null;
+		float queryWeight = DEFAULT_QUERY_WEIGHT;
+		float rescoreWeight = DEFAULT_RESCORE_WEIGHT;
+
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token == XContentParser.Token.START_ARRAY
+					&& VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				vector = KnnQueryBuilder.parseVector(parser);
+			} else if (token.isValue()) {
+				if (FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					field = parser.text();
+				} else if (VECTOR_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					vector = KnnQueryBuilder.parseBinaryVector(parser, NAME);
+				} else if (SIMILARITY_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					try {
+						similarity = VectorSimilarity.fromString(parser.text());
+					} catch (IllegalArgumentException e) {
+						throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] " + e.getMessage());
+					}
+				} else if (QUERY_WEIGHT_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					queryWeight = parser.floatValue();
+				} else if (RESCORE_WEIGHT_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+					rescoreWeight = parser.floatValue();
+				} else {
+					throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] rescorer does not support [" + currentFieldName + "]");
+				}
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		if (vector == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [vector]");
+		}
+
+		return new VectorRescorerBuilder(field, vector, cache)
+				.similarity(similarity)
+				.queryWeight(queryWeight)
+				.rescoreWeight(rescoreWeight);
+	}
+
+	@Override
+	public VectorRescorerBuilder rewrite(QueryRewriteContext ctx) {
+		return this;
+	}
+
+	@Override
+	protected RescoreContext innerBuildContext(int windowSize, QueryShardContext context) throws IOException {
+		MappedFieldType fieldType = context.fieldMapper(field);
+		if (fieldType == null) {
+			return new VectorRescorer.Context(windowSize, field, null, queryWeight, rescoreWeight, cache);
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new QueryShardException(context, "[" + NAME + "] field [" + field + "] is of type [" + fieldType.typeName()
+					+ "] but [" + VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		VectorFieldMapper.VectorFieldType vectorFieldType = (VectorFieldMapper.VectorFieldType) fieldType;
+		VectorSimilarity querySimilarity = similarity == null ? vectorFieldType.vectorSimilarity() : similarity;
+		QueryVectors query;
+		try {
+			query = new QueryVectors(new QueryVector(vectorFieldType.prefixOf(vector), vectorFieldType.encoding(), querySimilarity));
+		} catch (IllegalArgumentException e) {
+			throw new QueryShardException(context, "[" + NAME + "] " + e.getMessage() + " for field [" + field + "]");
+		}
+		return new VectorRescorer.Context(windowSize, fieldType.name(), query, queryWeight, rescoreWeight, cache);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (super.equals(obj) == false) {
+			return false;
+		}
+		VectorRescorerBuilder other = (VectorRescorerBuilder) obj;
+		return Objects.equals(field, other.field) && Arrays.equals(vector, other.vector) && similarity == other.similarity
+				&& queryWeight == other.queryWeight && rescoreWeight == other.rescoreWeight;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Objects.hash(field, Arrays.hashCode(vector), similarity, queryWeight, rescoreWeight);
+	}
+}
@@ -21,39 +21,23 @@ package com.github.gartentrio.elasticsearch;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.search.lookup.SearchLookup;
 
 public final class VectorScoreScript extends ScoreScript {
 
-	private final BinaryDocValues values;
-	private final float[] vector;
+	private final SegmentScorer scorer;
 	private int doc;
 
-	@SuppressWarnings("unchecked")
-	public VectorScoreScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext) throws IOException {
+	public VectorScoreScript(Map<String, Object> params, SearchLookup lookup, LeafReaderContext leafContext, String field,
+			QueryVectors query, VectorCache cache) throws IOException {
 		super(params, lookup, leafContext);
-
-		String field = (String) params.get("field");
-		if (field == null) {
-			throw new IllegalArgumentException("Missing or empty parameter [field]");
-		}
-		List<Double> vectorList = (List<Double>) params.get("vector");
-		if (vectorList != null) {
-			vector = new float[vectorList.size()];
-			for (int i = 0; i < vector.length; i++) {
-				vector[i] = vectorList.get(i).floatValue();
-			}
-		} else {
-			throw new IllegalArgumentException("Missing or empty parameter [vector]");
-		}
-		values = leafContext.reader().getBinaryDocValues(field);
+		scorer = new SegmentScorer(leafContext.reader(), field, query, cache);
 	}
 
 	@Override
@@ -64,26 +48,45 @@ public final class VectorScoreScript extends ScoreScript {
 	@Override
 	public double execute() {
 		try {
-			if (values != null && values.advanceExact(doc)) {
-				BytesRef data = values.binaryValue();
-				return dot(vector, data.bytes, data.offset);
-			} else {
-				return 0.0;
-			}
+			return scorer.score(doc);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
-	
-	private static final float dot(final float[] vector, final byte[] data, final int offset) {
-		float sum = 0;
-		for (int i=0, pos=offset; i < vector.length;) {
-			sum += vector[i++] * Float.intBitsToFloat(
-					((data[pos++] & 0xFF) << 24) | 
-					((data[pos++] & 0xFF) << 16) | 
-					((data[pos++] & 0xFF) <<  8) | 
-					(data[pos++] & 0xFF));
+
+	/**
+	 * Scores the documents of a segment from the {@link VectorCache} if the segment is loaded, from doc values
+	 * otherwise. Also used by the {@link VectorRescorer}, so both compute the same scores.
+	 */
+	static final class SegmentScorer {
+
+		private final BinaryDocValues values;
+		private final VectorSimilarity.LeafScorer scorer;
+		/** Scores from the {@link VectorCache} if the segment is loaded, {@code null} otherwise. */
+		private final QueryVectors.DocScorer cachedScorer;
+
+		/** {@code cache} may be {@code null} to always read doc values. */
+		SegmentScorer(LeafReader reader, String field, QueryVectors query, VectorCache cache) throws IOException {
+			VectorCache.SegmentVectors cached = cache == null ? null : cache.get(reader, field);
+			QueryVectors.DocScorer docScorer = cached == null ? null : query.scorer(cached);
+			VectorStats.Counters counters = VectorStats.counters(reader, field);
+			if (counters != null && cache != null && cache.enabled() && VectorCache.cacheable(query.encoding())) {
+				counters.cacheLookup(docScorer != null);
+			}
+			cachedScorer = docScorer == null || counters == null ? docScorer : counters.record(docScorer);
+			scorer = cachedScorer != null ? null : query.scorer(reader, field);
+			values = cachedScorer != null ? null : reader.getBinaryDocValues(field);
 		}
-		return Math.max(0, sum);
-	}	
+
+		/** Score of {@code doc}, {@code 0} if it has no vector. Documents must be scored in increasing order. */
+		float score(int doc) throws IOException {
+			if (cachedScorer != null) {
+				return cachedScorer.score(doc);
+			} else if (values != null && values.advanceExact(doc)) {
+				return scorer.score(doc, values.binaryValue());
+			} else {
+				return 0f;
+			}
+		}
+	}
 }
@@ -28,6 +28,12 @@ import org.elasticsearch.script.ScoreScript;
 /** This {@link ScriptEngine} uses Lucene segment details to implement document scoring based on their similarity with submitted document. */
 public class VectorScoreScriptEngine implements ScriptEngine {
 
+    private final VectorCache cache;
+
+    VectorScoreScriptEngine(VectorCache cache) {
+        this.cache = cache;
+    }
+
     @Override
     public String getType() {
         return "vector_score";
@@ -40,7 +46,7 @@ public class VectorScoreScriptEngine implements ScriptEngine {
         }
     	
         if ("vector_score".equals(code)) {
-            ScoreScript.Factory factory = VectorScoreScriptFactory::new;
+            ScoreScript.Factory factory = (scriptParams, lookup) -> new VectorScoreScriptFactory(scriptParams, lookup, cache);
             return context.factoryClazz.cast(factory);
         }
 
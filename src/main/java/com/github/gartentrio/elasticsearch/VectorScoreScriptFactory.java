@@ -23,17 +23,59 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.script.ScoreScript;
 import org.elasticsearch.script.ScoreScript.LeafFactory;
 import org.elasticsearch.search.lookup.SearchLookup;
 
+/**
+ * Compiles the parameters of a {@code vector_score} script once per shard request into {@link QueryVectors} that
+ * are shared by the scripts of all segments. Either a single {@code vector} or several {@code vectors} are scored,
+ * the latter combined by the {@code score_mode} parameter. The {@code doc_score_mode} parameter combines the scores
+ * of the vectors of documents in multi-vector fields.
+ */
 public class VectorScoreScriptFactory implements LeafFactory {
-	private Map<String, Object> params;
-    private SearchLookup lookup;
+	private final Map<String, Object> params;
+    private final SearchLookup lookup;
+    private final String field;
+    private final QueryVectors query;
+    private final VectorCache cache;
     
-    public VectorScoreScriptFactory(Map<String, Object> params, SearchLookup lookup) {
+    public VectorScoreScriptFactory(Map<String, Object> params, SearchLookup lookup, VectorCache cache) {
         this.params = params;
         this.lookup = lookup;
+        this.cache = cache;
+        Object field = params.get("field");
+        if (field == null) {
+            throw new IllegalArgumentException("Missing or empty parameter [field]");
+        }
+        this.field = field.toString();
+        VectorFieldMapper.VectorFieldType fieldType = fieldType(lookup, this.field);
+        VectorEncoding encoding = fieldType == null ? VectorEncoding.DEFAULT : fieldType.encoding();
+        VectorSimilarity similarity = fieldType == null ? VectorSimilarity.DOT_PRODUCT : fieldType.vectorSimilarity();
+        Object similarityName = params.get("similarity");
+        if (similarityName != null) {
+            similarity = VectorSimilarity.fromString(similarityName.toString());
+        }
+        Object docScoreModeName = params.get("doc_score_mode");
+        QueryVectors.ScoreMode docScoreMode = docScoreModeName == null ? QueryVectors.ScoreMode.MAX
+                : QueryVectors.ScoreMode.fromString(docScoreModeName.toString());
+        Object vectors = params.get("vectors");
+        if (vectors == null) {
+            this.query = new QueryVectors(new QueryVector(prefixOf(fieldType, QueryVector.parse(params.get("vector"))), encoding,
+                    similarity), docScoreMode);
+        } else if (params.containsKey("vector")) {
+            throw new IllegalArgumentException("Parameters [vector] and [vectors] are mutually exclusive");
+        } else {
+            float[][] queryVectors = QueryVectors.parse(vectors);
+            for (int i = 0; i < queryVectors.length; i++) {
+                queryVectors[i] = prefixOf(fieldType, queryVectors[i]);
+            }
+            Object scoreMode = params.get("score_mode");
+            this.query = new QueryVectors(queryVectors, encoding, similarity,
+                    scoreMode == null ? QueryVectors.ScoreMode.MAX : QueryVectors.ScoreMode.fromString(scoreMode.toString()),
+                    docScoreMode);
+        }
     }
 	
     public boolean needs_score() {
@@ -42,6 +84,22 @@ public class VectorScoreScriptFactory implements LeafFactory {
 
 	@Override
 	public ScoreScript newInstance(LeafReaderContext ctx) throws IOException {
-		return new VectorScoreScript(params, lookup, ctx);
+		return new VectorScoreScript(params, lookup, ctx, field, query, cache);
+	}
+
+	private static float[] prefixOf(VectorFieldMapper.VectorFieldType fieldType, float[] vector) {
+		return fieldType == null ? vector : fieldType.prefixOf(vector);
+	}
+
+	private static VectorFieldMapper.VectorFieldType fieldType(SearchLookup lookup, String field) {
+		MappedFieldType fieldType = lookup.doc().mapperService().fullName(field);
+		if (fieldType == null) {
+			return null;
+		}
+		if (fieldType instanceof VectorFieldMapper.VectorFieldType == false) {
+			throw new IllegalArgumentException("Field [" + field + "] is of type [" + fieldType.typeName() + "] but ["
+					+ VectorFieldMapper.CONTENT_TYPE + "] is required");
+		}
+		return (VectorFieldMapper.VectorFieldType) fieldType;
 	}
-}
\ No newline at end of file
+}
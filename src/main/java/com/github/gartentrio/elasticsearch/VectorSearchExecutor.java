@@ -0,0 +1,171 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Searches the segments of a shard concurrently on the {@code vector_search} thread pool. Vector scans are CPU bound,
+ * so a single search thread per shard leaves most cores idle on nodes with few large shards. Segments are grouped
+ * into slices of at least {@link #MIN_DOCS_PER_SLICE_SETTING} documents, which are searched on the pool while the
+ * search thread takes the largest one itself.
+ * <p>
+ * The pool has one thread per processor and a bounded queue. A slice that is rejected because the queue is full
+ * runs on the search thread, so a loaded node degrades to sequential search instead of failing queries.
+ */
+final class VectorSearchExecutor {
+
+	static final String NAME = "vector_search";
+
+	/** Number of documents below which segments are searched together with others rather than on their own. */
+	static final Setting<Integer> MIN_DOCS_PER_SLICE_SETTING = Setting.intSetting("vector.search.min_docs_per_slice", 20000, 1,
+			Setting.Property.NodeScope);
+
+	private static final int QUEUE_SIZE = 1000;
+
+	private final int minDocsPerSlice;
+	private final SetOnce<ExecutorService> executor = new SetOnce<>();
+
+	VectorSearchExecutor(Settings settings) {
+		this.minDocsPerSlice = MIN_DOCS_PER_SLICE_SETTING.get(settings);
+	}
+
+	/** The {@code vector_search} thread pool, sized by the {@code thread_pool.vector_search.*} settings. */
+	static ExecutorBuilder<?> executorBuilder(Settings settings) {
+		return new FixedExecutorBuilder(settings, NAME, EsExecutors.numberOfProcessors(settings), QUEUE_SIZE, "thread_pool." + NAME);
+	}
+
+	/** Starts using the pool of {@code threadPool}, searches run on the calling thread until then. */
+	void start(ThreadPool threadPool) {
+		executor.set(threadPool.executor(NAME));
+	}
+
+	/**
+	 * Applies {@code search} to all {@code leaves} and returns the hits by leaf ord. Slices of leaves run
+	 * concurrently, the leaves of a slice one after another, so every slice keeps its own top hits until they are
+	 * merged by the caller.
+	 */
+	TopDocs[] search(List<LeafReaderContext> leaves, CheckedFunction<LeafReaderContext, TopDocs, IOException> search)
+			throws IOException {
+		TopDocs[] results = new TopDocs[leaves.size()];
+		List<List<LeafReaderContext>> slices = slices(leaves);
+		ExecutorService executor = this.executor.get();
+		if (executor == null || slices.size() < 2) {
+			for (LeafReaderContext leaf : leaves) {
+				results[leaf.ord] = search.apply(leaf);
+			}
+			return results;
+		}
+		List<FutureTask<Void>> tasks = new ArrayList<>(slices.size());
+		for (List<LeafReaderContext> slice : slices) {
+			tasks.add(new FutureTask<>(() -> {
+				try {
+					for (LeafReaderContext leaf : slice) {
+						results[leaf.ord] = search.apply(leaf);
+					}
+				} finally {
+					// pool threads are not flushed at the end of the search phases
+					VectorStats.flush();
+				}
+				return null;
+			}));
+		}
+		// the first slice is the largest one and runs on this thread
+		for (int i = 1; i < tasks.size(); i++) {
+			try {
+				executor.execute(tasks.get(i));
+			} catch (EsRejectedExecutionException e) {
+				tasks.get(i).run();
+			}
+		}
+		tasks.get(0).run();
+		for (FutureTask<Void> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while searching the segments", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) cause).getCause();
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException(cause);
+			}
+		}
+		// completed tasks happen-before their get()
+		return results;
+	}
+
+	/**
+	 * Groups {@code leaves} into slices of at least {@code minDocsPerSlice} documents, largest first. Large segments
+	 * form a slice of their own, smaller ones are packed together.
+	 */
+	List<List<LeafReaderContext>> slices(List<LeafReaderContext> leaves) {
+		List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+		sorted.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+		List<List<LeafReaderContext>> slices = new ArrayList<>();
+		List<LeafReaderContext> slice = new ArrayList<>();
+		long docs = 0;
+		for (LeafReaderContext leaf : sorted) {
+			slice.add(leaf);
+			docs += leaf.reader().maxDoc();
+			if (docs >= minDocsPerSlice) {
+				slices.add(slice);
+				slice = new ArrayList<>();
+				docs = 0;
+			}
+		}
+		if (slice.isEmpty() == false) {
+			if (slices.isEmpty()) {
+				slices.add(slice);
+			} else {
+				// too small on its own
+				slices.get(slices.size() - 1).addAll(slice);
+			}
+		}
+		return slices;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.lease.Releasable;
+
+/**
+ * Caches data structures derived from the vectors of a segment, e.g. nearest-neighbour graphs, for the lifetime
+ * of the segment core. Entries are dropped as soon as the segment is closed, so a segment that has been merged
+ * away releases its entries and the merged segment builds its own on first use. Entries that are
+ * {@link Releasable} are closed with their segment.
+ */
+final class VectorSegmentCache {
+
+	private static final Map<IndexReader.CacheKey, Map<String, Object>> CACHE = new ConcurrentHashMap<>();
+
+	private VectorSegmentCache() {}
+
+	/**
+	 * Returns the entry stored under {@code key} for the segment of {@code reader}, loading it on first access.
+	 * Readers without a core cache helper are never cached.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T get(LeafReader reader, String key, CheckedFunction<LeafReader, T, IOException> loader) throws IOException {
+		IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+		if (cacheHelper == null) {
+			return loader.apply(reader);
+		}
+		Map<String, Object> entries = CACHE.computeIfAbsent(cacheHelper.getKey(), cacheKey -> {
+			cacheHelper.addClosedListener(VectorSegmentCache::release);
+			return new ConcurrentHashMap<>();
+		});
+		try {
+			return (T) entries.computeIfAbsent(key, k -> {
+				try {
+					return loader.apply(reader);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void release(IndexReader.CacheKey cacheKey) {
+		Map<String, Object> entries = CACHE.remove(cacheKey);
+		if (entries != null) {
+			for (Object entry : entries.values()) {
+				if (entry instanceof Releasable) {
+					((Releasable) entry).close();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Similarity between a query vector and the vectors of a {@code vector} field, selected by the {@code similarity}
+ * of the mapping and overridable per query. Every similarity has a raw value, where higher means more similar, and
+ * maps it to a non-negative score that keeps that order.
+ */
+public enum VectorSimilarity {
+
+	/** The raw dot product, negative values are truncated to a score of zero. */
+	DOT_PRODUCT {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			return VectorKernels.INSTANCE.dot(a, aOffset, b, bOffset, dims);
+		}
+
+		@Override
+		public float score(float value) {
+			return Math.max(0, value);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			return score(queryNorm * maxNorm);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+			return score((queryNorm + dotError) * maxNorm);
+		}
+	},
+
+	/** Cosine of the angle between the vectors, scored as {@code (1 + cos) / 2}. Uses the norms stored at index time. */
+	COSINE {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			VectorKernels kernels = VectorKernels.INSTANCE;
+			float aNorm = (float) Math.sqrt(kernels.dot(a, aOffset, a, aOffset, dims));
+			float bNorm = (float) Math.sqrt(kernels.dot(b, bOffset, b, bOffset, dims));
+			return cosine(kernels.dot(a, aOffset, b, bOffset, dims), aNorm, bNorm);
+		}
+
+		@Override
+		public float score(float value) {
+			return (1 + value) / 2;
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			return 1;
+		}
+
+		/** The cosine is clamped, however inexact the dot product. */
+		@Override
+		public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+			return 1;
+		}
+
+		@Override
+		public float fromDot(float dot, float aNorm, float bNorm) {
+			return cosine(dot, aNorm, bNorm);
+		}
+
+		@Override
+		LeafScorer scorer(QueryVector query, LeafReader reader, String field) throws IOException {
+			return normScorer(query, reader, field);
+		}
+	},
+
+	/** Euclidean distance, scored as {@code 1 / (1 + l2^2)}. Uses the norms stored at index time. */
+	L2 {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			return -VectorKernels.INSTANCE.squareDistance(a, aOffset, b, bOffset, dims);
+		}
+
+		@Override
+		public float score(float value) {
+			return 1 / (1 - value);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			// |q - x| >= ||q| - |x||
+			float gap = normGap(queryNorm, minNorm, maxNorm);
+			return score(-gap * gap);
+		}
+
+		/** {@link #fromDot} subtracts twice the dot product. */
+		@Override
+		public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+			float gap = normGap(queryNorm, minNorm, maxNorm);
+			return score(-Math.max(0, gap * gap - 2 * dotError * maxNorm));
+		}
+
+		/** {@code |q - x|^2 = |q|^2 + |x|^2 - 2 q * x}, so a single pass computes the dot product only. */
+		@Override
+		public float fromDot(float dot, float aNorm, float bNorm) {
+			return -Math.max(0, aNorm * aNorm + bNorm * bNorm - 2 * dot);
+		}
+
+		@Override
+		LeafScorer scorer(QueryVector query, LeafReader reader, String field) throws IOException {
+			return normScorer(query, reader, field);
+		}
+	},
+
+	/** Manhattan distance, scored as {@code 1 / (1 + l1)}. */
+	L1 {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			return -VectorKernels.INSTANCE.l1Distance(a, aOffset, b, bOffset, dims);
+		}
+
+		@Override
+		public float score(float value) {
+			return 1 / (1 - value);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			// |q - x|_1 >= |q - x|_2 >= ||q| - |x||
+			return score(-normGap(queryNorm, minNorm, maxNorm));
+		}
+
+		/** The distance kernels compute the exact distance to the decoded vectors, whatever the dot product. */
+		@Override
+		public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+			return maxScore(queryNorm, minNorm, maxNorm);
+		}
+
+		@Override
+		public float fromDot(float dot, float aNorm, float bNorm) {
+			throw new UnsupportedOperationException("The [" + getName() + "] similarity is not a function of the dot product");
+		}
+
+		@Override
+		LeafScorer scorer(QueryVector query, LeafReader reader, String field) {
+			final VectorElementType.Distance distance = query.l1Distance();
+			return (doc, data) -> score(-distance.distance(data));
+		}
+	},
+
+	/**
+	 * The dot product mapped to a positive score that keeps the order of negative values as well: {@code 1 + dot}
+	 * for positive and {@code 1 / (1 - dot)} for negative dot products.
+	 */
+	MAX_INNER_PRODUCT {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			return VectorKernels.INSTANCE.dot(a, aOffset, b, bOffset, dims);
+		}
+
+		@Override
+		public float score(float value) {
+			return value < 0 ? 1 / (1 - value) : value + 1;
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			return score(queryNorm * maxNorm);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+			return score((queryNorm + dotError) * maxNorm);
+		}
+	},
+
+	/** Number of differing bits of {@code bit} vectors, scored as {@code 1 / (1 + hamming)}. */
+	HAMMING {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			// the Manhattan distance of vectors of zeros and ones
+			return -VectorKernels.INSTANCE.l1Distance(a, aOffset, b, bOffset, dims);
+		}
+
+		@Override
+		public float score(float value) {
+			return 1 / (1 - value);
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			// the norm of a bit vector is the square root of its bit count, and hamming = l2^2 >= ||q| - |x||^2
+			float gap = normGap(queryNorm, minNorm, maxNorm);
+			return score(-gap * gap);
+		}
+
+		/** Norms of bit vectors are the square roots of their bit counts. */
+		@Override
+		public float fromDot(float dot, float aNorm, float bNorm) {
+			return -Math.max(0, Math.round(aNorm * aNorm) + Math.round(bNorm * bNorm) - dot - dot);
+		}
+
+		@Override
+		LeafScorer scorer(QueryVector query, LeafReader reader, String field) {
+			final VectorElementType.Distance distance = query.l1Distance();
+			return (doc, data) -> score(-distance.distance(data));
+		}
+
+		@Override
+		public void checkElementType(VectorElementType elementType) {
+			requireBits(this, elementType);
+		}
+	},
+
+	/** Number of bits set in both divided by the number of bits set in either of two {@code bit} vectors. */
+	JACCARD {
+		@Override
+		public float compare(float[] a, int aOffset, float[] b, int bOffset, int dims) {
+			VectorKernels kernels = VectorKernels.INSTANCE;
+			float intersection = kernels.dot(a, aOffset, b, bOffset, dims);
+			return jaccard(intersection, kernels.dot(a, aOffset, a, aOffset, dims), kernels.dot(b, bOffset, b, bOffset, dims));
+		}
+
+		@Override
+		public float score(float value) {
+			return value;
+		}
+
+		@Override
+		public float maxScore(float queryNorm, float minNorm, float maxNorm) {
+			// |q & x| / |q | x| <= min(|q|, |x|) / max(|q|, |x|) for bit counts
+			float count = queryNorm * queryNorm;
+			if (count < minNorm * minNorm) {
+				return count / (minNorm * minNorm);
+			} else if (count > maxNorm * maxNorm) {
+				return maxNorm * maxNorm / count;
+			}
+			return 1;
+		}
+
+		/** The bit counts are the squares of the norms, so only the AND needs to be counted. */
+		@Override
+		public float fromDot(float dot, float aNorm, float bNorm) {
+			return jaccard(dot, Math.round(aNorm * aNorm), Math.round(bNorm * bNorm));
+		}
+
+		@Override
+		LeafScorer scorer(QueryVector query, LeafReader reader, String field) throws IOException {
+			return normScorer(query, reader, field);
+		}
+
+		@Override
+		public void checkElementType(VectorElementType elementType) {
+			requireBits(this, elementType);
+		}
+	};
+
+	/** Scores the vectors of one segment. Instances must not be shared between threads. */
+	@FunctionalInterface
+	interface LeafScorer {
+		/** Scores the vector {@code data} of document {@code doc}, documents must be scored in increasing order. */
+		float score(int doc, BytesRef data) throws IOException;
+	}
+
+	/** Raw similarity of two decoded vectors, higher values are more similar. */
+	public abstract float compare(float[] a, int aOffset, float[] b, int bOffset, int dims);
+
+	/** Maps a raw similarity to a non-negative score, keeping the order. */
+	public abstract float score(float value);
+
+	/**
+	 * Upper bound of the score of a query with norm {@code queryNorm} against any vector with a norm between
+	 * {@code minNorm} and {@code maxNorm}.
+	 */
+	public abstract float maxScore(float queryNorm, float minNorm, float maxNorm);
+
+	/**
+	 * Upper bound of the score of a query whose dot product kernel has the {@link VectorElementType.Prepared#dotError()
+	 * dotError}, which is unbounded for similarities that do not account for it.
+	 */
+	public float maxScore(float queryNorm, float dotError, float minNorm, float maxNorm) {
+		return dotError == 0 ? maxScore(queryNorm, minNorm, maxNorm) : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Raw similarity of two vectors from their dot product and their norms, which lets a single matrix product
+	 * compare many query vectors with a document. Throws an {@link UnsupportedOperationException} for similarities
+	 * that are not a function of these, which is only {@link #L1}.
+	 */
+	public float fromDot(float dot, float aNorm, float bNorm) {
+		return dot;
+	}
+
+	/** Throws an {@link IllegalArgumentException} if this similarity does not support vectors of {@code elementType}. */
+	public void checkElementType(VectorElementType elementType) {
+	}
+
+	/** Prepares scoring {@code query} against the encoded vectors of {@code field} in the segment of {@code reader}. */
+	LeafScorer scorer(QueryVector query, LeafReader reader, String field) throws IOException {
+		final VectorElementType.DotProduct dotProduct = query.dotProduct();
+		return (doc, data) -> score(dotProduct.dot(data));
+	}
+
+	/** Scores by {@link #fromDot} with the dot product kernel of the query and the norms stored at index time. */
+	LeafScorer normScorer(QueryVector query, LeafReader reader, String field) throws IOException {
+		final VectorElementType.DotProduct dotProduct = query.dotProduct();
+		final float queryNorm = query.norm();
+		final VectorNorms.DocNorms docNorms = VectorNorms.docNorms(reader, field, query.encoding());
+		return (doc, data) -> score(fromDot(dotProduct.dot(data), queryNorm, docNorms.norm(doc, data)));
+	}
+
+	/** Name of this similarity in the mapping and in queries. */
+	public String getName() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+
+	public static VectorSimilarity fromString(String name) {
+		for (VectorSimilarity similarity : values()) {
+			if (similarity.getName().equals(name)) {
+				return similarity;
+			}
+		}
+		throw new IllegalArgumentException("Unknown similarity [" + name + "]");
+	}
+
+	private static float cosine(float dot, float aNorm, float bNorm) {
+		if (aNorm == 0 || bNorm == 0) {
+			return 0;
+		}
+		// rounding may push the cosine of (almost) parallel vectors slightly beyond [-1, 1]
+		return Math.max(-1, Math.min(1, dot / (aNorm * bNorm)));
+	}
+
+	private static float jaccard(float intersection, float aCount, float bCount) {
+		float union = aCount + bCount - intersection;
+		return union == 0 ? 1 : intersection / union;
+	}
+
+	private static void requireBits(VectorSimilarity similarity, VectorElementType elementType) {
+		if (elementType != VectorElementType.BIT) {
+			throw new IllegalArgumentException("Similarity [" + similarity.getName() + "] requires element_type ["
+					+ VectorElementType.BIT.getName() + "] but got [" + elementType.getName() + "]");
+		}
+	}
+
+	/** Smallest distance between {@code norm} and the interval {@code [min, max]}. */
+	private static float normGap(float norm, float min, float max) {
+		return norm < min ? min - norm : norm > max ? norm - max : 0;
+	}
+}
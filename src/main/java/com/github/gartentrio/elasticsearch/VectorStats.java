@@ -0,0 +1,357 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.shard.SearchOperationListener;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.shard.ShardUtils;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Counters of the work done on the vector fields of this node, per index and field. Scorers count the documents
+ * they score in plain fields and add them to the shared {@link LongAdder}s when the thread is {@link #flush()
+ * flushed}, at the end of each search phase, so the shared counters are updated once per segment and not once per
+ * document. Counters live until their index is deleted.
+ */
+final class VectorStats {
+
+	/** One in this many calls of a scorer is timed, the time of the others is extrapolated from the sample. */
+	static final int TIME_SAMPLE_INTERVAL = 64;
+
+	/** Threads that are never flushed add their counts once they have this many segments pending. */
+	static final int MAX_PENDING = 1024;
+
+	private static final Map<String, Map<String, Counters>> COUNTERS = new ConcurrentHashMap<>();
+	/** Counts of the scorers of the current thread that are not added to their counters yet. */
+	private static final ThreadLocal<List<Counters.LeafCounts>> PENDING = ThreadLocal.withInitial(ArrayList::new);
+
+	/** Flushes the counts of the search thread at the end of the query and the fetch phase. */
+	static final SearchOperationListener FLUSH_LISTENER = new SearchOperationListener() {
+		@Override
+		public void onQueryPhase(SearchContext searchContext, long tookInNanos) {
+			flush();
+		}
+
+		@Override
+		public void onFailedQueryPhase(SearchContext searchContext) {
+			flush();
+		}
+
+		@Override
+		public void onFetchPhase(SearchContext searchContext, long tookInNanos) {
+			flush();
+		}
+
+		@Override
+		public void onFailedFetchPhase(SearchContext searchContext) {
+			flush();
+		}
+	};
+
+	private VectorStats() {}
+
+	/** Returns the counters of {@code field} in {@code index}, creating them on first use. */
+	static Counters counters(String index, String field) {
+		return COUNTERS.computeIfAbsent(index, i -> new ConcurrentHashMap<>()).computeIfAbsent(field, f -> new Counters());
+	}
+
+	/** Returns the counters of {@code field} in the index of {@code reader}, {@code null} if it is not a shard reader. */
+	static Counters counters(LeafReader reader, String field) {
+		ShardId shardId = ShardUtils.extractShardId(reader);
+		return shardId == null ? null : counters(shardId.getIndexName(), field);
+	}
+
+	/**
+	 * Adds the counts of the scorers used by the current thread to their counters. Scorers may go on counting,
+	 * they are flushed again with the next flush of the thread that uses them.
+	 */
+	static void flush() {
+		List<Counters.LeafCounts> pending = PENDING.get();
+		for (Counters.LeafCounts counts : pending) {
+			counts.add();
+		}
+		pending.clear();
+	}
+
+	/** Drops the counters of a deleted index. */
+	static void remove(String index) {
+		COUNTERS.remove(index);
+	}
+
+	/** Current values of all counters, by index and field name. */
+	static Map<String, Map<String, FieldStats>> snapshot() {
+		Map<String, Map<String, FieldStats>> stats = new TreeMap<>();
+		for (Map.Entry<String, Map<String, Counters>> index : COUNTERS.entrySet()) {
+			Map<String, FieldStats> fields = new TreeMap<>();
+			for (Map.Entry<String, Counters> field : index.getValue().entrySet()) {
+				fields.put(field.getKey(), field.getValue().stats());
+			}
+			stats.put(index.getKey(), fields);
+		}
+		return stats;
+	}
+
+	/** Live counters of one field. */
+	static final class Counters {
+
+		private final LongAdder docsScored = new LongAdder();
+		/** Vectors beyond the first of multi-vector documents. */
+		private final LongAdder extraVectorsScored = new LongAdder();
+		private final LongAdder docsSkipped = new LongAdder();
+		private final LongAdder bytesDecoded = new LongAdder();
+		private final LongAdder timedScores = new LongAdder();
+		private final LongAdder timedNanos = new LongAdder();
+		private final LongAdder dimsMismatches = new LongAdder();
+		private final LongAdder cacheHits = new LongAdder();
+		private final LongAdder cacheMisses = new LongAdder();
+		private final LongAdder vectorsParsed = new LongAdder();
+		private final LongAdder parseNanos = new LongAdder();
+
+		/**
+		 * Counts the documents and bytes scored by {@code scorer}, a query of {@code queryDims} dimensions against
+		 * vectors of {@code encoding}, and samples the time it takes.
+		 */
+		VectorSimilarity.LeafScorer record(VectorSimilarity.LeafScorer scorer, VectorEncoding encoding, int queryDims) {
+			final boolean checkDims = encoding.dims() == 0;
+			final boolean multi = encoding.multi();
+			final LeafCounts counts = new LeafCounts();
+			return new VectorSimilarity.LeafScorer() {
+				private int calls;
+
+				@Override
+				public float score(int doc, BytesRef data) throws IOException {
+					counts.pending();
+					counts.docsScored++;
+					counts.bytesDecoded += data.length;
+					if (multi) {
+						counts.extraVectorsScored += encoding.count(data) - 1;
+					} else if (checkDims && encoding.dims(data) != queryDims) {
+						counts.dimsMismatches++;
+					}
+					if (calls++ % TIME_SAMPLE_INTERVAL != 0) {
+						return scorer.score(doc, data);
+					}
+					long start = System.nanoTime();
+					float score = scorer.score(doc, data);
+					counts.timedNanos += System.nanoTime() - start;
+					counts.timedScores++;
+					return score;
+				}
+			};
+		}
+
+		/** Counts and samples the documents scored from decoded vectors of the {@link VectorCache}. */
+		QueryVectors.DocScorer record(QueryVectors.DocScorer scorer) {
+			final LeafCounts counts = new LeafCounts();
+			return new QueryVectors.DocScorer() {
+				private int calls;
+
+				@Override
+				public float score(int doc) throws IOException {
+					counts.pending();
+					counts.docsScored++;
+					if (calls++ % TIME_SAMPLE_INTERVAL != 0) {
+						return scorer.score(doc);
+					}
+					long start = System.nanoTime();
+					float score = scorer.score(doc);
+					counts.timedNanos += System.nanoTime() - start;
+					counts.timedScores++;
+					return score;
+				}
+			};
+		}
+
+		/** Counts documents that were passed over without reading their vectors. */
+		void skipped(long docs) {
+			docsSkipped.add(docs);
+		}
+
+		/** Counts a segment that was, or could have been, scored from the {@link VectorCache}. */
+		void cacheLookup(boolean hit) {
+			(hit ? cacheHits : cacheMisses).increment();
+		}
+
+		/** Counts the vectors of a document parsed and encoded in {@code nanos}. */
+		void parsed(int vectors, long nanos) {
+			vectorsParsed.add(vectors);
+			parseNanos.add(nanos);
+		}
+
+		/** Counts of one segment scorer, only accessed by the thread that uses the scorer. */
+		final class LeafCounts {
+			private long docsScored;
+			private long extraVectorsScored;
+			private long bytesDecoded;
+			private long dimsMismatches;
+			private long timedScores;
+			private long timedNanos;
+			/** Whether these counts are in the pending list of the thread. */
+			private boolean pending;
+
+			/** Puts these counts in the pending list of the thread, called before counting. */
+			void pending() {
+				if (pending == false) {
+					List<LeafCounts> list = PENDING.get();
+					if (list.size() >= MAX_PENDING) {
+						flush();
+					}
+					list.add(this);
+					pending = true;
+				}
+			}
+
+			/** Adds these counts to the shared counters and resets them. */
+			void add() {
+				Counters.this.docsScored.add(this.docsScored);
+				Counters.this.extraVectorsScored.add(this.extraVectorsScored);
+				Counters.this.bytesDecoded.add(this.bytesDecoded);
+				Counters.this.dimsMismatches.add(this.dimsMismatches);
+				Counters.this.timedScores.add(this.timedScores);
+				Counters.this.timedNanos.add(this.timedNanos);
+				this.docsScored = this.extraVectorsScored = this.bytesDecoded = this.dimsMismatches = 0;
+				this.timedScores = this.timedNanos = 0;
+				pending = false;
+			}
+		}
+
+		FieldStats stats() {
+			long docs = docsScored.sum();
+			long timed = timedScores.sum();
+			long scoreNanos = timed == 0 ? 0 : (long) ((double) timedNanos.sum() * docs / timed);
+			return new FieldStats(docs, docs + extraVectorsScored.sum(), docsSkipped.sum(), bytesDecoded.sum(), scoreNanos,
+					dimsMismatches.sum(), cacheHits.sum(), cacheMisses.sum(), vectorsParsed.sum(), parseNanos.sum());
+		}
+	}
+
+	/** Values of the counters of one field at one point in time. */
+	public static final class FieldStats implements Writeable, ToXContentFragment {
+
+		private final long docsScored;
+		private final long vectorsScored;
+		private final long docsSkipped;
+		private final long bytesDecoded;
+		private final long scoreNanos;
+		private final long dimsMismatches;
+		private final long cacheHits;
+		private final long cacheMisses;
+		private final long vectorsParsed;
+		private final long parseNanos;
+
+		FieldStats(long docsScored, long vectorsScored, long docsSkipped, long bytesDecoded, long scoreNanos,
+				long dimsMismatches, long cacheHits, long cacheMisses, long vectorsParsed, long parseNanos) {
+			this.docsScored = docsScored;
+			this.vectorsScored = vectorsScored;
+			this.docsSkipped = docsSkipped;
+			this.bytesDecoded = bytesDecoded;
+			this.scoreNanos = scoreNanos;
+			this.dimsMismatches = dimsMismatches;
+			this.cacheHits = cacheHits;
+			this.cacheMisses = cacheMisses;
+			this.vectorsParsed = vectorsParsed;
+			this.parseNanos = parseNanos;
+		}
+
+		public FieldStats(StreamInput in) throws IOException {
+			docsScored = in.readVLong();
+			vectorsScored = in.readVLong();
+			docsSkipped = in.readVLong();
+			bytesDecoded = in.readVLong();
+			scoreNanos = in.readVLong();
+			dimsMismatches = in.readVLong();
+			cacheHits = in.readVLong();
+			cacheMisses = in.readVLong();
+			vectorsParsed = in.readVLong();
+			parseNanos = in.readVLong();
+		}
+
+		@Override
+		public void writeTo(StreamOutput out) throws IOException {
+			out.writeVLong(docsScored);
+			out.writeVLong(vectorsScored);
+			out.writeVLong(docsSkipped);
+			out.writeVLong(bytesDecoded);
+			out.writeVLong(scoreNanos);
+			out.writeVLong(dimsMismatches);
+			out.writeVLong(cacheHits);
+			out.writeVLong(cacheMisses);
+			out.writeVLong(vectorsParsed);
+			out.writeVLong(parseNanos);
+		}
+
+		public long docsScored() {
+			return docsScored;
+		}
+
+		public long vectorsScored() {
+			return vectorsScored;
+		}
+
+		public long docsSkipped() {
+			return docsSkipped;
+		}
+
+		public long cacheHits() {
+			return cacheHits;
+		}
+
+		public long cacheMisses() {
+			return cacheMisses;
+		}
+
+		public long vectorsParsed() {
+			return vectorsParsed;
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.startObject("search");
+			builder.field("docs_scored", docsScored);
+			builder.field("vectors_scored", vectorsScored);
+			builder.field("docs_skipped", docsSkipped);
+			builder.field("bytes_decoded", bytesDecoded);
+			builder.field("score_time_in_nanos", scoreNanos);
+			builder.field("dims_mismatches", dimsMismatches);
+			builder.field("cache_hits", cacheHits);
+			builder.field("cache_misses", cacheMisses);
+			builder.endObject();
+			builder.startObject("indexing");
+			builder.field("vectors_parsed", vectorsParsed);
+			builder.field("parse_time_in_nanos", parseNanos);
+			builder.endObject();
+			return builder;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Collects the {@link VectorStats} of the selected nodes.
+ */
+public class VectorStatsAction extends Action<VectorStatsAction.NodesResponse> {
+
+	public static final VectorStatsAction INSTANCE = new VectorStatsAction();
+	public static final String NAME = "cluster:monitor/vector/stats";
+
+	private VectorStatsAction() {
+		super(NAME);
+	}
+
+	/** Responses are read by {@link #getResponseReader()}. */
+	@Deprecated
+	@Override
+	public NodesResponse newResponse() {
+		throw new UnsupportedOperationException("usage of Streamable is to be replaced by Writeable");
+	}
+
+	@Override
+	public Writeable.Reader<NodesResponse> getResponseReader() {
+		return NodesResponse::new;
+	}
+
+	public static class NodesRequest extends BaseNodesRequest<NodesRequest> {
+
+		public NodesRequest(String... nodesIds) {
+			super(nodesIds);
+		}
+	}
+
+	public static class NodeRequest extends BaseNodeRequest {
+
+		public NodeRequest() {
+		}
+
+		NodeRequest(String nodeId) {
+			super(nodeId);
+		}
+	}
+
+	/** The stats of a single node, by index and field. */
+	public static class NodeStats extends BaseNodeResponse implements ToXContentFragment {
+
+		private Map<String, Map<String, VectorStats.FieldStats>> indices;
+
+		NodeStats() {
+		}
+
+		NodeStats(DiscoveryNode node, Map<String, Map<String, VectorStats.FieldStats>> indices) {
+			super(node);
+			this.indices = indices;
+		}
+
+		public Map<String, Map<String, VectorStats.FieldStats>> indices() {
+			return indices;
+		}
+
+		@Override
+		public void readFrom(StreamInput in) throws IOException {
+			super.readFrom(in);
+			int numIndices = in.readVInt();
+			indices = new TreeMap<>();
+			for (int i = 0; i < numIndices; i++) {
+				String index = in.readString();
+				int numFields = in.readVInt();
+				Map<String, VectorStats.FieldStats> fields = new TreeMap<>();
+				for (int f = 0; f < numFields; f++) {
+					fields.put(in.readString(), new VectorStats.FieldStats(in));
+				}
+				indices.put(index, fields);
+			}
+		}
+
+		@Override
+		public void writeTo(StreamOutput out) throws IOException {
+			super.writeTo(out);
+			out.writeVInt(indices.size());
+			for (Map.Entry<String, Map<String, VectorStats.FieldStats>> index : indices.entrySet()) {
+				out.writeString(index.getKey());
+				out.writeVInt(index.getValue().size());
+				for (Map.Entry<String, VectorStats.FieldStats> field : index.getValue().entrySet()) {
+					out.writeString(field.getKey());
+					field.getValue().writeTo(out);
+				}
+			}
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.field("name", getNode().getName());
+			builder.startObject("indices");
+			for (Map.Entry<String, Map<String, VectorStats.FieldStats>> index : indices.entrySet()) {
+				builder.startObject(index.getKey());
+				builder.startObject("fields");
+				for (Map.Entry<String, VectorStats.FieldStats> field : index.getValue().entrySet()) {
+					builder.startObject(field.getKey());
+					field.getValue().toXContent(builder, params);
+					builder.endObject();
+				}
+				builder.endObject();
+				builder.endObject();
+			}
+			builder.endObject();
+			return builder;
+		}
+	}
+
+	public static class NodesResponse extends BaseNodesResponse<NodeStats> implements ToXContentFragment {
+
+		/**
+		 * Read from a stream.
+		 */
+		NodesResponse(StreamInput in) throws IOException {
+			readFrom(in);
+		}
+
+		NodesResponse(ClusterName clusterName, List<NodeStats> nodes, List<FailedNodeException> failures) {
+			super(clusterName, nodes, failures);
+		}
+
+		@Override
+		protected List<NodeStats> readNodesFrom(StreamInput in) throws IOException {
+			return in.readList(input -> {
+				NodeStats stats = new NodeStats();
+				stats.readFrom(input);
+				return stats;
+			});
+		}
+
+		@Override
+		protected void writeNodesTo(StreamOutput out, List<NodeStats> nodes) throws IOException {
+			out.writeList(nodes);
+		}
+
+		@Override
+		public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+			builder.startObject("nodes");
+			for (NodeStats node : getNodes()) {
+				builder.startObject(node.getNode().getId());
+				node.toXContent(builder, params);
+				builder.endObject();
+			}
+			builder.endObject();
+			return builder;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Builds a {@link VectorStatsAggregator}, which computes the element-wise sum, mean (the centroid), minimum,
+ * maximum and variance of the vectors of a field.
+ */
+public class VectorStatsAggregationBuilder extends AbstractAggregationBuilder<VectorStatsAggregationBuilder> {
+
+	public static final String NAME = "vector_stats";
+
+	public static final ParseField FIELD_FIELD = new ParseField("field");
+
+	private final String field;
+
+	public VectorStatsAggregationBuilder(String name, String field) {
+		super(name);
+		if (Strings.isEmpty(field)) {
+			throw new IllegalArgumentException("[" + NAME + "] requires a [field]");
+		}
+		this.field = field;
+	}
+
+	protected VectorStatsAggregationBuilder(VectorStatsAggregationBuilder clone, AggregatorFactories.Builder factoriesBuilder,
+			Map<String, Object> metaData) {
+		super(clone, factoriesBuilder, metaData);
+		this.field = clone.field;
+	}
+
+	/**
+	 * Read from a stream.
+	 */
+	public VectorStatsAggregationBuilder(StreamInput in) throws IOException {
+		super(in);
+		field = in.readString();
+	}
+
+	@Override
+	protected void doWriteTo(StreamOutput out) throws IOException {
+		out.writeString(field);
+	}
+
+	public String field() {
+		return field;
+	}
+
+	@Override
+	public String getType() {
+		return NAME;
+	}
+
+	@Override
+	protected AggregationBuilder shallowCopy(AggregatorFactories.Builder factoriesBuilder, Map<String, Object> metaData) {
+		return new VectorStatsAggregationBuilder(this, factoriesBuilder, metaData);
+	}
+
+	@Override
+	protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+		builder.startObject();
+		builder.field(FIELD_FIELD.getPreferredName(), field);
+		builder.endObject();
+		return builder;
+	}
+
+	public static VectorStatsAggregationBuilder parse(String aggregationName, XContentParser parser) throws IOException {
+		String field = null;
+		XContentParser.Token token;
+		String currentFieldName = null;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+			if (token == XContentParser.Token.FIELD_NAME) {
+				currentFieldName = parser.currentName();
+			} else if (token.isValue() && FIELD_FIELD.match(currentFieldName, parser.getDeprecationHandler())) {
+				field = parser.text();
+			} else if (token.isValue()) {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] aggregation does not support [" + currentFieldName + "]");
+			} else {
+				throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] unknown token [" + token + "] after [" + currentFieldName + "]");
+			}
+		}
+		if (field == null) {
+			throw new ParsingException(parser.getTokenLocation(), "[" + NAME + "] must be provided with a [field]");
+		}
+		return new VectorStatsAggregationBuilder(aggregationName, field);
+	}
+
+	@Override
+	protected AggregatorFactory<?> doBuild(SearchContext context, AggregatorFactory<?> parent,
+			AggregatorFactories.Builder subFactoriesBuilder) throws IOException {
+		VectorAggregations.checkNoSubAggregations(NAME, name, subFactoriesBuilder);
+		return new Factory(name, field, context, parent, subFactoriesBuilder, metaData);
+	}
+
+	@Override
+	protected boolean doEquals(Object obj) {
+		return Objects.equals(field, ((VectorStatsAggregationBuilder) obj).field);
+	}
+
+	@Override
+	protected int doHashCode() {
+		return Objects.hash(field);
+	}
+
+	static class Factory extends AggregatorFactory<Factory> {
+
+		private final String field;
+
+		Factory(String name, String field, SearchContext context, AggregatorFactory<?> parent,
+				AggregatorFactories.Builder subFactoriesBuilder, Map<String, Object> metaData) throws IOException {
+			super(name, context, parent, subFactoriesBuilder, metaData);
+			this.field = field;
+		}
+
+		@Override
+		protected Aggregator createInternal(Aggregator parent, boolean collectsFromSingleBucket,
+				List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+			if (collectsFromSingleBucket == false) {
+				return asMultiBucketAggregator(this, context, parent);
+			}
+			VectorEncoding encoding = VectorAggregations.encoding(context, NAME, field);
+			return new VectorStatsAggregator(name, field, encoding, context, parent, pipelineAggregators, metaData);
+		}
+	}
+}
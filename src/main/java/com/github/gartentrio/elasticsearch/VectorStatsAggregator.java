@@ -0,0 +1,113 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.internal.SearchContext;
+
+/**
+ * Sums the vectors of a field and their squares per dimension, and tracks the minimum and maximum of every
+ * dimension. Every vector of a multi-vector field counts on its own.
+ */
+class VectorStatsAggregator extends MetricsAggregator {
+
+	private final String field;
+	/** {@code null} if the field is not mapped in this shard. */
+	private final VectorEncoding encoding;
+
+	private long count;
+	private double[] sum;
+	private double[] sumOfSquares;
+	private double[] min;
+	private double[] max;
+
+	VectorStatsAggregator(String name, String field, VectorEncoding encoding, SearchContext context,
+			Aggregator parent, List<PipelineAggregator> pipelineAggregators,
+			Map<String, Object> metaData) throws IOException {
+		super(name, context, parent, pipelineAggregators, metaData);
+		this.field = field;
+		this.encoding = encoding;
+	}
+
+	@Override
+	protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+		final VectorAggregations.LeafVectors vectors = encoding == null ? null : VectorAggregations.LeafVectors.get(ctx.reader(), field, encoding);
+		if (vectors == null) {
+			return LeafBucketCollector.NO_OP_COLLECTOR;
+		}
+		return new LeafBucketCollectorBase(sub, null) {
+			@Override
+			public void collect(int doc, long bucket) throws IOException {
+				if (vectors.advanceExact(doc) == false) {
+					return;
+				}
+				for (int i = 0, n = vectors.count(); i < n; i++) {
+					add(vectors.decode(i), vectors.dims());
+				}
+			}
+		};
+	}
+
+	private void add(float[] vector, int dims) {
+		if (sum == null) {
+			addRequestCircuitBreakerBytes(4L * dims * Double.BYTES);
+			sum = new double[dims];
+			sumOfSquares = new double[dims];
+			min = new double[dims];
+			max = new double[dims];
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		} else {
+			VectorAggregations.checkDims(VectorStatsAggregationBuilder.NAME, sum.length, dims);
+		}
+		for (int d = 0; d < dims; d++) {
+			double value = vector[d];
+			sum[d] += value;
+			sumOfSquares[d] += value * value;
+			min[d] = Math.min(min[d], value);
+			max[d] = Math.max(max[d], value);
+		}
+		count++;
+	}
+
+	@Override
+	public InternalAggregation buildAggregation(long bucket) {
+		if (sum == null) {
+			return buildEmptyAggregation();
+		}
+		return new InternalVectorStats(name, count, sum, sumOfSquares, min, max, pipelineAggregators(), metaData());
+	}
+
+	@Override
+	public InternalAggregation buildEmptyAggregation() {
+		return InternalVectorStats.empty(name, pipelineAggregators(), metaData());
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorKernels} on the SIMD vectors of {@code jdk.incubator.vector}, in the preferred species of the
+ * hardware. Loaded by {@link VectorKernels#INSTANCE} if the module is available, only uses the part of the API
+ * that is common to all releases of the incubator module.
+ */
+final class PanamaVectorKernels extends VectorKernels {
+
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	/** Bytes are widened to ints, so integer kernels need 8 int lanes per 64 bits of bytes. */
+	private static final boolean WIDE_INTS = IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256;
+
+	PanamaVectorKernels() {
+		if (FLOATS.length() < 4) {
+			throw new UnsupportedOperationException("No SIMD support, the preferred species has [" + FLOATS.length() + "] lanes");
+		}
+	}
+
+	@Override
+	String name() {
+		return "simd[" + FLOATS.vectorBitSize() + "]";
+	}
+
+	@Override
+	float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		FloatVector acc = FloatVector.zero(FLOATS);
+		int i = 0;
+		for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+			FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+			FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+			acc = va.fma(vb, acc);
+		}
+		float sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += a[aOffset + i] * b[bOffset + i];
+		}
+		return sum;
+	}
+
+	@Override
+	void dotMatrix(float[] matrix, int rows, float[] x, int dims, float[] out) {
+		final int bound = FLOATS.loopBound(dims);
+		int r = 0;
+		for (; r + 4 <= rows; r += 4) {
+			final int o0 = r * dims, o1 = o0 + dims, o2 = o1 + dims, o3 = o2 + dims;
+			FloatVector acc0 = FloatVector.zero(FLOATS);
+			FloatVector acc1 = FloatVector.zero(FLOATS);
+			FloatVector acc2 = FloatVector.zero(FLOATS);
+			FloatVector acc3 = FloatVector.zero(FLOATS);
+			int i = 0;
+			for (; i < bound; i += FLOATS.length()) {
+				FloatVector vx = FloatVector.fromArray(FLOATS, x, i);
+				acc0 = FloatVector.fromArray(FLOATS, matrix, o0 + i).fma(vx, acc0);
+				acc1 = FloatVector.fromArray(FLOATS, matrix, o1 + i).fma(vx, acc1);
+				acc2 = FloatVector.fromArray(FLOATS, matrix, o2 + i).fma(vx, acc2);
+				acc3 = FloatVector.fromArray(FLOATS, matrix, o3 + i).fma(vx, acc3);
+			}
+			float s0 = acc0.reduceLanes(VectorOperators.ADD);
+			float s1 = acc1.reduceLanes(VectorOperators.ADD);
+			float s2 = acc2.reduceLanes(VectorOperators.ADD);
+			float s3 = acc3.reduceLanes(VectorOperators.ADD);
+			for (; i < dims; i++) {
+				s0 += matrix[o0 + i] * x[i];
+				s1 += matrix[o1 + i] * x[i];
+				s2 += matrix[o2 + i] * x[i];
+				s3 += matrix[o3 + i] * x[i];
+			}
+			out[r] = s0;
+			out[r + 1] = s1;
+			out[r + 2] = s2;
+			out[r + 3] = s3;
+		}
+		for (; r < rows; r++) {
+			out[r] = dot(matrix, r * dims, x, 0, dims);
+		}
+	}
+
+	@Override
+	float squareDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		FloatVector acc = FloatVector.zero(FLOATS);
+		int i = 0;
+		for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+			FloatVector diff = FloatVector.fromArray(FLOATS, a, aOffset + i).sub(FloatVector.fromArray(FLOATS, b, bOffset + i));
+			acc = diff.fma(diff, acc);
+		}
+		float sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			float diff = a[aOffset + i] - b[bOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	@Override
+	float l1Distance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		FloatVector acc = FloatVector.zero(FLOATS);
+		int i = 0;
+		for (int bound = FLOATS.loopBound(length); i < bound; i += FLOATS.length()) {
+			FloatVector diff = FloatVector.fromArray(FLOATS, a, aOffset + i).sub(FloatVector.fromArray(FLOATS, b, bOffset + i));
+			acc = acc.add(diff.abs());
+		}
+		float sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += Math.abs(a[aOffset + i] - b[bOffset + i]);
+		}
+		return sum;
+	}
+
+	@Override
+	int dotSignedUnsigned(byte[] a, byte[] b, int bOffset, int length) {
+		if (WIDE_INTS == false) {
+			return super.dotSignedUnsigned(a, b, bOffset, length);
+		}
+		IntVector acc = IntVector.zero(IntVector.SPECIES_256);
+		int i = 0;
+		for (int bound = ByteVector.SPECIES_64.loopBound(length); i < bound; i += ByteVector.SPECIES_64.length()) {
+			IntVector va = (IntVector) ByteVector.fromArray(ByteVector.SPECIES_64, a, i)
+					.convertShape(VectorOperators.B2I, IntVector.SPECIES_256, 0);
+			IntVector vb = ((IntVector) ByteVector.fromArray(ByteVector.SPECIES_64, b, bOffset + i)
+					.convertShape(VectorOperators.B2I, IntVector.SPECIES_256, 0)).and(0xFF);
+			acc = acc.add(va.mul(vb));
+		}
+		int sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += a[i] * (b[bOffset + i] & 0xFF);
+		}
+		return sum;
+	}
+}
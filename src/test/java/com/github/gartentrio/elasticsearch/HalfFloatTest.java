@@ -0,0 +1,80 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HalfFloatTest {
+
+    @Test
+    public void testHalfRoundTrip() {
+        for (int bits = 0; bits < 1 << 16; bits++) {
+            float value = HalfFloat.halfToFloat(bits);
+            if (Float.isNaN(value)) {
+                Assert.assertTrue(Float.isNaN(HalfFloat.halfToFloat(HalfFloat.floatToHalf(value))));
+            } else {
+                Assert.assertEquals("bits " + Integer.toHexString(bits), bits, HalfFloat.floatToHalf(value) & 0xFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testBFloat16RoundTrip() {
+        for (int bits = 0; bits < 1 << 16; bits++) {
+            float value = HalfFloat.bfloat16ToFloat(bits);
+            if (Float.isNaN(value)) {
+                Assert.assertTrue(Float.isNaN(HalfFloat.bfloat16ToFloat(HalfFloat.floatToBFloat16(value))));
+            } else {
+                Assert.assertEquals("bits " + Integer.toHexString(bits), bits, HalfFloat.floatToBFloat16(value) & 0xFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundsToNearest() {
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            float value = (float) (random.nextGaussian() * Math.pow(2, random.nextInt(40) - 25));
+            int half = HalfFloat.floatToHalf(value) & 0xFFFF;
+            assertNearest(value, HalfFloat.halfToFloat(half), HalfFloat.halfToFloat(half - 1), HalfFloat.halfToFloat(half + 1));
+            int bfloat = HalfFloat.floatToBFloat16(value) & 0xFFFF;
+            assertNearest(value, HalfFloat.bfloat16ToFloat(bfloat), HalfFloat.bfloat16ToFloat(bfloat - 1),
+                    HalfFloat.bfloat16ToFloat(bfloat + 1));
+        }
+        Assert.assertEquals(Float.POSITIVE_INFINITY, HalfFloat.halfToFloat(HalfFloat.floatToHalf(65520f)), 0);
+        Assert.assertEquals(65504f, HalfFloat.halfToFloat(HalfFloat.floatToHalf(65519f)), 0);
+    }
+
+    private static void assertNearest(float value, float rounded, float below, float above) {
+        if (Float.isInfinite(rounded)) {
+            return;
+        }
+        double error = Math.abs((double) rounded - value);
+        if (Float.isNaN(below) == false && Math.signum(below) == Math.signum(rounded)) {
+            Assert.assertTrue(value + " rounded to " + rounded, error <= Math.abs((double) below - value));
+        }
+        if (Float.isNaN(above) == false && Float.isInfinite(above) == false && Math.signum(above) == Math.signum(rounded)) {
+            Assert.assertTrue(value + " rounded to " + rounded, error <= Math.abs((double) above - value));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.settings.Settings;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Macro benchmark on the embedded {@link TestServer}: indexes a vector corpus, runs a query workload with concurrent
+ * clients and reports indexing throughput, QPS, latency percentiles, memory and recall@k against the exact nearest
+ * neighbours of the corpus, brute-forced on the original floats. Comparing runs with different {@code bench.query},
+ * {@code bench.index} and {@code bench.element_type} on the same corpus shows what approximate search and quantization
+ * cost in recall. Configured by system properties, e.g.
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.github.gartentrio.elasticsearch.LoadBenchmark -Dexec.classpathScope=test \
+ *     -Dbench.docs=100000 -Dbench.dims=256 -Dbench.query=knn -Dbench.index=hnsw
+ * </pre>
+ * <ul>
+ * <li>{@code bench.corpus}: {@code .fvecs} file or text file with one vector per line, synthetic clustered vectors if unset</li>
+ * <li>{@code bench.queries_file}: query vectors in the same formats, synthetic vectors if unset</li>
+ * <li>{@code bench.docs}, {@code bench.dims}, {@code bench.clusters}, {@code bench.seed}: the synthetic corpus</li>
+ * <li>{@code bench.shards}, {@code bench.bulk_size}: the index</li>
+ * <li>{@code bench.element_type}, {@code bench.similarity}: the mapping</li>
+ * <li>{@code bench.index}: {@code none}, {@code hnsw} or {@code ivf}, with {@code bench.m}, {@code bench.ef_construction} and {@code bench.nlist}</li>
+ * <li>{@code bench.query}: {@code vector_dot}, {@code script} or {@code knn}, with {@code bench.ef_search} and {@code bench.nprobe}</li>
+ * <li>{@code bench.queries}, {@code bench.warmup_queries}, {@code bench.concurrency}, {@code bench.k}: the workload</li>
+ * <li>{@code bench.cache_size}: {@code vector.cache.size} of the node</li>
+ * </ul>
+ */
+public class LoadBenchmark {
+
+    private static final String INDEX = "benchmark";
+    private static final String FIELD = "vector";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int k = intProperty("bench.k", 10);
+    private final int concurrency = intProperty("bench.concurrency", 4);
+    private final String queryType = System.getProperty("bench.query", "vector_dot");
+    private final String indexType = System.getProperty("bench.index", "none");
+    private final VectorSimilarity similarity = VectorSimilarity.fromString(System.getProperty("bench.similarity", "cosine"));
+    private final String elementType = System.getProperty("bench.element_type", "float");
+    private RestClient client;
+
+    public static void main(String[] args) throws Exception {
+        new LoadBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        Random random = new Random(intProperty("bench.seed", 0));
+        float[][] corpus = corpus(random);
+        float[][] queries = queries(corpus[0].length, random);
+        System.out.println(String.format(Locale.ROOT, "corpus: %d x %d, %d queries, %s %s, index %s, query %s, k %d",
+                corpus.length, corpus[0].length, queries.length, elementType, similarity.getName(), indexType, queryType, k));
+
+        Settings nodeSettings = Settings.builder()
+                .put("vector.cache.size", System.getProperty("bench.cache_size", "0"))
+                .build();
+        TestServer server = new TestServer(nodeSettings);
+        client = RestClient.builder(new HttpHost("localhost", server.getPort(), "http")).build();
+        try {
+            createIndex(corpus, random);
+            long start = System.nanoTime();
+            index(corpus);
+            double indexSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.ROOT, "indexing: %.0f docs/s (%.1f s)", corpus.length / indexSeconds,
+                    indexSeconds));
+
+            int[][] truth = groundTruth(corpus, queries);
+            runQueries(queries, intProperty("bench.warmup_queries", Math.min(100, queries.length)), null);
+            long[] latencies = new long[queries.length];
+            int[][] results = new int[queries.length][];
+            start = System.nanoTime();
+            runQueries(queries, queries.length, (i, latency, ids) -> {
+                latencies[i] = latency;
+                results[i] = ids;
+            });
+            double querySeconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ROOT, "search: %.1f QPS, latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms",
+                    queries.length / querySeconds, percentile(latencies, 50), percentile(latencies, 95),
+                    percentile(latencies, 99)));
+            System.out.println(String.format(Locale.ROOT, "recall@%d: %.4f", k, recall(truth, results)));
+            printMemory();
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+
+    private float[][] corpus(Random random) throws IOException {
+        String file = System.getProperty("bench.corpus");
+        if (file != null) {
+            return read(file, intProperty("bench.docs", Integer.MAX_VALUE));
+        }
+        int docs = intProperty("bench.docs", 10000);
+        int dims = intProperty("bench.dims", 128);
+        float[][] centers = new float[intProperty("bench.clusters", 100)][];
+        for (int c = 0; c < centers.length; c++) {
+            centers[c] = gaussian(dims, 1, random);
+        }
+        float[][] corpus = new float[docs][];
+        for (int i = 0; i < docs; i++) {
+            corpus[i] = around(centers[random.nextInt(centers.length)], random);
+        }
+        return corpus;
+    }
+
+    private float[][] queries(int dims, Random random) throws IOException {
+        int count = intProperty("bench.queries", 1000);
+        String file = System.getProperty("bench.queries_file");
+        if (file != null) {
+            return read(file, count);
+        }
+        float[][] queries = new float[count][];
+        for (int i = 0; i < count; i++) {
+            queries[i] = around(gaussian(dims, 1, random), random);
+        }
+        return queries;
+    }
+
+    /** A point near {@code center}, with half its spread. */
+    private static float[] around(float[] center, Random random) {
+        float[] noise = gaussian(center.length, 0.5, random);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] += center[i];
+        }
+        return noise;
+    }
+
+    private static float[] gaussian(int dims, double sigma, Random random) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    /** Reads up to {@code max} vectors of an {@code .fvecs} file or of a text file with one vector per line. */
+    private static float[][] read(String file, int max) throws IOException {
+        List<float[]> vectors = new ArrayList<>();
+        if (file.endsWith(".fvecs")) {
+            try (InputStream in = Files.newInputStream(Paths.get(file));
+                    DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                byte[] header = new byte[Integer.BYTES];
+                while (vectors.size() < max) {
+                    try {
+                        data.readFully(header);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int dims = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                    byte[] bytes = new byte[dims * Float.BYTES];
+                    data.readFully(bytes);
+                    float[] vector = new float[dims];
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+                    vectors.add(vector);
+                }
+            }
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+                for (String line = reader.readLine(); line != null && vectors.size() < max; line = reader.readLine()) {
+                    String[] values = line.trim().split("[\\s,]+");
+                    if (values.length == 0 || values[0].isEmpty()) {
+                        continue;
+                    }
+                    float[] vector = new float[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        vector[i] = Float.parseFloat(values[i]);
+                    }
+                    vectors.add(vector);
+                }
+            }
+        }
+        if (vectors.isEmpty()) {
+            throw new IllegalArgumentException("No vectors in [" + file + "]");
+        }
+        return vectors.toArray(new float[0][]);
+    }
+
+    private void createIndex(float[][] corpus, Random random) throws IOException {
+        String index = "";
+        if (indexType.equals("hnsw")) {
+            index = ", \"index\": { \"type\": \"hnsw\", \"m\": " + intProperty("bench.m", 16) + ", \"ef_construction\": "
+                    + intProperty("bench.ef_construction", 100) + " }";
+        } else if (indexType.equals("ivf")) {
+            float[][] centroids = new float[Math.min(intProperty("bench.nlist", 64), corpus.length)][];
+            for (int i = 0; i < centroids.length; i++) {
+                centroids[i] = corpus[random.nextInt(corpus.length)];
+            }
+            index = ", \"index\": { \"type\": \"ivf\", \"centroids\": " + mapper.writeValueAsString(centroids) + " }";
+        } else if (indexType.equals("none") == false) {
+            throw new IllegalArgumentException("Unknown bench.index [" + indexType + "]");
+        }
+        Request request = new Request("PUT", "/" + INDEX);
+        request.setJsonEntity("{" +
+                "  \"settings\": { \"number_of_shards\": " + intProperty("bench.shards", 1) + ", \"number_of_replicas\": 0 }," +
+                "  \"mappings\": {" +
+                "    \"_source\": { \"enabled\": false }," +
+                "    \"properties\": {" +
+                "      \"" + FIELD + "\": {" +
+                "        \"type\": \"vector\"," +
+                "        \"dims\": " + corpus[0].length + "," +
+                "        \"element_type\": \"" + elementType + "\"," +
+                "        \"similarity\": \"" + similarity.getName() + "\"" + index +
+                "      }" +
+                "    }" +
+                "  }" +
+                "}");
+        client.performRequest(request);
+    }
+
+    private void index(float[][] corpus) throws IOException {
+        int bulkSize = intProperty("bench.bulk_size", 1000);
+        for (int from = 0; from < corpus.length; from += bulkSize) {
+            StringBuilder bulk = new StringBuilder();
+            for (int i = from; i < Math.min(corpus.length, from + bulkSize); i++) {
+                bulk.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n");
+                bulk.append("{\"").append(FIELD).append("\":").append(mapper.writeValueAsString(corpus[i])).append("}\n");
+            }
+            Request request = new Request("POST", "/" + INDEX + "/_bulk");
+            request.setJsonEntity(bulk.toString());
+            Response response = client.performRequest(request);
+            if (EntityUtils.toString(response.getEntity()).contains("\"errors\":true")) {
+                throw new IllegalStateException("Bulk request failed");
+            }
+        }
+        client.performRequest(new Request("POST", "/" + INDEX + "/_refresh"));
+    }
+
+    /** Exact top {@code k} document ids of every query by the similarity of the mapping. */
+    private int[][] groundTruth(float[][] corpus, float[][] queries) {
+        int[][] truth = new int[queries.length][];
+        for (int q = 0; q < queries.length; q++) {
+            HnswGraph.NodeQueue top = new HnswGraph.NodeQueue(k, false);
+            for (int doc = 0; doc < corpus.length; doc++) {
+                top.insertWithOverflow(doc, similarity.compare(queries[q], 0, corpus[doc], 0, corpus[doc].length));
+            }
+            int[] ids = new int[top.size()];
+            for (int i = ids.length - 1; i >= 0; i--) {
+                ids[i] = top.pop();
+            }
+            truth[q] = ids;
+        }
+        return truth;
+    }
+
+    @FunctionalInterface
+    private interface ResultConsumer {
+        void accept(int query, long latencyNanos, int[] ids);
+    }
+
+    private void runQueries(float[][] queries, int count, ResultConsumer consumer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            AtomicInteger next = new AtomicInteger();
+            List<Future<?>> clients = new ArrayList<>();
+            for (int c = 0; c < concurrency; c++) {
+                clients.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                        float[] query = queries[i % queries.length];
+                        Request request = new Request("POST", "/" + INDEX + "/_search");
+                        request.setJsonEntity(searchBody(query));
+                        long start = System.nanoTime();
+                        Response response = client.performRequest(request);
+                        long latency = System.nanoTime() - start;
+                        if (consumer != null) {
+                            consumer.accept(i, latency, ids(EntityUtils.toString(response.getEntity())));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : clients) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private String searchBody(float[] query) throws IOException {
+        String vector = mapper.writeValueAsString(query);
+        String body;
+        if (queryType.equals("vector_dot")) {
+            body = "{ \"vector_dot\": { \"field\": \"" + FIELD + "\", \"vector\": " + vector + " } }";
+        } else if (queryType.equals("script")) {
+            body = "{ \"function_score\": { \"boost_mode\": \"replace\", \"script_score\": { \"script\": {" +
+                    "  \"lang\": \"vector_score\", \"source\": \"vector_score\"," +
+                    "  \"params\": { \"field\": \"" + FIELD + "\", \"vector\": " + vector + " } } } } }";
+        } else if (queryType.equals("knn")) {
+            body = "{ \"knn\": { \"field\": \"" + FIELD + "\", \"vector\": " + vector + ", \"k\": " + k +
+                    ", \"ef_search\": " + intProperty("bench.ef_search", 100) + ", \"nprobe\": " + intProperty("bench.nprobe", 4) + " } }";
+        } else {
+            throw new IllegalArgumentException("Unknown bench.query [" + queryType + "]");
+        }
+        return "{ \"size\": " + k + ", \"_source\": false, \"query\": " + body + " }";
+    }
+
+    private int[] ids(String response) throws IOException {
+        JsonNode hits = mapper.readTree(response).get("hits").get("hits");
+        int[] ids = new int[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).get("_id").asInt();
+        }
+        return ids;
+    }
+
+    private double recall(int[][] truth, int[][] results) {
+        long found = 0;
+        long total = 0;
+        for (int q = 0; q < truth.length; q++) {
+            Set<Integer> expected = new HashSet<>();
+            for (int id : truth[q]) {
+                expected.add(id);
+            }
+            for (int id : results[q]) {
+                if (expected.contains(id)) {
+                    found++;
+                }
+            }
+            total += truth[q].length;
+        }
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    private static double percentile(long[] sortedNanos, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    private void printMemory() throws IOException {
+        Response response = client.performRequest(new Request("GET", "/_nodes/_local/stats/jvm"));
+        JsonNode jvm = mapper.readTree(EntityUtils.toString(response.getEntity())).get("nodes").elements().next().get("jvm");
+        JsonNode bufferPools = jvm.get("buffer_pools");
+        System.out.println(String.format(Locale.ROOT, "memory: heap %d MB, direct %d MB, mapped %d MB",
+                jvm.get("mem").get("heap_used_in_bytes").asLong() >> 20,
+                bufferPools.get("direct").get("used_in_bytes").asLong() >> 20,
+                bufferPools.get("mapped").get("used_in_bytes").asLong() >> 20));
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -20,17 +20,26 @@
 package com.github.gartentrio.elasticsearch;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.http.HttpHost;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -128,8 +137,1202 @@ public class PluginTest {
         ArrayNode hitsJson = (ArrayNode)mapper.readTree(resBody).get("hits").get("hits");
         Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 0);
         Assert.assertEquals(0.71428573, hitsJson.get(1).get("_score").asDouble(), 0);
+        // Testing stored vectors
+        JsonNode stored = hitsJson.get(0).get("fields").get("image_vector");
+        Assert.assertEquals(1, stored.size());
+        for (int i = 0; i < imgs[0].imageVector.length; i++) {
+            Assert.assertEquals(imgs[0].imageVector[i], stored.get(0).get(i).floatValue(), 0);
+        }
   }
 
+    @Test
+    public void testKnnHnsw() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_hnsw", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"index\": { \"type\": \"hnsw\", \"m\": 8, \"ef_construction\": 50 }\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] imgs = randomImages(200, 16, new Random(42));
+        bulkIndex("test_hnsw", imgs);
+
+        for (int i = 0; i < 10; i++) {
+            TestImage query = imgs[i * 17];
+            String body = "{" +
+                    "  \"query\": {" +
+                    "    \"knn\": {" +
+                    "      \"field\": \"image_vector\"," +
+                    "      \"vector\": " + mapper.writeValueAsString(query.imageVector) + "," +
+                    "      \"k\": 5," +
+                    "      \"ef_search\": 50" +
+                    "    }" +
+                    "  }" +
+                    "}";
+            Request searchRequest = new Request("POST", "/test_hnsw/_search");
+            searchRequest.setJsonEntity(body);
+            Response res = esClient.performRequest(searchRequest);
+            ArrayNode hitsJson = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+            Assert.assertEquals(5, hitsJson.size());
+            Assert.assertEquals(String.valueOf(query.imageId), hitsJson.get(0).get("_id").asText());
+            Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-5);
+        }
+    }
+
+    @Test
+    public void testKnnIvf() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        TestImage[] imgs = randomImages(200, 16, new Random(7));
+        float[][] centroids = new float[8][];
+        for (int i = 0; i < centroids.length; i++) {
+            centroids[i] = imgs[i * 25].imageVector;
+        }
+        createIndex("test_ivf", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"index\": { \"type\": \"ivf\", \"centroids\": " + mapper.writeValueAsString(centroids) + " }\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_ivf", imgs);
+
+        for (int i = 0; i < 10; i++) {
+            TestImage query = imgs[i * 13];
+            String body = "{" +
+                    "  \"query\": {" +
+                    "    \"knn\": {" +
+                    "      \"field\": \"image_vector\"," +
+                    "      \"vector\": " + mapper.writeValueAsString(query.imageVector) + "," +
+                    "      \"k\": 3," +
+                    "      \"nprobe\": 1" +
+                    "    }" +
+                    "  }" +
+                    "}";
+            Request searchRequest = new Request("POST", "/test_ivf/_search");
+            searchRequest.setJsonEntity(body);
+            Response res = esClient.performRequest(searchRequest);
+            ArrayNode hitsJson = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+            Assert.assertTrue(hitsJson.size() <= 3);
+            Assert.assertEquals(String.valueOf(query.imageId), hitsJson.get(0).get("_id").asText());
+            Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-5);
+        }
+
+        // clusters are assigned and probed by the similarity of the field, not by the dot product
+        createIndex("test_ivf_l2", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"similarity\": \"l2\",\n" +
+                "        \"index\": { \"type\": \"ivf\", \"centroids\": [[1, 0], [0, 10]] }\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_ivf_l2", new TestImage[] {
+            new TestImage(0, new float[] {2, 1}),
+            new TestImage(1, new float[] {0, 9})});
+        ArrayNode hits = search("test_ivf_l2", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": [3, 0.2], " +
+                "\"k\": 1, \"nprobe\": 1 } }");
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("0", hits.get(0).get("_id").asText());
+        try {
+            search("test_ivf_l2", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": [3, 0.2], " +
+                    "\"similarity\": \"dot_product\" } }");
+            Assert.fail("knn with a different similarity than the ivf clusters must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testInt8ElementType() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_int8", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"element_type\": \"int8\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_int8", new TestImage[] {
+            new TestImage(0, new float[] {0.26726124f, 0.53452248f, 0.80178373f}),
+            new TestImage(1, new float[] {0.80178373f, 0.53452248f, 0.26726124f})});
+
+        ArrayNode hitsJson = scriptScore("test_int8", "[0.26726124, 0.53452248, 0.80178373]");
+        Assert.assertEquals(2, hitsJson.size());
+        Assert.assertEquals("0", hitsJson.get(0).get("_id").asText());
+        Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 0.01);
+        Assert.assertEquals(0.71428573, hitsJson.get(1).get("_score").asDouble(), 0.01);
+    }
+
+    @Test
+    public void testInt8PruningAtThreshold() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_int8_pruning", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"element_type\": \"int8\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        // the quantized query [1, 126/127] has a smaller norm than the query, but the product uses sum(q)
+        bulkIndex("test_int8_pruning", new TestImage[] {
+            new TestImage(0, new float[] {9.995f, 9.995f}),
+            new TestImage(1, new float[] {9.995f, 9.995f}),
+            new TestImage(2, new float[] {9.995f, 9.995f}),
+            new TestImage(3, new float[] {10, 10})});
+
+        Request searchRequest = new Request("POST", "/test_int8_pruning/_search");
+        searchRequest.setJsonEntity("{ \"size\": 3, \"track_total_hits\": false, " +
+                "\"query\": { \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0.996] } } }");
+        ArrayNode hits = (ArrayNode) mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                .get("hits").get("hits");
+        Assert.assertEquals(3, hits.size());
+        Assert.assertEquals("3", hits.get(0).get("_id").asText());
+        Assert.assertEquals(19.96, hits.get(0).get("_score").asDouble(), 1e-3);
+        Assert.assertEquals(19.95, hits.get(1).get("_score").asDouble(), 1e-3);
+    }
+
+    @Test
+    public void testBase64Vector() throws Exception {
+        createIndex("test_base64", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        float[] vector = {0.26726124f, 0.53452248f, 0.80178373f};
+        ByteBuffer bytes = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(vector);
+        Request indexRequest = new Request("POST", "/test_base64/_doc/0");
+        indexRequest.addParameter("refresh", "true");
+        indexRequest.setJsonEntity("{\"image_vector\": \"" + Base64.getEncoder().encodeToString(bytes.array()) + "\"}");
+        esClient.performRequest(indexRequest);
+
+        ArrayNode hitsJson = scriptScore("test_base64", "[0.26726124, 0.53452248, 0.80178373]");
+        Assert.assertEquals(1, hitsJson.size());
+        Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-6);
+
+        // query vectors can be given in the same format
+        String base64Json = "\"" + Base64.getEncoder().encodeToString(bytes.array()) + "\"";
+        hitsJson = scriptScore("test_base64", base64Json);
+        Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-6);
+        hitsJson = search("test_base64", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": " + base64Json + " } }");
+        Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-6);
+
+        Request nestedRequest = new Request("POST", "/test_base64/_doc/1");
+        nestedRequest.setJsonEntity("{\"image_vector\": [[0.1, 0.2], [0.3, 0.4]]}");
+        try {
+            esClient.performRequest(nestedRequest);
+            Assert.fail("nested arrays should be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testFixedDims() throws Exception {
+        createIndex("test_dims", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 3,\n" +
+                "        \"boost\": 2\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_dims", new TestImage[] {
+            new TestImage(0, new float[] {0.26726124f, 0.53452248f, 0.80178373f}),
+            new TestImage(1, new float[] {0.80178373f, 0.53452248f, 0.26726124f})});
+
+        ArrayNode hitsJson = scriptScore("test_dims", "[0.26726124, 0.53452248, 0.80178373]");
+        Assert.assertEquals(2, hitsJson.size());
+        Assert.assertEquals(1.0, hitsJson.get(0).get("_score").asDouble(), 1e-6);
+        Assert.assertEquals(0.71428573, hitsJson.get(1).get("_score").asDouble(), 1e-6);
+
+        // the mapping survives a round trip
+        Response res = esClient.performRequest(new Request("GET", "/test_dims/_mapping"));
+        JsonNode mapping = new ObjectMapper().readTree(EntityUtils.toString(res.getEntity())).get("test_dims").get("mappings")
+                .get("properties").get("image_vector");
+        Assert.assertEquals(3, mapping.get("dims").asInt());
+        Assert.assertEquals(2.0, mapping.get("boost").asDouble(), 0);
+
+        Request indexRequest = new Request("POST", "/test_dims/_doc/2");
+        indexRequest.setJsonEntity("{\"image_vector\": [0.6, 0.8]}");
+        try {
+            esClient.performRequest(indexRequest);
+            Assert.fail("a vector with the wrong number of dimensions should be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+
+        Request searchRequest = new Request("POST", "/test_dims/_search");
+        searchRequest.setJsonEntity("{\"query\": {\"vector_dot\": {\"field\": \"image_vector\", \"vector\": [0.6, 0.8]}}}");
+        try {
+            esClient.performRequest(searchRequest);
+            Assert.fail("a query vector with the wrong number of dimensions should be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testVectorDot() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_vector_dot", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\"\n" +
+                "      },\n" +
+                "      \"image_id\": {\n" +
+                "        \"type\": \"long\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] imgs = randomImages(100, 8, new Random(3));
+        bulkIndex("test_vector_dot", imgs);
+
+        String vectorJson = mapper.writeValueAsString(imgs[11].imageVector);
+        ArrayNode expected = scriptScore("test_vector_dot", vectorJson);
+        String body = "{" +
+                "  \"query\": {" +
+                "    \"vector_dot\": {" +
+                "      \"field\": \"image_vector\"," +
+                "      \"vector\": " + vectorJson +
+                "    }" +
+                "  }" +
+                "}";
+        Request searchRequest = new Request("POST", "/test_vector_dot/_search");
+        searchRequest.setJsonEntity(body);
+        Response res = esClient.performRequest(searchRequest);
+        ArrayNode hitsJson = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+        Assert.assertEquals(expected.size(), hitsJson.size());
+        Assert.assertEquals("11", hitsJson.get(0).get("_id").asText());
+        for (int i = 0; i < hitsJson.size(); i++) {
+            Assert.assertEquals(expected.get(i).get("_score").asDouble(), hitsJson.get(i).get("_score").asDouble(), 1e-6);
+        }
+
+        // as a scoring clause of a bool query
+        body = "{" +
+                "  \"query\": {" +
+                "    \"bool\": {" +
+                "      \"must\": { \"vector_dot\": { \"field\": \"image_vector\", \"vector\": " + vectorJson + " } }," +
+                "      \"filter\": { \"range\": { \"image_id\": { \"gte\": 50 } } }" +
+                "    }" +
+                "  }" +
+                "}";
+        searchRequest.setJsonEntity(body);
+        res = esClient.performRequest(searchRequest);
+        hitsJson = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+        Assert.assertEquals(10, hitsJson.size());
+        for (int i = 0; i < hitsJson.size(); i++) {
+            Assert.assertTrue(hitsJson.get(i).get("_id").asInt() >= 50);
+        }
+    }
+
+    @Test
+    public void testVectorDotSkewedNorms() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_vector_dot_norms", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        Random random = new Random(5);
+        TestImage[] imgs = randomImages(1000, 8, random);
+        for (TestImage img : imgs) {
+            // a few blocks of large vectors among many small ones
+            float scale = img.imageId % 300 < 20 ? 10 : 0.1f + random.nextFloat();
+            for (int j = 0; j < img.imageVector.length; j++) {
+                img.imageVector[j] *= scale;
+            }
+        }
+        bulkIndex("test_vector_dot_norms", imgs);
+
+        for (int q = 0; q < 5; q++) {
+            String vectorJson = mapper.writeValueAsString(randomImages(1, 8, random)[0].imageVector);
+            ArrayNode expected = scriptScore("test_vector_dot_norms", vectorJson);
+            String body = "{" +
+                    "  \"query\": {" +
+                    "    \"vector_dot\": {" +
+                    "      \"field\": \"image_vector\"," +
+                    "      \"vector\": " + vectorJson +
+                    "    }" +
+                    "  }," +
+                    "  \"track_total_hits\": false" +
+                    "}";
+            Request searchRequest = new Request("POST", "/test_vector_dot_norms/_search");
+            searchRequest.setJsonEntity(body);
+            Response res = esClient.performRequest(searchRequest);
+            ArrayNode hitsJson = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+            Assert.assertEquals(expected.size(), hitsJson.size());
+            for (int i = 0; i < hitsJson.size(); i++) {
+                Assert.assertEquals(expected.get(i).get("_id").asText(), hitsJson.get(i).get("_id").asText());
+                Assert.assertEquals(expected.get(i).get("_score").asDouble(), hitsJson.get(i).get("_score").asDouble(), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testSimilarity() throws Exception {
+        createIndex("test_similarity", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 3,\n" +
+                "        \"similarity\": \"cosine\",\n" +
+                "        \"index\": { \"type\": \"hnsw\" }\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_similarity", new TestImage[] {
+                new TestImage(1, new float[] { 2, 0, 0 }),
+                new TestImage(2, new float[] { 0, 3, 0 }),
+                new TestImage(3, new float[] { -1, 0, 0 })
+        });
+
+        // cosine ignores the norms: (1 + cos) / 2
+        ArrayNode hits = search("test_similarity", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0, 0] } }");
+        assertHits(hits, new String[] { "1", "2", "3" }, new double[] { 1.0, 0.5, 0.0 });
+        hits = search("test_similarity", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": [1, 0, 0], \"k\": 3 } }");
+        assertHits(hits, new String[] { "1", "2", "3" }, new double[] { 1.0, 0.5, 0.0 });
+
+        // 1 / (1 + l2^2) and 1 / (1 + l1)
+        hits = search("test_similarity", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0, 0], " +
+                "\"similarity\": \"l2\" } }");
+        assertHits(hits, new String[] { "1", "3", "2" }, new double[] { 1 / 2.0, 1 / 5.0, 1 / 11.0 });
+        hits = search("test_similarity", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0, 0], " +
+                "\"similarity\": \"l1\" } }");
+        assertHits(hits, new String[] { "1", "3", "2" }, new double[] { 1 / 2.0, 1 / 3.0, 1 / 5.0 });
+
+        // the hnsw graph is linked by the mapping similarity
+        try {
+            search("test_similarity", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": [1, 0, 0], " +
+                    "\"similarity\": \"l2\" } }");
+            Assert.fail("knn with a different similarity than the hnsw graph must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testMultipleQueryVectors() throws Exception {
+        createIndex("test_multi", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 3,\n" +
+                "        \"similarity\": \"l2\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_multi", new TestImage[] {
+                new TestImage(1, new float[] { 2, 0, 0 }),
+                new TestImage(2, new float[] { 0, 3, 0 }),
+                new TestImage(3, new float[] { -1, 0, 0 })
+        });
+
+        // 1 / (1 + l2^2) to [1, 0, 0] and [0, 1, 0]: 1/2 and 1/6, 1/11 and 1/5, 1/5 and 1/3
+        ArrayNode hits = search("test_multi", "{ \"vector_dot\": { \"field\": \"image_vector\", " +
+                "\"vectors\": [[1, 0, 0], [0, 1, 0]] } }");
+        assertHits(hits, new String[] { "1", "3", "2" }, new double[] { 1 / 2.0, 1 / 3.0, 1 / 5.0 });
+        hits = search("test_multi", "{ \"vector_dot\": { \"field\": \"image_vector\", " +
+                "\"vectors\": [[1, 0, 0], [0, 1, 0]], \"score_mode\": \"sum\" } }");
+        double[] sums = new double[] { 1 / 2.0 + 1 / 6.0, 1 / 5.0 + 1 / 3.0, 1 / 11.0 + 1 / 5.0 };
+        assertHits(hits, new String[] { "1", "3", "2" }, sums);
+
+        // base64 vectors in the script
+        String base64 = Base64.getEncoder().encodeToString(ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .putFloat(0).putFloat(1).putFloat(0).array());
+        hits = scriptScoreParams("test_multi", "\"vectors\": [[1, 0, 0], \"" + base64 + "\"], \"score_mode\": \"sum\"");
+        assertHits(hits, new String[] { "1", "3", "2" }, sums);
+        hits = scriptScoreParams("test_multi", "\"vectors\": [[1, 0, 0], [0, 1, 0]], \"score_mode\": \"avg\"");
+        assertHits(hits, new String[] { "1", "3", "2" }, new double[] { sums[0] / 2, sums[1] / 2, sums[2] / 2 });
+    }
+
+    @Test
+    public void testMixedDims() throws Exception {
+        createIndex("test_mixed_dims", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"similarity\": \"l2\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_mixed_dims", new TestImage[] {
+                new TestImage(1, new float[] { 2, 0, 0 }),
+                new TestImage(2, new float[] { 0, 3, 0 }),
+                new TestImage(3, new float[] { 1, 0, 0, 5, 5, 5, 5, 5 })
+        });
+
+        // the vector of another length scores 0 with a single query vector like with several
+        ArrayNode single = search("test_mixed_dims", "{ \"vector_dot\": { \"field\": \"image_vector\", " +
+                "\"vector\": [1, 0, 0] } }");
+        ArrayNode batch = search("test_mixed_dims", "{ \"vector_dot\": { \"field\": \"image_vector\", " +
+                "\"vectors\": [[1, 0, 0], [1, 0, 0]] } }");
+        Assert.assertEquals(batch.size(), single.size());
+        for (int i = 0; i < single.size(); i++) {
+            Assert.assertEquals(batch.get(i).get("_id").asText(), single.get(i).get("_id").asText());
+            Assert.assertEquals(batch.get(i).get("_score").asDouble(), single.get(i).get("_score").asDouble(), 1e-6);
+        }
+        Assert.assertEquals("1", single.get(0).get("_id").asText());
+        Assert.assertEquals(1 / 2.0, single.get(0).get("_score").asDouble(), 1e-6);
+        Assert.assertEquals(1 / 11.0, single.get(1).get("_score").asDouble(), 1e-6);
+        Assert.assertEquals(3, single.size());
+        Assert.assertEquals("3", single.get(2).get("_id").asText());
+        Assert.assertEquals(0, single.get(2).get("_score").asDouble(), 0);
+    }
+
+    @Test
+    public void testMultiVector() throws Exception {
+        createIndex("test_multi_vector", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 2,\n" +
+                "        \"multi_vector\": true\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        String base64 = Base64.getEncoder().encodeToString(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putFloat(0).putFloat(1).array());
+        Request bulkRequest = new Request("POST", "/test_multi_vector/_bulk");
+        bulkRequest.addParameter("refresh", "true");
+        bulkRequest.setJsonEntity(
+                "{\"index\":{\"_id\":\"1\"}}\n{\"image_vector\": [[1, 0], \"" + base64 + "\"]}\n" +
+                "{\"index\":{\"_id\":\"2\"}}\n{\"image_vector\": [[3, 0]]}\n" +
+                "{\"index\":{\"_id\":\"3\"}}\n{\"image_vector\": [0.5, 0.5]}\n");
+        Response res = esClient.performRequest(bulkRequest);
+        Assert.assertFalse(EntityUtils.toString(res.getEntity()).contains("\"errors\":true"));
+
+        // the best vector of every document by default
+        ArrayNode hits = search("test_multi_vector", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0] } }");
+        assertHits(hits, new String[] { "2", "1", "3" }, new double[] { 3, 1, 0.5 });
+        hits = search("test_multi_vector", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [1, 0], " +
+                "\"doc_score_mode\": \"avg\" } }");
+        assertHits(hits, new String[] { "2", "1", "3" }, new double[] { 3, 0.5, 0.5 });
+        hits = search("test_multi_vector", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": [0, 1], \"k\": 2 } }");
+        assertHits(hits, new String[] { "1", "3" }, new double[] { 1, 0.5 });
+
+        // late interaction: the sum over the query vectors of their best match
+        hits = search("test_multi_vector", "{ \"vector_dot\": { \"field\": \"image_vector\", " +
+                "\"vectors\": [[1, 0], [0, 1]], \"score_mode\": \"sum\" } }");
+        assertHits(hits, new String[] { "2", "1", "3" }, new double[] { 3, 2, 1 });
+        hits = scriptScoreParams("test_multi_vector", "\"vectors\": [[1, 0], [0, 1]], \"score_mode\": \"sum\", " +
+                "\"doc_score_mode\": \"sum\"");
+        assertHits(hits, new String[] { "2", "1", "3" }, new double[] { 3, 2, 1 });
+
+        try {
+            createIndex("test_multi_vector_no_dims", "{ \"mappings\": { \"properties\": { \"image_vector\": " +
+                    "{ \"type\": \"vector\", \"multi_vector\": true } } } }");
+            Assert.fail("multi_vector without dims must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testFetchVectorFields() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_fetch", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 2,\n" +
+                "        \"multi_vector\": true,\n" +
+                "        \"store\": true\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        Request bulkRequest = new Request("POST", "/test_fetch/_bulk");
+        bulkRequest.addParameter("refresh", "true");
+        bulkRequest.setJsonEntity(
+                "{\"index\":{\"_id\":\"1\"}}\n{\"image_vector\": [[1, 0], [0.25, 0.5]]}\n" +
+                "{\"index\":{\"_id\":\"2\"}}\n{\"image_vector\": [[3, -1]]}\n");
+        Response res = esClient.performRequest(bulkRequest);
+        Assert.assertFalse(EntityUtils.toString(res.getEntity()).contains("\"errors\":true"));
+
+        // one stored value per vector
+        Request searchRequest = new Request("POST", "/test_fetch/_search");
+        searchRequest.addParameter("stored_fields", "image_vector");
+        searchRequest.setJsonEntity("{ \"query\": { \"ids\": { \"values\": [\"1\"] } } }");
+        JsonNode hit = mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                .get("hits").get("hits").get(0);
+        Assert.assertEquals("[[1.0,0.0],[0.25,0.5]]", hit.get("fields").get("image_vector").toString());
+
+        // vectors from doc values, as arrays or base64
+        searchRequest = new Request("POST", "/test_fetch/_search");
+        searchRequest.setJsonEntity("{ \"sort\": \"_id\", \"stored_fields\": \"_none_\", " +
+                "\"ext\": { \"vector_fields\": { \"fields\": [\"image_vector\"] } } }");
+        ArrayNode hits = (ArrayNode) mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                .get("hits").get("hits");
+        Assert.assertEquals("[[1.0,0.0],[0.25,0.5]]", hits.get(0).get("fields").get("image_vector").toString());
+        Assert.assertEquals("[[3.0,-1.0]]", hits.get(1).get("fields").get("image_vector").toString());
+
+        searchRequest.setJsonEntity("{ \"sort\": \"_id\", \"stored_fields\": \"_none_\", " +
+                "\"ext\": { \"vector_fields\": { \"fields\": \"image_vector\", \"format\": \"base64\" } } }");
+        hits = (ArrayNode) mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                .get("hits").get("hits");
+        String base64 = Base64.getEncoder().encodeToString(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putFloat(3).putFloat(-1).array());
+        Assert.assertEquals("[\"" + base64 + "\"]", hits.get(1).get("fields").get("image_vector").toString());
+
+        try {
+            searchRequest.setJsonEntity("{ \"ext\": { \"vector_fields\": { \"fields\": [\"image_vector\"], " +
+                    "\"format\": \"hex\" } } }");
+            esClient.performRequest(searchRequest);
+            Assert.fail("unknown formats must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testIngestProcessor() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Request pipelineRequest = new Request("PUT", "/_ingest/pipeline/vectors");
+        pipelineRequest.setJsonEntity("{ \"processors\": [ { \"vector\": { \"field\": \"image_vector\", " +
+                "\"normalize\": true, \"norm_field\": \"image_norm\", \"dims\": 2 } } ] }");
+        esClient.performRequest(pipelineRequest);
+        createIndex("test_ingest", "{ \"mappings\": { \"properties\": { " +
+                "\"image_vector\": { \"type\": \"vector\", \"dims\": 2 }, \"image_norm\": { \"type\": \"float\" } } } }");
+
+        String base64 = Base64.getEncoder().encodeToString(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putFloat(0).putFloat(2).array());
+        Request bulkRequest = new Request("POST", "/test_ingest/_bulk");
+        bulkRequest.addParameter("refresh", "true");
+        bulkRequest.addParameter("pipeline", "vectors");
+        bulkRequest.setJsonEntity(
+                "{\"index\":{\"_id\":\"1\"}}\n{\"image_vector\": [3, 4]}\n" +
+                "{\"index\":{\"_id\":\"2\"}}\n{\"image_vector\": \"" + base64 + "\"}\n");
+        Response res = esClient.performRequest(bulkRequest);
+        Assert.assertFalse(EntityUtils.toString(res.getEntity()).contains("\"errors\":true"));
+
+        JsonNode source = mapper.readTree(EntityUtils.toString(esClient.performRequest(
+                new Request("GET", "/test_ingest/_doc/1")).getEntity())).get("_source");
+        Assert.assertEquals(0.6, source.get("image_vector").get(0).asDouble(), 1e-6);
+        Assert.assertEquals(0.8, source.get("image_vector").get(1).asDouble(), 1e-6);
+        Assert.assertEquals(5, source.get("image_norm").asDouble(), 1e-6);
+
+        // the dot-product of normalized vectors is their cosine
+        ArrayNode hits = search("test_ingest", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": [0, 1] } }");
+        assertHits(hits, new String[] { "2", "1" }, new double[] { 1, 0.8 });
+        hits = search("test_ingest", "{ \"range\": { \"image_norm\": { \"gt\": 4 } } }");
+        Assert.assertEquals(1, hits.size());
+
+        Request indexRequest = new Request("POST", "/test_ingest/_doc/3");
+        indexRequest.addParameter("pipeline", "vectors");
+        indexRequest.setJsonEntity("{\"image_vector\": [1, 2, 3]}");
+        try {
+            esClient.performRequest(indexRequest);
+            Assert.fail("vectors with other dimensions must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertTrue(EntityUtils.toString(e.getResponse().getEntity()).contains("has [3] dimensions but [dims] is [2]"));
+        }
+    }
+
+    @Test
+    public void testSparseVector() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_sparse", "{ \"mappings\": { \"properties\": { " +
+                "\"terms\": { \"type\": \"vector_sparse\", \"store\": true } } } }");
+        Request bulkRequest = new Request("POST", "/test_sparse/_bulk");
+        bulkRequest.addParameter("refresh", "true");
+        bulkRequest.setJsonEntity(
+                "{\"index\":{\"_id\":\"1\"}}\n{\"terms\": {\"29999\": 2, \"3\": 0.5}}\n" +
+                "{\"index\":{\"_id\":\"2\"}}\n{\"terms\": {\"3\": 1, \"17\": 1}}\n" +
+                "{\"index\":{\"_id\":\"3\"}}\n{\"terms\": {\"17\": -1}}\n" +
+                "{\"index\":{\"_id\":\"4\"}}\n{\"other\": 1}\n");
+        Response res = esClient.performRequest(bulkRequest);
+        Assert.assertFalse(EntityUtils.toString(res.getEntity()).contains("\"errors\":true"));
+
+        ArrayNode hits = search("test_sparse", "{ \"vector_sparse_dot\": { \"field\": \"terms\", " +
+                "\"vector\": { \"3\": 2, \"29999\": 1, \"12\": 5 } } }");
+        assertHits(hits, new String[] { "1", "2", "3" }, new double[] { 3, 2, 0 });
+
+        Request searchRequest = new Request("POST", "/test_sparse/_search");
+        searchRequest.addParameter("stored_fields", "terms");
+        searchRequest.setJsonEntity("{ \"query\": { \"ids\": { \"values\": [\"1\"] } } }");
+        JsonNode hit = mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                .get("hits").get("hits").get(0);
+        Assert.assertEquals("[{\"3\":0.5,\"29999\":2.0}]", hit.get("fields").get("terms").toString());
+
+        Request indexRequest = new Request("POST", "/test_sparse/_doc/5");
+        indexRequest.setJsonEntity("{\"terms\": {\"x\": 1}}");
+        try {
+            esClient.performRequest(indexRequest);
+            Assert.fail("non-integer dimensions must be rejected");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testVectorRange() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_range", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 8\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] imgs = randomImages(300, 8, new Random(11));
+        bulkIndex("test_range", imgs);
+
+        float[] query = imgs[0].imageVector;
+        Set<String> expected = new TreeSet<>();
+        for (TestImage img : imgs) {
+            float dot = 0;
+            for (int i = 0; i < query.length; i++) {
+                dot += query[i] * img.imageVector[i];
+            }
+            if (dot >= 0.5f) {
+                expected.add(String.valueOf(img.imageId));
+            }
+        }
+        Assert.assertTrue(expected.size() > 1 && expected.size() < imgs.length);
+
+        String body = "{ \"size\": 1000, \"query\": { \"bool\": { \"filter\": { \"vector_range\": { " +
+                "\"field\": \"image_vector\", \"vector\": " + mapper.writeValueAsString(query) + ", \"min_score\": 0.5 } } } } }";
+        for (int run = 0; run < 8; run++) {
+            Request searchRequest = new Request("POST", "/test_range/_search");
+            searchRequest.setJsonEntity(body);
+            ArrayNode hits = (ArrayNode) mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                    .get("hits").get("hits");
+            Set<String> ids = new TreeSet<>();
+            for (JsonNode hit : hits) {
+                ids.add(hit.get("_id").asText());
+            }
+            Assert.assertEquals(expected, ids);
+        }
+
+        // repeated filters are served from the query cache
+        Response res = esClient.performRequest(new Request("GET", "/test_range/_stats/query_cache"));
+        JsonNode queryCache = mapper.readTree(EntityUtils.toString(res.getEntity())).get("_all").get("total").get("query_cache");
+        Assert.assertTrue(queryCache.toString(), queryCache.get("hit_count").asLong() > 0);
+
+        // int8 vectors right above the threshold are not pruned by the bound of the quantized query
+        createIndex("test_range_int8", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"element_type\": \"int8\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        bulkIndex("test_range_int8", new TestImage[] {
+            new TestImage(0, new float[] {9.99f, 9.99f}),
+            new TestImage(1, new float[] {10, 10})});
+        String int8Body = "{ \"query\": { \"bool\": { \"filter\": { \"vector_range\": { " +
+                "\"field\": \"image_vector\", \"vector\": [1, 0.996], \"min_score\": 19.95 } } } } }";
+        for (int run = 0; run < 2; run++) {
+            Request searchRequest = new Request("POST", "/test_range_int8/_search");
+            searchRequest.setJsonEntity(int8Body);
+            ArrayNode hits = (ArrayNode) mapper.readTree(EntityUtils.toString(esClient.performRequest(searchRequest).getEntity()))
+                    .get("hits").get("hits");
+            Assert.assertEquals(1, hits.size());
+            Assert.assertEquals("1", hits.get(0).get("_id").asText());
+        }
+
+        try {
+            search("test_range", "{ \"vector_range\": { \"field\": \"image_vector\", \"vector\": [1, 0] } }");
+            Assert.fail("min_score is required");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testBitElementType() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_bit", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"element_type\": \"bit\",\n" +
+                "        \"dims\": 70,\n" +
+                "        \"similarity\": \"hamming\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        Random random = new Random(11);
+        TestImage[] imgs = new TestImage[200];
+        for (int i = 0; i < imgs.length; i++) {
+            imgs[i] = new TestImage(i, randomBits(70, random));
+        }
+        bulkIndex("test_bit", imgs);
+
+        float[] query = randomBits(70, random);
+        String vectorJson = mapper.writeValueAsString(query);
+        ArrayNode hits = search("test_bit", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": " + vectorJson + " } }");
+        Assert.assertEquals(10, hits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            float[] vector = imgs[hits.get(i).get("_id").asInt()].imageVector;
+            int hamming = 0;
+            int and = 0;
+            int or = 0;
+            for (int j = 0; j < vector.length; j++) {
+                hamming += vector[j] != query[j] ? 1 : 0;
+                and += vector[j] == 1 && query[j] == 1 ? 1 : 0;
+                or += vector[j] == 1 || query[j] == 1 ? 1 : 0;
+            }
+            Assert.assertEquals(1.0 / (1 + hamming), hits.get(i).get("_score").asDouble(), 1e-6);
+            if (i > 0) {
+                Assert.assertTrue(hits.get(i).get("_score").asDouble() <= hits.get(i - 1).get("_score").asDouble());
+            }
+            ArrayNode jaccard = search("test_bit", "{ \"bool\": { \"must\": { \"vector_dot\": { \"field\": \"image_vector\", " +
+                    "\"vector\": " + vectorJson + ", \"similarity\": \"jaccard\" } }, " +
+                    "\"filter\": { \"ids\": { \"values\": [\"" + hits.get(i).get("_id").asText() + "\"] } } } }");
+            Assert.assertEquals((double) and / or, jaccard.get(0).get("_score").asDouble(), 1e-6);
+        }
+
+        // packed bits, most significant bit first, padded to whole bytes
+        byte[] packed = new byte[9];
+        packed[0] = (byte) 0x80;
+        Request indexRequest = new Request("POST", "/test_bit/_doc/base64");
+        indexRequest.addParameter("refresh", "true");
+        indexRequest.setJsonEntity("{\"image_vector\": \"" + Base64.getEncoder().encodeToString(packed) + "\"}");
+        esClient.performRequest(indexRequest);
+        float[] first = new float[70];
+        first[0] = 1;
+        hits = search("test_bit", "{ \"vector_dot\": { \"field\": \"image_vector\", \"vector\": "
+                + mapper.writeValueAsString(first) + " } }");
+        Assert.assertEquals("base64", hits.get(0).get("_id").asText());
+        Assert.assertEquals(1.0, hits.get(0).get("_score").asDouble(), 1e-6);
+
+        Request invalidRequest = new Request("POST", "/test_bit/_doc/invalid");
+        first[1] = 0.5f;
+        invalidRequest.setJsonEntity("{\"image_vector\": " + mapper.writeValueAsString(first) + "}");
+        try {
+            esClient.performRequest(invalidRequest);
+            Assert.fail("bit vectors must only contain 0 and 1");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testVectorStats() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_vector_stats", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 8\n" +
+                "      },\n" +
+                "      \"image_id\": {\n" +
+                "        \"type\": \"long\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] imgs = randomImages(50, 8, new Random(17));
+        bulkIndex("test_vector_stats", imgs);
+        scriptScore("test_vector_stats", mapper.writeValueAsString(imgs[0].imageVector));
+
+        Response res = esClient.performRequest(new Request("GET", "/_nodes/vector/stats"));
+        JsonNode nodes = mapper.readTree(EntityUtils.toString(res.getEntity())).get("nodes");
+        Assert.assertEquals(1, nodes.size());
+        JsonNode field = nodes.elements().next().get("indices").get("test_vector_stats").get("fields").get("image_vector");
+        Assert.assertEquals(50, field.get("indexing").get("vectors_parsed").asLong());
+        JsonNode search = field.get("search");
+        Assert.assertEquals(50, search.get("docs_scored").asLong());
+        Assert.assertEquals(50, search.get("vectors_scored").asLong());
+        Assert.assertEquals(0, search.get("dims_mismatches").asLong());
+        Assert.assertTrue(search.get("cache_hits").asLong() + search.get("cache_misses").asLong() > 0);
+        Assert.assertTrue(search.get("score_time_in_nanos").asLong() > 0);
+
+        // the node stats of Elasticsearch share the path prefix
+        res = esClient.performRequest(new Request("GET", "/_nodes/_local/stats/jvm"));
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+
+        // counters of deleted indices are dropped
+        esClient.performRequest(new Request("DELETE", "/test_vector_stats"));
+        res = esClient.performRequest(new Request("GET", "/_nodes/_local/vector/stats"));
+        nodes = mapper.readTree(EntityUtils.toString(res.getEntity())).get("nodes");
+        Assert.assertNull(nodes.elements().next().get("indices").get("test_vector_stats"));
+    }
+
+    @Test
+    public void testVectorAggregations() throws Exception {
+        createIndex("test_vector_aggs", "{\n" +
+                "  \"settings\": {\n" +
+                "    \"number_of_shards\": 2\n" +
+                "  },\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\"\n" +
+                "      },\n" +
+                "      \"image_id\": {\n" +
+                "        \"type\": \"long\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        // three well separated clusters of 20 vectors each
+        float[][] centers = { { 10, 0, 0 }, { 0, 10, 0 }, { -10, -10, 5 } };
+        Random random = new Random(19);
+        TestImage[] imgs = new TestImage[60];
+        for (int i = 0; i < imgs.length; i++) {
+            float[] vector = new float[3];
+            for (int j = 0; j < 3; j++) {
+                vector[j] = centers[i % 3][j] + (float) random.nextGaussian() * 0.1f;
+            }
+            imgs[i] = new TestImage(i, vector);
+        }
+        bulkIndex("test_vector_aggs", imgs);
+
+        Request searchRequest = new Request("POST", "/test_vector_aggs/_search");
+        searchRequest.setJsonEntity("{" +
+                "  \"size\": 0," +
+                "  \"aggs\": {" +
+                "    \"stats\": { \"vector_stats\": { \"field\": \"image_vector\" } }," +
+                "    \"clusters\": { \"vector_kmeans\": { \"field\": \"image_vector\", \"k\": 3, \"seed\": 7 } }," +
+                "    \"halves\": {" +
+                "      \"histogram\": { \"field\": \"image_id\", \"interval\": 30 }," +
+                "      \"aggs\": { \"stats\": { \"vector_stats\": { \"field\": \"image_vector\" } } }" +
+                "    }" +
+                "  }" +
+                "}");
+        Response res = esClient.performRequest(searchRequest);
+        JsonNode aggs = new ObjectMapper().readTree(EntityUtils.toString(res.getEntity())).get("aggregations");
+
+        JsonNode stats = aggs.get("stats");
+        Assert.assertEquals(60, stats.get("count").asLong());
+        Assert.assertEquals(3, stats.get("dims").asInt());
+        for (int j = 0; j < 3; j++) {
+            double sum = 0, sumOfSquares = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (TestImage img : imgs) {
+                sum += img.imageVector[j];
+                sumOfSquares += img.imageVector[j] * img.imageVector[j];
+                min = Math.min(min, img.imageVector[j]);
+                max = Math.max(max, img.imageVector[j]);
+            }
+            double mean = sum / imgs.length;
+            Assert.assertEquals(sum, stats.get("sum").get(j).asDouble(), 1e-3);
+            Assert.assertEquals(mean, stats.get("mean").get(j).asDouble(), 1e-4);
+            Assert.assertEquals(min, stats.get("min").get(j).asDouble(), 1e-6);
+            Assert.assertEquals(max, stats.get("max").get(j).asDouble(), 1e-6);
+            Assert.assertEquals(sumOfSquares / imgs.length - mean * mean, stats.get("variance").get(j).asDouble(), 1e-3);
+        }
+
+        JsonNode buckets = aggs.get("halves").get("buckets");
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(30, buckets.get(0).get("stats").get("count").asLong());
+        Assert.assertEquals(30, buckets.get(1).get("stats").get("count").asLong());
+
+        JsonNode clusters = aggs.get("clusters");
+        Assert.assertEquals(60, clusters.get("vectors").asLong());
+        Assert.assertEquals(3, clusters.get("clusters").size());
+        boolean[] found = new boolean[3];
+        for (JsonNode cluster : clusters.get("clusters")) {
+            Assert.assertEquals(20, cluster.get("count").asLong());
+            for (int c = 0; c < 3; c++) {
+                double distance = 0;
+                for (int j = 0; j < 3; j++) {
+                    double diff = cluster.get("centroid").get(j).asDouble() - centers[c][j];
+                    distance += diff * diff;
+                }
+                found[c] |= distance < 0.1;
+            }
+        }
+        Assert.assertArrayEquals(new boolean[] { true, true, true }, found);
+
+        // vectors longer than the initial decoding buffer
+        createIndex("test_vector_aggs_64", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] wide = randomImages(20, 64, new Random(23));
+        bulkIndex("test_vector_aggs_64", wide);
+        Request wideRequest = new Request("POST", "/test_vector_aggs_64/_search");
+        wideRequest.setJsonEntity("{" +
+                "  \"size\": 0," +
+                "  \"aggs\": {" +
+                "    \"stats\": { \"vector_stats\": { \"field\": \"image_vector\" } }," +
+                "    \"clusters\": { \"vector_kmeans\": { \"field\": \"image_vector\", \"k\": 2, \"seed\": 7 } }" +
+                "  }" +
+                "}");
+        JsonNode wideAggs = new ObjectMapper().readTree(EntityUtils.toString(esClient.performRequest(wideRequest).getEntity()))
+                .get("aggregations");
+        Assert.assertEquals(20, wideAggs.get("stats").get("count").asLong());
+        Assert.assertEquals(64, wideAggs.get("stats").get("dims").asInt());
+        for (int j = 0; j < 64; j++) {
+            double sum = 0;
+            for (TestImage img : wide) {
+                sum += img.imageVector[j];
+            }
+            Assert.assertEquals(sum, wideAggs.get("stats").get("sum").get(j).asDouble(), 1e-3);
+        }
+        Assert.assertEquals(20, wideAggs.get("clusters").get("vectors").asLong());
+        for (JsonNode cluster : wideAggs.get("clusters").get("clusters")) {
+            Assert.assertEquals(64, cluster.get("centroid").size());
+        }
+
+        // [k] is required
+        searchRequest.setJsonEntity("{ \"aggs\": { \"clusters\": { \"vector_kmeans\": { \"field\": \"image_vector\" } } } }");
+        try {
+            esClient.performRequest(searchRequest);
+            Assert.fail("expected a missing [k] to fail");
+        } catch (ResponseException e) {
+            Assert.assertEquals(400, e.getResponse().getStatusLine().getStatusCode());
+        }
+    }
+
+    @Test
+    public void testCoarseRescore() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_coarse", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 16,\n" +
+                "        \"fields\": {\n" +
+                "          \"coarse\": {\n" +
+                "            \"type\": \"vector\",\n" +
+                "            \"dims\": 4,\n" +
+                "            \"element_type\": \"int8\"\n" +
+                "          }\n" +
+                "        }\n" +
+                "      },\n" +
+                "      \"image_id\": {\n" +
+                "        \"type\": \"long\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        TestImage[] imgs = randomImages(100, 16, new Random(23));
+        bulkIndex("test_coarse", imgs);
+        float[] query = imgs[7].imageVector;
+        String vectorJson = mapper.writeValueAsString(query);
+
+        // the coarse field takes the full query vector and scores its leading dimensions
+        ArrayNode coarse = search("test_coarse", "{ \"vector_dot\": { \"field\": \"image_vector.coarse\", \"vector\": " + vectorJson + " } }");
+        Assert.assertEquals(10, coarse.size());
+
+        Request searchRequest = new Request("POST", "/test_coarse/_search");
+        searchRequest.setJsonEntity("{" +
+                "  \"size\": 5," +
+                "  \"query\": { \"vector_dot\": { \"field\": \"image_vector.coarse\", \"vector\": " + vectorJson + " } }," +
+                "  \"rescore\": {" +
+                "    \"window_size\": 50," +
+                "    \"vector\": { \"field\": \"image_vector\", \"vector\": " + vectorJson + " }" +
+                "  }" +
+                "}");
+        Response res = esClient.performRequest(searchRequest);
+        ArrayNode hits = (ArrayNode) mapper.readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+        Assert.assertEquals(5, hits.size());
+        Assert.assertEquals("7", hits.get(0).get("_id").asText());
+        double previous = Double.POSITIVE_INFINITY;
+        for (JsonNode hit : hits) {
+            float[] vector = imgs[hit.get("_id").asInt()].imageVector;
+            double dot = 0;
+            for (int i = 0; i < vector.length; i++) {
+                dot += vector[i] * query[i];
+            }
+            // the exact dot product of the full vectors
+            Assert.assertEquals(Math.max(0, dot), hit.get("_score").asDouble(), 1e-4);
+            Assert.assertTrue(hit.get("_score").asDouble() <= previous);
+            previous = hit.get("_score").asDouble();
+        }
+
+        // the multi-field survives a round trip of the mapping
+        res = esClient.performRequest(new Request("GET", "/test_coarse/_mapping"));
+        JsonNode coarseMapping = mapper.readTree(EntityUtils.toString(res.getEntity())).get("test_coarse").get("mappings")
+                .get("properties").get("image_vector").get("fields").get("coarse");
+        Assert.assertEquals(4, coarseMapping.get("dims").asInt());
+        Assert.assertEquals("int8", coarseMapping.get("element_type").asText());
+    }
+
+    @Test
+    public void testKnnConcurrentSegments() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        createIndex("test_knn_segments", "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"properties\": {\n" +
+                "      \"image_vector\": {\n" +
+                "        \"type\": \"vector\",\n" +
+                "        \"dims\": 16\n" +
+                "      },\n" +
+                "      \"image_id\": {\n" +
+                "        \"type\": \"long\"\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        // every refreshed bulk request writes a segment
+        TestImage[] imgs = randomImages(200, 16, new Random(29));
+        for (int i = 0; i < imgs.length; i += 50) {
+            bulkIndex("test_knn_segments", Arrays.copyOfRange(imgs, i, i + 50));
+        }
+        float[] query = imgs[42].imageVector;
+        ArrayNode hits = search("test_knn_segments", "{ \"knn\": { \"field\": \"image_vector\", \"vector\": "
+                + mapper.writeValueAsString(query) + ", \"k\": 10 } }");
+
+        // the same hits as a brute force search
+        Integer[] expected = new Integer[imgs.length];
+        double[] dots = new double[imgs.length];
+        for (int i = 0; i < imgs.length; i++) {
+            expected[i] = i;
+            for (int j = 0; j < query.length; j++) {
+                dots[i] += imgs[i].imageVector[j] * query[j];
+            }
+        }
+        Arrays.sort(expected, (a, b) -> Double.compare(dots[b], dots[a]));
+        Assert.assertEquals(10, hits.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(String.valueOf(expected[i]), hits.get(i).get("_id").asText());
+        }
+
+        Response res = esClient.performRequest(new Request("GET", "/_nodes/_local/stats/thread_pool"));
+        JsonNode pool = mapper.readTree(EntityUtils.toString(res.getEntity())).get("nodes").elements().next()
+                .get("thread_pool").get("vector_search");
+        Assert.assertTrue(pool.get("completed").asLong() > 0);
+    }
+
+    private static float[] randomBits(int dims, Random random) {
+        float[] bits = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            bits[i] = random.nextBoolean() ? 1 : 0;
+        }
+        return bits;
+    }
+
+    private static ArrayNode search(String index, String queryJson) throws IOException {
+        Request searchRequest = new Request("POST", "/" + index + "/_search");
+        searchRequest.setJsonEntity("{ \"query\": " + queryJson + " }");
+        Response res = esClient.performRequest(searchRequest);
+        return (ArrayNode) new ObjectMapper().readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+    }
+
+    private static void assertHits(ArrayNode hits, String[] ids, double[] scores) {
+        Assert.assertEquals(ids.length, hits.size());
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(ids[i], hits.get(i).get("_id").asText());
+            Assert.assertEquals(scores[i], hits.get(i).get("_score").asDouble(), 1e-5);
+        }
+    }
+
+    private static ArrayNode scriptScore(String index, String vectorJson) throws IOException {
+        return scriptScoreParams(index, "\"vector\": " + vectorJson);
+    }
+
+    private static ArrayNode scriptScoreParams(String index, String paramsJson) throws IOException {
+        String body = "{" +
+                "  \"query\": {" +
+                "    \"function_score\": {" +
+                "      \"boost_mode\": \"replace\"," +
+                "      \"script_score\": {" +
+                "        \"script\": {" +
+                "          \"lang\": \"vector_score\"," +
+                "          \"source\": \"vector_score\"," +
+                "          \"params\": {" +
+                "            \"field\": \"image_vector\"," +
+                "            " + paramsJson +
+                "          }" +
+                "        }" +
+                "      }" +
+                "    }" +
+                "  }" +
+                "}";
+        Request searchRequest = new Request("POST", "/" + index + "/_search");
+        searchRequest.setJsonEntity(body);
+        Response res = esClient.performRequest(searchRequest);
+        return (ArrayNode) new ObjectMapper().readTree(EntityUtils.toString(res.getEntity())).get("hits").get("hits");
+    }
+
+    static TestImage[] randomImages(int count, int dims, Random random) {
+        TestImage[] imgs = new TestImage[count];
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[dims];
+            double norm = 0;
+            for (int j = 0; j < dims; j++) {
+                vector[j] = (float) random.nextGaussian();
+                norm += vector[j] * vector[j];
+            }
+            for (int j = 0; j < dims; j++) {
+                vector[j] /= (float) Math.sqrt(norm);
+            }
+            imgs[i] = new TestImage(i, vector);
+        }
+        return imgs;
+    }
+
+    private static void createIndex(String index, String mappingJson) throws IOException {
+        try {
+            esClient.performRequest(new Request("DELETE", "/" + index));
+        } catch (Exception e) {}
+        Request putRequest = new Request("PUT", "/" + index);
+        putRequest.setJsonEntity(mappingJson);
+        esClient.performRequest(putRequest);
+    }
+
+    private static void bulkIndex(String index, TestImage[] imgs) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder bulk = new StringBuilder();
+        for (TestImage t : imgs) {
+            bulk.append("{\"index\":{\"_id\":\"").append(t.imageId).append("\"}}\n");
+            bulk.append(mapper.writeValueAsString(t)).append('\n');
+        }
+        Request bulkRequest = new Request("POST", "/" + index + "/_bulk");
+        bulkRequest.addParameter("refresh", "true");
+        bulkRequest.setJsonEntity(bulk.toString());
+        Response res = esClient.performRequest(bulkRequest);
+        Assert.assertFalse(EntityUtils.toString(res.getEntity()).contains("\"errors\":true"));
+    }
+
     @AfterClass
     public static void shutdown() {
         try {
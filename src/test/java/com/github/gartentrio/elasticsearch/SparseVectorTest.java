@@ -0,0 +1,95 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.github.gartentrio.elasticsearch;
+
+import java.util.Random;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseVectorTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SparseVector vector = SparseVector.of(new int[] { 30000, 5, 128, 7 }, new float[] { 1.5f, -2f, 0f, 0.25f }, 4);
+        Assert.assertArrayEquals(new int[] { 5, 7, 30000 }, vector.dims());
+        Assert.assertArrayEquals(new float[] { -2f, 0.25f, 1.5f }, vector.values(), 0);
+        BytesRef data = vector.encode();
+        Assert.assertEquals(1 + 3 * Float.BYTES + 1 + 1 + 3, data.length);
+        Assert.assertEquals(vector, SparseVector.decode(data));
+    }
+
+    @Test
+    public void testDotMatchesDense() throws Exception {
+        Random random = new Random(0);
+        int dims = 30000;
+        ByteArrayDataInput in = new ByteArrayDataInput();
+        for (int iter = 0; iter < 100; iter++) {
+            float[] a = randomDense(random, dims, 1 + random.nextInt(200));
+            float[] b = randomDense(random, dims, 1 + random.nextInt(200));
+            double expected = 0;
+            for (int i = 0; i < dims; i++) {
+                expected += a[i] * b[i];
+            }
+            float dot = sparse(a).dot(sparse(b).encode(), in);
+            Assert.assertEquals(expected, dot, 1e-4);
+        }
+    }
+
+    @Test
+    public void testRejectsInvalid() {
+        try {
+            SparseVector.of(new int[] { 1, 1 }, new float[] { 1, 2 }, 2);
+            Assert.fail("repeated dimensions must be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Sparse vector dimension [1] is given more than once", e.getMessage());
+        }
+        try {
+            SparseVector.of(new int[] { -1 }, new float[] { 1 }, 1);
+            Assert.fail("negative dimensions must be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Sparse vector dimensions must not be negative, got [-1]", e.getMessage());
+        }
+    }
+
+    private static float[] randomDense(Random random, int dims, int nonZeros) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < nonZeros; i++) {
+            vector[random.nextInt(dims)] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static SparseVector sparse(float[] dense) {
+        int[] dims = new int[dense.length];
+        float[] values = new float[dense.length];
+        int length = 0;
+        for (int i = 0; i < dense.length; i++) {
+            if (dense[i] != 0) {
+                dims[length] = i;
+                values[length++] = dense[i];
+            }
+        }
+        return SparseVector.of(dims, values, length);
+    }
+}
@@ -48,6 +48,11 @@ public class TestServer {
 	private String homeDirectory;
 
 	public TestServer() throws NodeValidationException {
+		this(Settings.EMPTY);
+	}
+
+	/** Starts a node with {@code nodeSettings} on top of the defaults of the tests. */
+	public TestServer(Settings nodeSettings) throws NodeValidationException {
 		this.dataDirectory = "target/elasticsearch-data";
 		this.homeDirectory = "target/elasticsearch-home";
 		Settings.Builder settings = Settings.builder()
@@ -55,7 +60,14 @@ public class TestServer {
 				.put("path.data", dataDirectory)
 				.put("path.home", homeDirectory)
 				.put("node.max_local_storage_nodes", 10000)
-				.put("node.name", "test");
+				.put("node.name", "test")
+				.put("vector.cache.size", "64mb")
+				.put("vector.cache.warm_interval", "100ms")
+				// search every segment of the small test indices on its own
+				.put("vector.search.min_docs_per_slice", 1)
+				// cache filters on the small segments of the tests too
+				.put("indices.queries.cache.all_segments", true)
+				.put(nodeSettings);
 
 		for (int numRetries = MAX_PORT_RETRIES; numRetries >= 0; numRetries--) {
 			try {
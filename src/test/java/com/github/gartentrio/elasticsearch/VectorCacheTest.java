@@ -0,0 +1,212 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VectorCacheTest {
+
+    private static final String FIELD = "image_vector";
+
+    @Test
+    public void testCachedScoresMatchDocValues() throws IOException {
+        Random random = new Random(0);
+        for (VectorElementType elementType : new VectorElementType[] { VectorElementType.FLOAT, VectorElementType.FLOAT16 }) {
+            VectorEncoding encoding = new VectorEncoding(elementType, 12);
+            try (Directory dir = new ByteBuffersDirectory()) {
+                index(dir, encoding, random);
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                    LeafReader leaf = reader.leaves().get(0).reader();
+                    VectorCache.SegmentVectors cached = VectorCache.load(leaf, FIELD, encoding, new NoopCircuitBreaker("test"));
+                    for (VectorSimilarity similarity : new VectorSimilarity[] { VectorSimilarity.DOT_PRODUCT,
+                            VectorSimilarity.COSINE, VectorSimilarity.L2, VectorSimilarity.L1 }) {
+                        for (int rows = 1; rows <= 5; rows += 4) {
+                            float[][] vectors = new float[rows][];
+                            for (int r = 0; r < rows; r++) {
+                                vectors[r] = PluginTest.randomImages(1, 12, random)[0].imageVector;
+                            }
+                            QueryVectors query = new QueryVectors(vectors, encoding, similarity, QueryVectors.ScoreMode.SUM);
+                            assertSameScores(leaf, query, cached);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBreaker() throws Exception {
+        VectorEncoding encoding = new VectorEncoding(VectorElementType.FLOAT, 12);
+        try (Directory dir = new ByteBuffersDirectory()) {
+            index(dir, encoding, new Random(1));
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                LimitBreaker breaker = new LimitBreaker(1024);
+                try {
+                    VectorCache.load(leaf, FIELD, encoding, breaker);
+                    Assert.fail("loading more than the limit must trip the breaker");
+                } catch (CircuitBreakingException e) {
+                    Assert.assertEquals(0, breaker.getUsed());
+                }
+
+                breaker = new LimitBreaker(1 << 20);
+                VectorCache cache = new VectorCache(Settings.builder().put(VectorCache.SIZE_SETTING.getKey(), "1mb").build());
+                cache.setBreaker(breaker);
+                Assert.assertNull(cache.get(leaf, FIELD));
+                cache.warm(leaf, FIELD, encoding);
+                VectorCache.SegmentVectors cached = cache.get(leaf, FIELD);
+                Assert.assertNotNull(cached);
+                long bytes = cached.ramBytesUsed();
+                Assert.assertEquals(bytes, breaker.getUsed());
+                reader.close();
+                // closing the segment evicts it, its memory is accounted until it is collected
+                Assert.assertNull(cache.get(leaf, FIELD));
+                Assert.assertEquals(bytes, breaker.getUsed());
+                cached = null;
+                for (int i = 0; i < 100 && breaker.getUsed() > 0; i++) {
+                    System.gc();
+                    Thread.sleep(10);
+                    cache.releaseCollected();
+                }
+                Assert.assertEquals(0, breaker.getUsed());
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentsAreLoadedOnce() throws IOException {
+        VectorEncoding encoding = new VectorEncoding(VectorElementType.FLOAT, 12);
+        try (Directory dir = new ByteBuffersDirectory()) {
+            index(dir, encoding, new Random(2));
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                VectorCache cache = new VectorCache(Settings.builder().put(VectorCache.SIZE_SETTING.getKey(), "1mb").build());
+                cache.setBreaker(new LimitBreaker(1024));
+                try {
+                    cache.warm(leaf, FIELD, encoding);
+                    Assert.fail("loading more than the limit must trip the breaker");
+                } catch (CircuitBreakingException e) {
+                    // expected
+                }
+                // failed segments are not retried
+                LimitBreaker breaker = new LimitBreaker(1 << 20);
+                cache.setBreaker(breaker);
+                cache.warm(leaf, FIELD, encoding);
+                Assert.assertNull(cache.get(leaf, FIELD));
+                Assert.assertEquals(0, breaker.loads);
+
+                // evicted segments are not reloaded
+                cache = new VectorCache(Settings.builder().put(VectorCache.SIZE_SETTING.getKey(), "4kb").build());
+                cache.setBreaker(breaker);
+                cache.warm(leaf, FIELD, encoding);
+                Assert.assertNull(cache.get(leaf, FIELD));
+                cache.warm(leaf, FIELD, encoding);
+                Assert.assertEquals(1, breaker.loads);
+            }
+        }
+    }
+
+    private static void index(Directory dir, VectorEncoding encoding, Random random) throws IOException {
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+            TestImage[] images = PluginTest.randomImages(300, encoding.dims(), random);
+            for (TestImage image : images) {
+                Document doc = new Document();
+                // some documents without a vector
+                if (image.imageId % 7 != 0) {
+                    float[] vector = image.imageVector;
+                    for (int i = 0; i < vector.length; i++) {
+                        vector[i] *= 1 + image.imageId % 5;
+                    }
+                    BytesRef data = encoding.encode(vector, vector.length);
+                    float[] decoded = new float[vector.length];
+                    encoding.decode(data, decoded, 0);
+                    doc.add(new BinaryDocValuesField(FIELD, data));
+                    doc.add(new NumericDocValuesField(VectorNorms.normField(FIELD),
+                            VectorNorms.encodeNorm(VectorNorms.norm(decoded, decoded.length))));
+                }
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+    }
+
+    private static void assertSameScores(LeafReader leaf, QueryVectors query, VectorCache.SegmentVectors cached)
+            throws IOException {
+        VectorSimilarity.LeafScorer scorer = query.scorer(leaf, FIELD);
+        QueryVectors.DocScorer cachedScorer = query.scorer(cached);
+        BinaryDocValues values = leaf.getBinaryDocValues(FIELD);
+        for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+            float expected = values.advanceExact(doc) ? scorer.score(doc, values.binaryValue()) : 0;
+            Assert.assertEquals(query.toString(), expected, cachedScorer.score(doc), 1e-5);
+        }
+    }
+
+    /** Trips once more than {@code limit} bytes are used. */
+    private static final class LimitBreaker extends NoopCircuitBreaker {
+
+        private final long limit;
+        private long used;
+        private int loads;
+
+        LimitBreaker(long limit) {
+            super(CircuitBreaker.FIELDDATA);
+            this.limit = limit;
+        }
+
+        @Override
+        public double addEstimateBytesAndMaybeBreak(long bytes, String label) {
+            loads++;
+            if (used + bytes > limit) {
+                throw new CircuitBreakingException("[" + label + "] would use [" + (used + bytes) + "]", used + bytes, limit,
+                        getDurability());
+            }
+            return used += bytes;
+        }
+
+        @Override
+        public long addWithoutBreaking(long bytes) {
+            return used += bytes;
+        }
+
+        @Override
+        public long getUsed() {
+            return used;
+        }
+    }
+}
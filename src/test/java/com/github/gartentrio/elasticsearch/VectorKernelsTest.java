@@ -0,0 +1,170 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.gartentrio.elasticsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class VectorKernelsTest {
+
+    private static final VectorKernels[] KERNELS = { new VectorKernels(), VectorKernels.INSTANCE };
+
+    @Test
+    public void testSimdKernelsLoaded() {
+        // set by the simd profile, which runs the tests with the vector module
+        Assume.assumeTrue(Boolean.getBoolean("tests.simd"));
+        Assert.assertTrue(VectorKernels.INSTANCE.name(), VectorKernels.INSTANCE.name().startsWith("simd"));
+    }
+
+    @Test
+    public void testFloatKernels() {
+        Random random = new Random(0);
+        for (int iter = 0; iter < 1000; iter++) {
+            int length = random.nextInt(70);
+            int aOffset = random.nextInt(5);
+            int bOffset = random.nextInt(5);
+            float[] a = randomVector(aOffset + length, random);
+            float[] b = randomVector(bOffset + length, random);
+            double dot = 0;
+            double square = 0;
+            double l1 = 0;
+            for (int i = 0; i < length; i++) {
+                double x = a[aOffset + i];
+                double y = b[bOffset + i];
+                dot += x * y;
+                square += (x - y) * (x - y);
+                l1 += Math.abs(x - y);
+            }
+            for (VectorKernels kernels : KERNELS) {
+                Assert.assertEquals(kernels.name(), dot, kernels.dot(a, aOffset, b, bOffset, length), 1e-4);
+                Assert.assertEquals(kernels.name(), square, kernels.squareDistance(a, aOffset, b, bOffset, length), 1e-4);
+                Assert.assertEquals(kernels.name(), l1, kernels.l1Distance(a, aOffset, b, bOffset, length), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void testDotMatrix() {
+        Random random = new Random(4);
+        for (int iter = 0; iter < 500; iter++) {
+            int rows = 1 + random.nextInt(10);
+            int dims = random.nextInt(70);
+            float[] matrix = randomVector(rows * dims, random);
+            float[] x = randomVector(dims, random);
+            for (VectorKernels kernels : KERNELS) {
+                float[] out = new float[rows];
+                kernels.dotMatrix(matrix, rows, x, dims, out);
+                for (int r = 0; r < rows; r++) {
+                    double dot = 0;
+                    for (int i = 0; i < dims; i++) {
+                        dot += (double) matrix[r * dims + i] * x[i];
+                    }
+                    Assert.assertEquals(kernels.name(), dot, out[r], 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testByteBufferKernels() {
+        Random random = new Random(1);
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            for (int iter = 0; iter < 500; iter++) {
+                int length = random.nextInt(70);
+                int offset = random.nextInt(9);
+                float[] a = randomVector(length, random);
+                float[] b = randomVector(length, random);
+                ByteBuffer buffer = ByteBuffer.allocate(offset + length * Float.BYTES).order(order);
+                double dot = 0;
+                double l1 = 0;
+                for (int i = 0; i < length; i++) {
+                    buffer.putFloat(offset + i * Float.BYTES, b[i]);
+                    dot += (double) a[i] * b[i];
+                    l1 += Math.abs((double) a[i] - b[i]);
+                }
+                for (VectorKernels kernels : KERNELS) {
+                    Assert.assertEquals(kernels.name(), dot, kernels.dot(a, buffer, offset, length), 1e-4);
+                    Assert.assertEquals(kernels.name(), l1, kernels.l1Distance(a, buffer, offset, length), 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDotSignedUnsigned() {
+        Random random = new Random(2);
+        for (int iter = 0; iter < 1000; iter++) {
+            int length = random.nextInt(100);
+            int offset = random.nextInt(9);
+            byte[] a = new byte[length];
+            byte[] b = new byte[offset + length];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            int expected = 0;
+            for (int i = 0; i < length; i++) {
+                expected += a[i] * (b[offset + i] & 0xFF);
+            }
+            for (VectorKernels kernels : KERNELS) {
+                Assert.assertEquals(kernels.name(), expected, kernels.dotSignedUnsigned(a, b, offset, length));
+            }
+        }
+    }
+
+    @Test
+    public void testBitCounts() {
+        Random random = new Random(3);
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            for (int iter = 0; iter < 500; iter++) {
+                int words = random.nextInt(10);
+                int offset = random.nextInt(9);
+                long[] a = new long[words];
+                ByteBuffer buffer = ByteBuffer.allocate(offset + words * Long.BYTES).order(order);
+                int and = 0;
+                int xor = 0;
+                for (int i = 0; i < words; i++) {
+                    a[i] = random.nextLong();
+                    long b = random.nextLong();
+                    buffer.putLong(offset + i * Long.BYTES, b);
+                    for (int bit = 0; bit < Long.SIZE; bit++) {
+                        and += (a[i] >>> bit & b >>> bit & 1) == 1 ? 1 : 0;
+                        xor += ((a[i] ^ b) >>> bit & 1) == 1 ? 1 : 0;
+                    }
+                }
+                for (VectorKernels kernels : KERNELS) {
+                    Assert.assertEquals(kernels.name(), and, kernels.andCount(a, buffer, offset, words));
+                    Assert.assertEquals(kernels.name(), xor, kernels.xorCount(a, buffer, offset, words));
+                }
+            }
+        }
+    }
+
+    private static float[] randomVector(int length, Random random) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}